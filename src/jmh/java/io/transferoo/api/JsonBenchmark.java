@@ -0,0 +1,230 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.api;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.dropwizard.jackson.Jackson;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON round trips of the resources the API hands out, with the object mapper Dropwizard configures.
+ *
+ * <p>{@code HAND_WRITTEN} uses the mappings the API types are annotated with; {@code BEANS} restores the bean
+ * mappings they had before, with {@code @JsonUnwrapped} metadata, so the two can be compared. Besides operations,
+ * each benchmark counts the JSON bytes it goes through, reported as a rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    public enum Mapping {
+        HAND_WRITTEN,
+        BEANS
+    }
+
+    @Param
+    private Mapping mapping;
+
+    private ObjectWriter accountWriter;
+    private ObjectReader accountReader;
+    private ObjectWriter transactionWriter;
+    private ObjectReader transactionReader;
+    private Account account;
+    private byte[] accountJson;
+    private Transaction transaction;
+    private byte[] transactionJson;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Bytes {
+
+        @SuppressWarnings("checkstyle:visibilitymodifier")
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        ObjectMapper mapper = mapping == Mapping.BEANS ? beanMapper() : Jackson.newObjectMapper();
+        accountWriter = mapper.writerFor(Account.class);
+        accountReader = mapper.readerFor(Account.class);
+        transactionWriter = mapper.writerFor(Transaction.class);
+        transactionReader = mapper.readerFor(Transaction.class);
+
+        account = Account.builder()
+                         .id(UniqueId.of(UUID.randomUUID()))
+                         .metadata(AccountMetadata.builder()
+                                                  .balance(new BigDecimal("1234.5678"))
+                                                  .build())
+                         .build();
+        accountJson = accountWriter.writeValueAsBytes(account);
+        transaction = Transaction.builder()
+                                 .id(UniqueId.of(UUID.randomUUID()))
+                                 .metadata(TransactionMetadata.builder()
+                                                              .source(UniqueId.of(UUID.randomUUID()))
+                                                              .destination(UniqueId.of(UUID.randomUUID()))
+                                                              .amount(new BigDecimal("10.23"))
+                                                              .build())
+                                 .build();
+        transactionJson = transactionWriter.writeValueAsBytes(transaction);
+    }
+
+    @Benchmark
+    public byte[] writeAccount(Bytes bytes) throws IOException {
+        byte[] json = accountWriter.writeValueAsBytes(account);
+        bytes.bytes += json.length;
+        return json;
+    }
+
+    @Benchmark
+    public Account readAccount(Bytes bytes) throws IOException {
+        bytes.bytes += accountJson.length;
+        return accountReader.readValue(accountJson);
+    }
+
+    @Benchmark
+    public Account roundTripAccount(Bytes bytes) throws IOException {
+        byte[] json = accountWriter.writeValueAsBytes(account);
+        bytes.bytes += 2 * json.length;
+        return accountReader.readValue(json);
+    }
+
+    @Benchmark
+    public byte[] writeTransaction(Bytes bytes) throws IOException {
+        byte[] json = transactionWriter.writeValueAsBytes(transaction);
+        bytes.bytes += json.length;
+        return json;
+    }
+
+    @Benchmark
+    public Transaction readTransaction(Bytes bytes) throws IOException {
+        bytes.bytes += transactionJson.length;
+        return transactionReader.readValue(transactionJson);
+    }
+
+    @Benchmark
+    public Transaction roundTripTransaction(Bytes bytes) throws IOException {
+        byte[] json = transactionWriter.writeValueAsBytes(transaction);
+        bytes.bytes += 2 * json.length;
+        return transactionReader.readValue(json);
+    }
+
+    /**
+     * Dropwizard's object mapper, with mix-ins that swap the hand-written mappings for bean mappings.
+     */
+    static ObjectMapper beanMapper() {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        mapper.addMixIn(UniqueId.class, UniqueIdMixIn.class);
+        mapper.addMixIn(AccountMetadata.class, AccountMetadataMixIn.class);
+        mapper.addMixIn(Account.class, AccountMixIn.class);
+        mapper.addMixIn(ImmutableAccount.Json.class, AccountJsonMixIn.class);
+        mapper.addMixIn(TransactionMetadata.class, TransactionMetadataMixIn.class);
+        mapper.addMixIn(Transaction.class, TransactionMixIn.class);
+        mapper.addMixIn(ImmutableTransaction.Json.class, TransactionJsonMixIn.class);
+        return mapper;
+    }
+
+    @JsonSerialize(using = JsonSerializer.None.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class)
+    private abstract static class UniqueIdMixIn {
+
+        @JsonValue
+        abstract UUID id();
+
+        @JsonCreator
+        static <T> UniqueId<T> valueOf(String id) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @JsonSerialize(using = JsonSerializer.None.class, as = ImmutableAccountMetadata.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class, as = ImmutableAccountMetadata.class)
+    private abstract static class AccountMetadataMixIn {}
+
+    @JsonSerialize(using = JsonSerializer.None.class, as = ImmutableAccount.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class, as = ImmutableAccount.class)
+    private abstract static class AccountMixIn {
+
+        @JsonUnwrapped
+        abstract AccountMetadata metadata();
+    }
+
+    private abstract static class AccountJsonMixIn {
+
+        @JsonUnwrapped
+        abstract void setMetadata(AccountMetadata metadata);
+    }
+
+    @JsonSerialize(using = JsonSerializer.None.class, as = ImmutableTransactionMetadata.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class, as = ImmutableTransactionMetadata.class)
+    private abstract static class TransactionMetadataMixIn {}
+
+    @JsonSerialize(using = JsonSerializer.None.class, as = ImmutableTransaction.class)
+    @JsonDeserialize(using = JsonDeserializer.None.class, as = ImmutableTransaction.class)
+    private abstract static class TransactionMixIn {
+
+        @JsonUnwrapped
+        abstract TransactionMetadata metadata();
+    }
+
+    private abstract static class TransactionJsonMixIn {
+
+        @JsonUnwrapped
+        abstract void setMetadata(TransactionMetadata metadata);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.codahale.metrics.MetricRegistry;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transfers and lookups against an in-memory store, on one thread and on as many threads as there are cores, atomic
+ * batches of transfers to compare with single ones, and snapshot lookups of two accounts with and without transfers
+ * going on.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccountStoreBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    // Enough for every transfer of a long run to go through
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final int BATCH = 100;
+
+    @Param({"LOCKING", "SEQUENCED"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public StoreConfiguration.Engine engine;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public StoreConfiguration.AccountStorage accountStorage;
+
+    @Param({"1", "4"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public int shards;
+
+    private Ledger store;
+    private List<UniqueId<Account>> accounts;
+    private List<TransactionMetadata> batch;
+
+    @Setup
+    public void setUp() throws IOException {
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setEngine(engine);
+        configuration.setAccountStorage(accountStorage);
+        configuration.setOffHeapAccounts(ACCOUNTS);
+        configuration.setShards(shards);
+        store = Ledger.create(configuration, new MetricRegistry());
+        store.start();
+
+        accounts = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(store.createAccount(AccountMetadata.builder()
+                                                            .balance(INITIAL_BALANCE)
+                                                            .build())
+                              .id());
+        }
+        batch = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(randomTransfer());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException, IOException {
+        store.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction createTransaction() {
+        return store.createTransaction(randomTransfer());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Transaction createTransactionContended() {
+        return store.createTransaction(randomTransfer());
+    }
+
+    /**
+     * Scored per transfer, to compare with {@link #createTransaction()}.
+     */
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH)
+    public List<TransactionResult> createTransactions() {
+        return store.createTransactions(batch, BatchMode.ATOMIC);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<Account> getAccountById() {
+        return store.getAccountById(randomAccount(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Optional<Account> getAccountByIdContended() {
+        return store.getAccountById(randomAccount(ThreadLocalRandom.current()));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Map<UniqueId<Account>, Account> getAccountsById() {
+        return store.getAccountsById(randomPair());
+    }
+
+    /**
+     * Snapshot reads of two accounts while another thread keeps transferring, to compare with
+     * {@link #getAccountsById()} on an idle store.
+     */
+    @Benchmark
+    @Group("getAccountsByIdUnderTransfers")
+    @GroupThreads(1)
+    public Map<UniqueId<Account>, Account> getAccountsByIdReader() {
+        return store.getAccountsById(randomPair());
+    }
+
+    @Benchmark
+    @Group("getAccountsByIdUnderTransfers")
+    @GroupThreads(1)
+    public Transaction getAccountsByIdWriter() {
+        return store.createTransaction(randomTransfer());
+    }
+
+    private TransactionMetadata randomTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UniqueId<Account> source = randomAccount(random);
+        UniqueId<Account> destination = randomAccount(random);
+        while (destination.equals(source)) {
+            destination = randomAccount(random);
+        }
+        return TransactionMetadata.builder()
+                                  .source(source)
+                                  .destination(destination)
+                                  .amount(AMOUNT)
+                                  .build();
+    }
+
+    private List<UniqueId<Account>> randomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return Arrays.asList(randomAccount(random), randomAccount(random));
+    }
+
+    private UniqueId<Account> randomAccount(ThreadLocalRandom random) {
+        return accounts.get(random.nextInt(accounts.size()));
+    }
+}
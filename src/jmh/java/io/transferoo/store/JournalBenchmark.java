@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.codahale.metrics.MetricRegistry;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transfers against a store that journals them to a temporary directory, on one thread and on as many threads as
+ * there are cores, so that group commit has company to batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+    private static final int ACCOUNTS = 1_000;
+    // Enough for every transfer of a long run to go through
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"SYNC", "GROUP", "ASYNC"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public JournalConfiguration.Durability durability;
+
+    private Path directory;
+    private Ledger store;
+    private List<UniqueId<Account>> accounts;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("transferoo-journal-benchmark");
+        JournalConfiguration journal = new JournalConfiguration();
+        journal.setDirectory(directory.toString());
+        journal.setDurability(durability);
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setJournal(journal);
+        store = Ledger.create(configuration, new MetricRegistry());
+        store.start();
+
+        accounts = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(store.createAccount(AccountMetadata.builder()
+                                                            .balance(INITIAL_BALANCE)
+                                                            .build())
+                              .id());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException, IOException {
+        store.stop();
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Transaction createTransaction() {
+        return store.createTransaction(randomTransfer());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Transaction createTransactionContended() {
+        return store.createTransaction(randomTransfer());
+    }
+
+    private TransactionMetadata randomTransfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        UniqueId<Account> source = accounts.get(random.nextInt(accounts.size()));
+        UniqueId<Account> destination = accounts.get(random.nextInt(accounts.size()));
+        while (destination.equals(source)) {
+            destination = accounts.get(random.nextInt(accounts.size()));
+        }
+        return TransactionMetadata.builder()
+                                  .source(source)
+                                  .destination(destination)
+                                  .amount(AMOUNT)
+                                  .build();
+    }
+}
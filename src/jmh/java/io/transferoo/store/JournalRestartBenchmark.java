@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Restarts a store from a journal of the given number of transfers, with and without a snapshot covering them, to
+ * show that a snapshot keeps restart time from growing with history.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalRestartBenchmark {
+
+    private static final int ACCOUNTS = 1_000;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"10000", "100000"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public int transfers;
+
+    @Param({"false", "true"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public boolean snapshot;
+
+    private Path directory;
+    private StoreConfiguration configuration;
+    private AccountStore store;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("transferoo-restart-benchmark");
+        JournalConfiguration journal = new JournalConfiguration();
+        journal.setDirectory(directory.toString());
+        journal.setDurability(JournalConfiguration.Durability.ASYNC);
+        configuration = new StoreConfiguration();
+        configuration.setJournal(journal);
+
+        AccountStore history = new AccountStore(configuration);
+        history.start();
+        List<UniqueId<Account>> accounts = new ArrayList<>(ACCOUNTS);
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(history.createAccount(AccountMetadata.builder()
+                                                              .balance(INITIAL_BALANCE)
+                                                              .build())
+                                .id());
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            UniqueId<Account> source = accounts.get(random.nextInt(accounts.size()));
+            UniqueId<Account> destination = accounts.get(random.nextInt(accounts.size()));
+            while (destination.equals(source)) {
+                destination = accounts.get(random.nextInt(accounts.size()));
+            }
+            history.createTransaction(TransactionMetadata.builder()
+                                                         .source(source)
+                                                         .destination(destination)
+                                                         .amount(AMOUNT)
+                                                         .build());
+        }
+        if (snapshot) {
+            history.snapshot();
+        }
+        history.stop();
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopStore() throws InterruptedException, IOException {
+        store.stop();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.sorted(Comparator.reverseOrder())
+                        .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public AccountStore restart() throws IOException {
+        store = new AccountStore(configuration);
+        store.start();
+        return store;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import com.codahale.metrics.MetricRegistry;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contended transfers between accounts of the same shard, and between accounts of two different shards, against
+ * a single store and against a sharded one. Transfers within a shard only ever involve that shard, so with the
+ * sequenced engine, whose single writer thread bounds a single store, they should scale with the shards as long
+ * as there are cores for them. Transfers across shards take the stripes of both, and show what that costs.
+ * Against a single store, both pick any two accounts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardedAccountStoreBenchmark {
+
+    private static final int ACCOUNTS = 10_000;
+    // Enough for every transfer of a long run to go through
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+
+    @Param({"LOCKING", "SEQUENCED"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public StoreConfiguration.Engine engine;
+
+    @Param({"1", "4"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public int shards;
+
+    private Ledger store;
+    // The accounts of each shard
+    private List<List<UniqueId<Account>>> accounts;
+
+    @Setup
+    public void setUp() throws IOException {
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setEngine(engine);
+        configuration.setShards(shards);
+        LocalLedger ledger = Ledger.create(configuration, new MetricRegistry());
+        store = ledger;
+        store.start();
+
+        accounts = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            accounts.add(new ArrayList<>());
+        }
+        for (int i = 0; i < ACCOUNTS; i++) {
+            UniqueId<Account> accountId = store.createAccount(AccountMetadata.builder()
+                                                                             .balance(INITIAL_BALANCE)
+                                                                             .build())
+                                               .id();
+            int shard = ledger instanceof ShardedAccountStore
+                    ? ((ShardedAccountStore) ledger).shardIndex(accountId)
+                    : 0;
+            accounts.get(shard).add(accountId);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException, IOException {
+        store.stop();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Transaction createTransactionWithinShard() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<UniqueId<Account>> shard = accounts.get(random.nextInt(accounts.size()));
+        return store.createTransaction(transfer(random, shard, shard));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Transaction createTransactionAcrossShards() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int source = random.nextInt(accounts.size());
+        int destination = accounts.size() == 1
+                ? source
+                : (source + 1 + random.nextInt(accounts.size() - 1)) % accounts.size();
+        return store.createTransaction(transfer(random, accounts.get(source), accounts.get(destination)));
+    }
+
+    private static TransactionMetadata transfer(ThreadLocalRandom random,
+                                                List<UniqueId<Account>> sources,
+                                                List<UniqueId<Account>> destinations) {
+        UniqueId<Account> source = sources.get(random.nextInt(sources.size()));
+        UniqueId<Account> destination = destinations.get(random.nextInt(destinations.size()));
+        while (destination.equals(source)) {
+            destination = destinations.get(random.nextInt(destinations.size()));
+        }
+        return TransactionMetadata.builder()
+                                  .source(source)
+                                  .destination(destination)
+                                  .amount(AMOUNT)
+                                  .build();
+    }
+}
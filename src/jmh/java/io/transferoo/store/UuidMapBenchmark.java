@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.UniqueId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of random ids in a {@link UuidMap} and in a {@link ConcurrentHashMap} holding the same entries, and
+ * inserts into each from as many threads as there are cores while it grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UuidMapBenchmark {
+
+    @Param({"10000", "1000000"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public int entries;
+
+    private List<UniqueId<Account>> ids;
+    private UuidMap<UniqueId<Account>> uuidMap;
+    private ConcurrentMap<UniqueId<Account>, UniqueId<Account>> concurrentMap;
+    private UuidMap<UniqueId<Account>> growingUuidMap;
+    private ConcurrentMap<UniqueId<Account>, UniqueId<Account>> growingConcurrentMap;
+
+    @Setup
+    public void setUp() {
+        ids = new ArrayList<>(entries);
+        uuidMap = new UuidMap<>();
+        concurrentMap = new ConcurrentHashMap<>();
+        for (int i = 0; i < entries; i++) {
+            UniqueId<Account> id = UniqueId.of(UUID.randomUUID());
+            ids.add(id);
+            uuidMap.putIfAbsent(id, id);
+            concurrentMap.put(id, id);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        growingUuidMap = new UuidMap<>();
+        growingConcurrentMap = new ConcurrentHashMap<>();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UniqueId<Account> getUuidMap() {
+        return uuidMap.get(randomId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public UniqueId<Account> getConcurrentHashMap() {
+        return concurrentMap.get(randomId());
+    }
+
+    /**
+     * Keeps adding new ids to a map that starts empty every iteration, so that it keeps growing under the
+     * writers.
+     */
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UniqueId<Account> putIfAbsentUuidMap() {
+        UniqueId<Account> id = newId();
+        return growingUuidMap.putIfAbsent(id, id);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UniqueId<Account> putIfAbsentConcurrentHashMap() {
+        UniqueId<Account> id = newId();
+        return growingConcurrentMap.putIfAbsent(id, id);
+    }
+
+    private static UniqueId<Account> newId() {
+        // Random UUIDs come from a SecureRandom that would be all the writers contend on
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return UniqueId.of(new UUID(random.nextLong(), random.nextLong()));
+    }
+
+    private UniqueId<Account> randomId() {
+        return ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.load;
+
+import com.google.common.base.Preconditions;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks which of the pre-created accounts each request goes to, by index.
+ */
+interface AccountSelector {
+
+    int next(ThreadLocalRandom random);
+
+    enum Distribution {
+        /**
+         * Every account is as likely as any other.
+         */
+        UNIFORM,
+        /**
+         * The n-th most popular account is picked with a probability proportional to 1/n^exponent.
+         */
+        ZIPFIAN,
+        /**
+         * A fixed fraction of requests goes to a handful of hot accounts, the rest are spread uniformly.
+         */
+        HOT
+    }
+
+    static AccountSelector uniform(int accounts) {
+        return random -> random.nextInt(accounts);
+    }
+
+    static AccountSelector zipfian(int accounts, double exponent) {
+        double[] cumulative = new double[accounts];
+        double sum = 0;
+        for (int i = 0; i < accounts; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            // Not found gives -(insertion point) - 1, and the insertion point is the account we landed on
+            return index >= 0 ? index : Math.min(-index - 1, accounts - 1);
+        };
+    }
+
+    static AccountSelector hot(int accounts, int hotAccounts, double hotFraction) {
+        Preconditions.checkArgument(hotAccounts > 0 && hotAccounts <= accounts,
+                                    "hotAccounts must be between 1 and %s: %s", accounts, hotAccounts);
+        // Transfers redraw destinations until they differ from the source
+        Preconditions.checkArgument(hotAccounts > 1 || hotFraction < 1,
+                                    "A single hot account cannot take every pick: %s", hotFraction);
+        return random -> random.nextDouble() < hotFraction
+                ? random.nextInt(hotAccounts)
+                : random.nextInt(accounts);
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.load;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.util.Duration;
+import io.transferoo.TransferooConfiguration;
+import io.transferoo.TransferooServer;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import io.transferoo.resource.ExecutionConfiguration;
+import io.transferoo.resource.TransferooEndpoints;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Drives a mix of requests against a Transferoo server, booted in-process unless {@code --url} points at one
+ * already running, and reports throughput and latency percentiles for each kind of request.
+ *
+ * <p>Requests are sent at a fixed rate rather than as fast as the server answers, and latency is measured from
+ * when each request should have been sent. A server that stalls therefore shows up in the percentiles of all
+ * the requests it held up, instead of in just one slow request: this corrects for coordinated omission. The
+ * time the server actually took to answer is reported separately, as service time.
+ *
+ * <p>Transfers and reads only pick from the accounts created up front. Accounts created while the load runs
+ * are left out, so that every request picks from the same, fixed set of accounts and the distribution stays
+ * the one asked for.
+ */
+public final class LoadGenerator {
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.01");
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final Namespace options;
+    private final WebTarget api;
+    private final Operation[] mix;
+    private final List<UniqueId<Account>> accounts = new ArrayList<>();
+
+    private LoadGenerator(Namespace options, WebTarget api) {
+        this.options = options;
+        this.api = api;
+        this.mix = parseMix(options.getString("mix"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = parser();
+        Namespace options;
+        try {
+            options = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+            return;
+        }
+
+        DropwizardTestSupport<TransferooConfiguration> server = null;
+        String url = options.getString("url");
+        if (url == null) {
+            String config = options.getString("config");
+            if (config == null) {
+                config = ResourceHelpers.resourceFilePath("load.yml");
+            }
+            ExecutionConfiguration.Mode execution = options.get("execution");
+            server = execution == null
+                    ? new DropwizardTestSupport<>(TransferooServer.class, config)
+                    : new DropwizardTestSupport<>(TransferooServer.class, config,
+                                                  ConfigOverride.config("execution.mode", execution.name()));
+            server.before();
+            url = String.format("http://localhost:%d/api", server.getLocalPort());
+        }
+
+        int threads = options.getInt("threads");
+        ExecutorService clientExecutor = Executors.newCachedThreadPool();
+        Client client = client(threads, clientExecutor);
+        try {
+            new LoadGenerator(options, client.target(url)).run();
+        } finally {
+            client.close();
+            clientExecutor.shutdown();
+            if (server != null) {
+                server.after();
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        int accountCount = options.getInt("accounts");
+        Preconditions.checkArgument(accountCount > 1, "Transfers need at least two accounts: %s", accountCount);
+        for (int i = 0; i < accountCount; i++) {
+            accounts.add(createAccount().readEntity(Account.class).id());
+        }
+
+        int threads = options.getInt("threads");
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) * threads / options.getInt("rate");
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + TimeUnit.SECONDS.toNanos(options.getInt("warmup"));
+        long end = measureFrom + TimeUnit.SECONDS.toNanos(options.getInt("duration"));
+        AccountSelector selector = selector(accountCount);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Results>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < threads; i++) {
+                // Stagger the threads, so that requests are spread evenly over each interval
+                long threadStart = start + intervalNanos * i / threads;
+                futures.add(executor.submit(() -> drive(selector, threadStart, intervalNanos, measureFrom, end)));
+            }
+            Results results = new Results();
+            for (Future<Results> future : futures) {
+                results.add(future.get());
+            }
+            report(results, results.finished - measureFrom);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Results drive(AccountSelector selector, long start, long intervalNanos, long measureFrom, long end) {
+        Results results = new Results();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (long intended = start; intended < end; intended += intervalNanos) {
+            long now = System.nanoTime();
+            while (now < intended) {
+                LockSupport.parkNanos(intended - now);
+                now = System.nanoTime();
+            }
+
+            Operation operation = mix[random.nextInt(mix.length)];
+            boolean succeeded = send(operation, selector, random);
+            long done = System.nanoTime();
+            if (intended >= measureFrom) {
+                results.record(operation, done - intended, done - now, succeeded);
+                results.finished = done;
+            }
+        }
+        return results;
+    }
+
+    private boolean send(Operation operation, AccountSelector selector, ThreadLocalRandom random) {
+        Response response;
+        try {
+            switch (operation) {
+                case CREATE_ACCOUNT:
+                    response = createAccount();
+                    break;
+                case TRANSFER:
+                    response = transfer(selector, random);
+                    break;
+                default:
+                    response = api.path(TransferooEndpoints.ACCOUNT_RESOURCE)
+                                  .path(accounts.get(selector.next(random)).id().toString())
+                                  .request(MediaType.APPLICATION_JSON_TYPE)
+                                  .get();
+                    break;
+            }
+        } catch (RuntimeException e) {
+            return false;
+        }
+        // Read the whole response, so that the connection can be reused
+        response.readEntity(String.class);
+        return response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL;
+    }
+
+    private Response createAccount() {
+        return api.path(TransferooEndpoints.ACCOUNT_RESOURCE)
+                  .request(MediaType.APPLICATION_JSON_TYPE)
+                  .post(Entity.json(AccountMetadata.builder()
+                                                   .balance(INITIAL_BALANCE)
+                                                   .build()));
+    }
+
+    private Response transfer(AccountSelector selector, ThreadLocalRandom random) {
+        int source = selector.next(random);
+        int destination = selector.next(random);
+        while (destination == source) {
+            // Redraw from the same distribution, so that skewed runs stay as skewed for destinations
+            destination = selector.next(random);
+        }
+        return api.path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                  .request(MediaType.APPLICATION_JSON_TYPE)
+                  .post(Entity.json(TransactionMetadata.builder()
+                                                       .source(accounts.get(source))
+                                                       .destination(accounts.get(destination))
+                                                       .amount(AMOUNT)
+                                                       .build()));
+    }
+
+    private AccountSelector selector(int accountCount) {
+        switch (options.<AccountSelector.Distribution>get("distribution")) {
+            case ZIPFIAN:
+                return AccountSelector.zipfian(accountCount, options.getDouble("zipf_exponent"));
+            case HOT:
+                return AccountSelector.hot(accountCount, options.getInt("hot_accounts"),
+                                           options.getDouble("hot_fraction"));
+            default:
+                return AccountSelector.uniform(accountCount);
+        }
+    }
+
+    private static void report(Results results, long elapsedNanos) {
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-15s %10s %8s %10s | %-35s | %s",
+                                         "", "", "", "", "latency (ms)", "service time (ms)"));
+        System.out.println(String.format(Locale.ROOT, "%-15s %10s %8s %10s | %8s %8s %8s %8s | %8s %8s %8s %8s",
+                                         "operation", "requests", "errors", "req/s",
+                                         "p50", "p99", "p99.9", "max", "p50", "p99", "p99.9", "max"));
+        for (Operation operation : Operation.values()) {
+            Histogram latency = results.latencies.get(operation);
+            if (latency.getTotalCount() > 0) {
+                Histogram serviceTime = results.serviceTimes.get(operation);
+                System.out.println(String.format(Locale.ROOT, "%-15s %10d %8d %10.1f | %s | %s",
+                                                 operation, latency.getTotalCount(), results.errors.get(operation),
+                                                 latency.getTotalCount() / seconds,
+                                                 percentiles(latency), percentiles(serviceTime)));
+            }
+        }
+    }
+
+    private static String percentiles(Histogram histogram) {
+        return String.format(Locale.ROOT, "%8.2f %8.2f %8.2f %8.2f",
+                             millis(histogram.getValueAtPercentile(50)),
+                             millis(histogram.getValueAtPercentile(99)),
+                             millis(histogram.getValueAtPercentile(99.9)),
+                             millis(histogram.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static Operation[] parseMix(String mix) {
+        List<Operation> operations = new ArrayList<>();
+        for (Map.Entry<String, String> weight : Splitter.on(',').trimResults().withKeyValueSeparator('=').split(mix)
+                                                        .entrySet()) {
+            Operation operation = Operation.valueOf(weight.getKey().toUpperCase(Locale.ROOT));
+            for (int i = 0; i < Integer.parseInt(weight.getValue()); i++) {
+                operations.add(operation);
+            }
+        }
+        if (operations.isEmpty()) {
+            throw new IllegalArgumentException("Mix has no operations: " + mix);
+        }
+        return operations.toArray(new Operation[operations.size()]);
+    }
+
+    private static Client client(int threads, ExecutorService executor) {
+        JerseyClientConfiguration configuration = new JerseyClientConfiguration();
+        configuration.setMaxConnections(threads);
+        configuration.setMaxConnectionsPerRoute(threads);
+        configuration.setTimeout(Duration.seconds(30));
+        configuration.setGzipEnabled(false);
+        configuration.setGzipEnabledForRequests(false);
+        return new JerseyClientBuilder(new MetricRegistry()).using(configuration)
+                                                            .using(executor, Jackson.newObjectMapper())
+                                                            .build("load-generator");
+    }
+
+    private static ArgumentParser parser() {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("load-generator")
+                .defaultHelp(true)
+                .description("Drives load against Transferoo and reports latency percentiles.");
+        parser.addArgument("--url")
+              .help("API of a running server, e.g. http://localhost:8343/api; boots one in-process if not given");
+        parser.addArgument("--config")
+              .help("Configuration of the in-process server; defaults to a bundled in-memory one");
+        parser.addArgument("--execution").type(ExecutionConfiguration.Mode.class)
+              .help("Execution mode of the in-process server, overriding its configuration");
+        parser.addArgument("--threads").type(Integer.class).setDefault(16)
+              .help("Client threads");
+        parser.addArgument("--rate").type(Integer.class).setDefault(1000)
+              .help("Requests per second, across all threads");
+        parser.addArgument("--warmup").type(Integer.class).setDefault(10)
+              .help("Seconds of load before measuring");
+        parser.addArgument("--duration").type(Integer.class).setDefault(60)
+              .help("Seconds of load to measure");
+        parser.addArgument("--accounts").type(Integer.class).setDefault(1000)
+              .help("Accounts created up front, the only ones transfers and reads pick from");
+        parser.addArgument("--mix").setDefault("create_account=1,transfer=8,read_account=1")
+              .help("Relative weights of the operations");
+        parser.addArgument("--distribution").type(AccountSelector.Distribution.class)
+              .setDefault(AccountSelector.Distribution.UNIFORM)
+              .help("How accounts are picked");
+        parser.addArgument("--zipf-exponent").type(Double.class).setDefault(0.99)
+              .help("Skew of the ZIPFIAN distribution");
+        parser.addArgument("--hot-accounts").type(Integer.class).setDefault(10)
+              .help("Number of hot accounts of the HOT distribution");
+        parser.addArgument("--hot-fraction").type(Double.class).setDefault(0.9)
+              .help("Fraction of picks that go to hot accounts in the HOT distribution");
+        return parser;
+    }
+
+    private static final class Results {
+
+        private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+        private final Map<Operation, Histogram> serviceTimes = new EnumMap<>(Operation.class);
+        private final Map<Operation, Long> errors = new EnumMap<>(Operation.class);
+        // When the last measured request completed; a server that falls behind takes longer than the duration
+        private long finished = Long.MIN_VALUE;
+
+        private Results() {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new Histogram(HIGHEST_TRACKABLE_NANOS, 3));
+                serviceTimes.put(operation, new Histogram(HIGHEST_TRACKABLE_NANOS, 3));
+                errors.put(operation, 0L);
+            }
+        }
+
+        private void record(Operation operation, long latencyNanos, long serviceTimeNanos, boolean succeeded) {
+            latencies.get(operation).recordValue(Math.min(latencyNanos, HIGHEST_TRACKABLE_NANOS));
+            serviceTimes.get(operation).recordValue(Math.min(serviceTimeNanos, HIGHEST_TRACKABLE_NANOS));
+            if (!succeeded) {
+                errors.merge(operation, 1L, Long::sum);
+            }
+        }
+
+        private void add(Results other) {
+            for (Operation operation : Operation.values()) {
+                latencies.get(operation).add(other.latencies.get(operation));
+                serviceTimes.get(operation).add(other.serviceTimes.get(operation));
+                errors.merge(operation, other.errors.get(operation), Long::sum);
+            }
+            finished = Math.max(finished, other.finished);
+        }
+    }
+}
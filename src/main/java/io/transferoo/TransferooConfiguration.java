@@ -24,7 +24,85 @@
 
 package io.transferoo;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.Configuration;
+import io.transferoo.cluster.ClusterConfiguration;
+import io.transferoo.gateway.GatewayConfiguration;
+import io.transferoo.resource.ExecutionConfiguration;
+import io.transferoo.resource.IdempotencyConfiguration;
+import io.transferoo.store.StoreConfiguration;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
 
 public class TransferooConfiguration extends Configuration {
+
+    @Valid
+    @NotNull
+    private StoreConfiguration store = new StoreConfiguration();
+
+    @Valid
+    @NotNull
+    private IdempotencyConfiguration idempotency = new IdempotencyConfiguration();
+
+    @Valid
+    @NotNull
+    private ExecutionConfiguration execution = new ExecutionConfiguration();
+
+    // Without a gateway, transfers are only served over HTTP
+    @Valid
+    private GatewayConfiguration gateway;
+
+    // Without a cluster, this node keeps every account itself
+    @Valid
+    private ClusterConfiguration cluster;
+
+    @JsonProperty
+    public StoreConfiguration getStore() {
+        return store;
+    }
+
+    @JsonProperty
+    public void setStore(StoreConfiguration store) {
+        this.store = store;
+    }
+
+    @JsonProperty
+    public IdempotencyConfiguration getIdempotency() {
+        return idempotency;
+    }
+
+    @JsonProperty
+    public void setIdempotency(IdempotencyConfiguration idempotency) {
+        this.idempotency = idempotency;
+    }
+
+    @JsonProperty
+    public ExecutionConfiguration getExecution() {
+        return execution;
+    }
+
+    @JsonProperty
+    public void setExecution(ExecutionConfiguration execution) {
+        this.execution = execution;
+    }
+
+    @JsonProperty
+    public GatewayConfiguration getGateway() {
+        return gateway;
+    }
+
+    @JsonProperty
+    public void setGateway(GatewayConfiguration gateway) {
+        this.gateway = gateway;
+    }
+
+    @JsonProperty
+    public ClusterConfiguration getCluster() {
+        return cluster;
+    }
+
+    @JsonProperty
+    public void setCluster(ClusterConfiguration cluster) {
+        this.cluster = cluster;
+    }
 }
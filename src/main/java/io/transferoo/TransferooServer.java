@@ -25,21 +25,92 @@
 package io.transferoo;
 
 import io.dropwizard.Application;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.jersey.DropwizardResourceConfig;
+import io.dropwizard.jersey.errors.EarlyEofExceptionMapper;
+import io.dropwizard.jersey.errors.LoggingExceptionMapper;
+import io.dropwizard.jersey.jackson.JacksonMessageBodyProvider;
+import io.dropwizard.jersey.jackson.JsonProcessingExceptionMapper;
+import io.dropwizard.jersey.setup.JerseyServletContainer;
 import io.dropwizard.setup.Environment;
 import io.transferoo.api.ParamConverters;
+import io.transferoo.cluster.ClusterAuthentication;
+import io.transferoo.cluster.ClusterConfiguration;
+import io.transferoo.cluster.ClusterResource;
+import io.transferoo.cluster.ClusteredLedger;
+import io.transferoo.cluster.JoinClusterTask;
+import io.transferoo.gateway.TransferGateway;
 import io.transferoo.resource.AccountResource;
+import io.transferoo.resource.ExecutionConfiguration;
+import io.transferoo.resource.StoreExecutor;
 import io.transferoo.resource.TransactionResource;
-import io.transferoo.store.AccountStore;
+import io.transferoo.resource.TransferooEndpoints;
+import io.transferoo.store.Ledger;
+import java.util.concurrent.ArrayBlockingQueue;
+import javax.ws.rs.client.Client;
+import org.glassfish.jersey.message.GZipEncoder;
 
 public class TransferooServer extends Application<TransferooConfiguration> {
 
     @Override
     public void run(TransferooConfiguration configuration,
                     Environment environment) throws Exception {
-        AccountStore accounts = new AccountStore();
-        environment.jersey().register(new AccountResource(accounts));
-        environment.jersey().register(new TransactionResource(accounts));
+        Ledger accounts = configuration.getCluster() == null
+                ? Ledger.create(configuration.getStore(), environment.metrics())
+                : clusteredLedger(configuration, environment);
+        environment.lifecycle().manage(accounts);
+        StoreExecutor executor = storeExecutor(configuration.getExecution(), environment);
+        environment.jersey().register(new AccountResource(accounts, executor, environment.getObjectMapper()));
+        environment.jersey().register(new TransactionResource(accounts, executor, configuration.getIdempotency(),
+                                                              configuration.getStore().getMaxBatchSize()));
         environment.jersey().register(new ParamConverters());
+        if (configuration.getGateway() != null) {
+            environment.lifecycle().manage(new TransferGateway(accounts, configuration.getGateway()));
+        }
+    }
+
+    private static Ledger clusteredLedger(TransferooConfiguration configuration, Environment environment) {
+        ClusterConfiguration cluster = configuration.getCluster();
+        Client client = new JerseyClientBuilder(environment).using(cluster.getClient())
+                                                            .build("cluster");
+        ClusteredLedger ledger = new ClusteredLedger(cluster, configuration.getStore(), environment.metrics(), client);
+        serveClusterResource(ledger, cluster.getSecret(), environment);
+        environment.admin().addTask(new JoinClusterTask(ledger));
+        return ledger;
+    }
+
+    /**
+     * Serves the endpoints only the nodes call on the admin context, away from the public API, and only to
+     * those presenting the secret. They get a Jersey application of their own, set up as Dropwizard sets up
+     * the public one.
+     */
+    private static void serveClusterResource(ClusteredLedger ledger, String secret, Environment environment) {
+        DropwizardResourceConfig jersey = new DropwizardResourceConfig(environment.metrics());
+        jersey.setUrlPattern("/" + TransferooEndpoints.CLUSTER_RESOURCE + "/*");
+        jersey.register(new JacksonMessageBodyProvider(environment.getObjectMapper(), environment.getValidator()));
+        jersey.register(new LoggingExceptionMapper<Throwable>() {});
+        jersey.register(new JsonProcessingExceptionMapper());
+        jersey.register(new EarlyEofExceptionMapper());
+        // The nodes' client gzips what it sends, which the admin context, unlike the public one, has no filter for
+        jersey.register(GZipEncoder.class);
+        jersey.register(new ParamConverters());
+        jersey.register(ClusterAuthentication.server(secret));
+        jersey.register(new ClusterResource(ledger));
+        environment.admin()
+                   .addServlet(TransferooEndpoints.CLUSTER_RESOURCE, new JerseyServletContainer(jersey))
+                   .addMapping(jersey.getUrlPattern());
+    }
+
+    private static StoreExecutor storeExecutor(ExecutionConfiguration configuration, Environment environment) {
+        if (configuration.getMode() == ExecutionConfiguration.Mode.SYNC) {
+            return StoreExecutor.direct();
+        }
+        return new StoreExecutor(environment.lifecycle()
+                                            .executorService("store-%d")
+                                            .minThreads(configuration.getThreads())
+                                            .maxThreads(configuration.getThreads())
+                                            .workQueue(new ArrayBlockingQueue<>(configuration.getQueueSize()))
+                                            .build());
     }
 
     public static void main(String[] args) throws Exception {
@@ -24,30 +24,26 @@
 
 package io.transferoo.api;
 
-import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import java.math.BigDecimal;
 import org.immutables.value.Value;
 
 @Value.Immutable
-@JsonSerialize(as = ImmutableAccount.class)
-@JsonDeserialize(as = ImmutableAccount.class)
+@JsonSerialize(using = JsonCodecs.AccountSerializer.class)
+@JsonDeserialize(using = JsonCodecs.AccountDeserializer.class)
 public abstract class Account implements HasUniqueId<Account> {
 
     @Override
     public abstract UniqueId<Account> id();
 
-    @JsonUnwrapped
     public abstract AccountMetadata metadata();
 
-    public Account newBalance(BigDecimal newBalance) {
-        AccountMetadata newBalanceMetadata = new AccountMetadata.Builder().from(metadata())
-                                                                          .balance(newBalance)
-                                                                          .build();
-        return new Builder().from(this)
-                            .metadata(newBalanceMetadata)
-                            .build();
+    /**
+     * Number of transfers applied to the account so far, so it goes up with every change of its balance.
+     */
+    @Value.Default
+    public long version() {
+        return 0;
     }
 
     public static Account.Builder builder() {
@@ -31,8 +31,8 @@ import java.math.BigDecimal;
 import org.immutables.value.Value;
 
 @Value.Immutable
-@JsonSerialize(as = ImmutableAccountMetadata.class)
-@JsonDeserialize(as = ImmutableAccountMetadata.class)
+@JsonSerialize(using = JsonCodecs.AccountMetadataSerializer.class)
+@JsonDeserialize(using = JsonCodecs.AccountMetadataDeserializer.class)
 public abstract class AccountMetadata {
 
     @JsonProperty("balance")
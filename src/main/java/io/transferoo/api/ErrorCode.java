@@ -24,8 +24,10 @@
 
 package io.transferoo.api;
 
+import java.math.BigDecimal;
 import java.util.function.Supplier;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 public enum ErrorCode {
@@ -36,7 +38,18 @@ public enum ErrorCode {
     TransactionNotFound(Response.Status.NOT_FOUND),
     SourceSameAsDestination(Response.Status.BAD_REQUEST),
     TransactionAmountNonPositive(Response.Status.BAD_REQUEST),
-    InsufficientBalance(Response.Status.BAD_REQUEST);
+    InsufficientBalance(Response.Status.BAD_REQUEST),
+    AmountOutOfRange(Response.Status.BAD_REQUEST),
+    InvalidIdempotencyKey(Response.Status.BAD_REQUEST),
+    IdempotencyKeyReused(Response.Status.CONFLICT),
+    StoreUnavailable(Response.Status.SERVICE_UNAVAILABLE),
+    AccountVersionConflict(Response.Status.CONFLICT),
+    NodeUnavailable(Response.Status.SERVICE_UNAVAILABLE),
+    TransferInDoubt(Response.Status.SERVICE_UNAVAILABLE),
+    BatchAcrossNodes(Response.Status.BAD_REQUEST),
+    BatchTooLarge(Response.Status.REQUEST_ENTITY_TOO_LARGE),
+    PartitionsBusy(Response.Status.SERVICE_UNAVAILABLE),
+    HandoffInDoubt(Response.Status.SERVICE_UNAVAILABLE);
 
     private final Response.Status status;
 
@@ -68,11 +81,22 @@ public enum ErrorCode {
     }
 
     public static WebApplicationException insufficientBalanceException(TransactionMetadata transactionMetadata,
-                                                                       Account source) {
+                                                                       BigDecimal sourceBalance) {
         throw createException(ErrorCode.InsufficientBalance,
                               "Unsufficient balance: amount="
                             + transactionMetadata.amount()
-                            + ", balance=" + source.metadata().balance());
+                            + ", balance=" + sourceBalance);
+    }
+
+    public static WebApplicationException amountOutOfRangeException(BigDecimal amount, int scale) {
+        throw createException(ErrorCode.AmountOutOfRange,
+                              "Amount must have at most " + scale
+                            + " decimal places and be within range: amount=" + amount);
+    }
+
+    public static WebApplicationException balanceOutOfRangeException(UniqueId<Account> accountId) {
+        throw createException(ErrorCode.AmountOutOfRange,
+                              "Balance would go out of range for account: " + accountId.id().toString());
     }
 
     public static WebApplicationException sourceSameAsDestinationException(TransactionMetadata metadata) {
@@ -87,13 +111,96 @@ public enum ErrorCode {
                             + metadata.amount());
     }
 
+    public static WebApplicationException invalidIdempotencyKeyException(int maxLength) {
+        throw createException(ErrorCode.InvalidIdempotencyKey,
+                              "Idempotency key must be between 1 and " + maxLength + " characters long");
+    }
+
+    public static WebApplicationException idempotencyKeyReusedException(String idempotencyKey) {
+        throw createException(ErrorCode.IdempotencyKeyReused,
+                              "Idempotency key was already used for a different request: " + idempotencyKey);
+    }
+
+    public static WebApplicationException accountVersionConflictException(UniqueId<Account> accountId,
+                                                                          TransactionAccountType subtype,
+                                                                          long expectedVersion,
+                                                                          long version) {
+        throw createException(ErrorCode.AccountVersionConflict,
+                              "Expected " + subtype.type() + " account at version " + expectedVersion
+                            + " but it is at version " + version + ": " + accountId.id().toString());
+    }
+
+    public static WebApplicationException accountVersionPendingException(UniqueId<Account> accountId,
+                                                                         TransactionAccountType subtype,
+                                                                         long expectedVersion) {
+        throw createException(ErrorCode.AccountVersionConflict,
+                              "Expected " + subtype.type() + " account at version " + expectedVersion
+                            + " but a transfer from it is still in flight: " + accountId.id().toString());
+    }
+
+    public static Supplier<WebApplicationException> nodeUnavailable(String nodeId) {
+        return exception(ErrorCode.NodeUnavailable, () -> "Node unavailable, retry later: " + nodeId);
+    }
+
+    public static WebApplicationException transferInDoubtException(UniqueId<Transaction> transactionId,
+                                                                   String nodeId) {
+        throw createException(ErrorCode.TransferInDoubt,
+                              "Transfer will be completed or undone once node " + nodeId
+                            + " can be reached, look it up then: " + transactionId.id().toString());
+    }
+
+    public static WebApplicationException forwardedTransferInDoubtException(String nodeId) {
+        throw createException(ErrorCode.TransferInDoubt,
+                              "Transfer was forwarded to node " + nodeId + ", whose answer was lost, so it may or "
+                            + "may not have been made: retry it with the same idempotency key to find out");
+    }
+
+    public static WebApplicationException batchAcrossNodesException() {
+        throw createException(ErrorCode.BatchAcrossNodes,
+                              "Atomic batches must only involve accounts of one node");
+    }
+
+    public static WebApplicationException batchTooLargeException(int maxSize, int size) {
+        throw createException(ErrorCode.BatchTooLarge,
+                              "Batches must have at most " + maxSize + " transfers: size=" + size);
+    }
+
+    public static WebApplicationException partitionsBusyException() {
+        throw createException(ErrorCode.PartitionsBusy,
+                              "Partitions are busy with transfers in flight, retry later");
+    }
+
+    public static WebApplicationException partitionsClosedException() {
+        throw createException(ErrorCode.PartitionsBusy,
+                              "Partitions are being handed over to another node, retry later");
+    }
+
+    public static WebApplicationException handoffInDoubtException(String nodeId) {
+        throw createException(ErrorCode.HandoffInDoubt,
+                              "Partitions were handed over to node " + nodeId + ", whose answer was lost, so they "
+                            + "stay closed until it can be reached");
+    }
+
+    public static Supplier<WebApplicationException> storeUnavailable() {
+        return exception(ErrorCode.StoreUnavailable, () -> "Too many requests waiting for the store, retry later");
+    }
+
+    /**
+     * Recreates the exception an error was originally reported with, so that it can be reported again.
+     */
+    public static WebApplicationException exceptionOf(TransferooError error) {
+        throw createException(error.errorCode(), error.message());
+    }
+
     private static Supplier<WebApplicationException> exception(ErrorCode errorCode, Supplier<String> message) {
         return () -> createException(errorCode, message.get());
     }
 
     private static WebApplicationException createException(ErrorCode errorCode, String message) {
         TransferooError error = TransferooError.of(message, errorCode);
+        // Errors are always JSON, even from endpoints that produce something else
         Response response = Response.status(errorCode.status)
+                                    .type(MediaType.APPLICATION_JSON_TYPE)
                                     .entity(error)
                                     .build();
         return new WebApplicationException(response);
@@ -0,0 +1,555 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Hand-written JSON mappings of the API types.
+ *
+ * <p>The generated bean mappings have to buffer the {@code @JsonUnwrapped} metadata of {@link Account} and
+ * {@link Transaction}, and go through {@code String}s for ids and decimals. These write and read the same
+ * JSON straight from the generator and parser: ids are formatted into and parsed from the character buffers,
+ * and decimals that fit a {@code long} are written digit by digit, exactly as {@link BigDecimal#toString()}
+ * would print them.
+ */
+final class JsonCodecs {
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString BALANCE = new SerializedString("balance");
+    private static final SerializableString VERSION = new SerializedString("version");
+    private static final SerializableString SOURCE = new SerializedString("sourceAccount");
+    private static final SerializableString DESTINATION = new SerializedString("destinationAccount");
+    private static final SerializableString AMOUNT = new SerializedString("amount");
+    private static final SerializableString EXPECTED_SOURCE_VERSION = new SerializedString("expectedSourceVersion");
+    private static final SerializableString EXPECTED_DESTINATION_VERSION =
+            new SerializedString("expectedDestinationVersion");
+
+    private static final int UUID_LENGTH = 36;
+    // Decimals with at most this many digits have an unscaled value that fits a long
+    private static final int MAX_LONG_DIGITS = 18;
+    // BigDecimal.toString() switches to scientific notation below this adjusted exponent
+    private static final int MIN_PLAIN_EXPONENT = -6;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Generators copy what they are given, so the characters can be formatted into the same buffer every time
+    private static final ThreadLocal<char[]> buffers = ThreadLocal.withInitial(() -> new char[64]);
+
+    private JsonCodecs() {}
+
+    static final class UniqueIdSerializer extends StdSerializer<UniqueId<?>> {
+
+        private static final long serialVersionUID = 1L;
+
+        UniqueIdSerializer() {
+            super(UniqueId.class, false);
+        }
+
+        @Override
+        public void serialize(UniqueId<?> value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            writeId(generator, value);
+        }
+    }
+
+    static final class UniqueIdDeserializer extends StdDeserializer<UniqueId<?>> {
+
+        private static final long serialVersionUID = 1L;
+
+        UniqueIdDeserializer() {
+            super(UniqueId.class);
+        }
+
+        @Override
+        public UniqueId<?> deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            return readId(parser, context);
+        }
+    }
+
+    static final class AccountMetadataSerializer extends StdSerializer<AccountMetadata> {
+
+        private static final long serialVersionUID = 1L;
+
+        AccountMetadataSerializer() {
+            super(AccountMetadata.class);
+        }
+
+        @Override
+        public void serialize(AccountMetadata value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            writeAccountMetadata(generator, value);
+            generator.writeEndObject();
+        }
+    }
+
+    static final class AccountMetadataDeserializer extends StdDeserializer<AccountMetadata> {
+
+        private static final long serialVersionUID = 1L;
+
+        AccountMetadataDeserializer() {
+            super(AccountMetadata.class);
+        }
+
+        @Override
+        public AccountMetadata deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            BigDecimal balance = null;
+            String field = firstField(parser, context, AccountMetadata.class);
+            while (field != null) {
+                parser.nextToken();
+                if (BALANCE.getValue().equals(field)) {
+                    balance = readDecimal(parser, context);
+                } else {
+                    skipUnknownField(parser, context, this, AccountMetadata.class, field);
+                }
+                field = parser.nextFieldName();
+            }
+            return AccountMetadata.builder()
+                                  .balance(required(context, AccountMetadata.class, BALANCE, balance))
+                                  .build();
+        }
+    }
+
+    static final class AccountSerializer extends StdSerializer<Account> {
+
+        private static final long serialVersionUID = 1L;
+
+        AccountSerializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public void serialize(Account value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName(ID);
+            writeId(generator, value.id());
+            writeAccountMetadata(generator, value.metadata());
+            generator.writeFieldName(VERSION);
+            generator.writeNumber(value.version());
+            generator.writeEndObject();
+        }
+    }
+
+    static final class AccountDeserializer extends StdDeserializer<Account> {
+
+        private static final long serialVersionUID = 1L;
+
+        AccountDeserializer() {
+            super(Account.class);
+        }
+
+        @Override
+        public Account deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            UniqueId<Account> id = null;
+            BigDecimal balance = null;
+            long version = 0;
+            String field = firstField(parser, context, Account.class);
+            while (field != null) {
+                parser.nextToken();
+                if (ID.getValue().equals(field)) {
+                    id = readId(parser, context);
+                } else if (BALANCE.getValue().equals(field)) {
+                    balance = readDecimal(parser, context);
+                } else if (VERSION.getValue().equals(field)) {
+                    version = parser.getLongValue();
+                } else {
+                    skipUnknownField(parser, context, this, Account.class, field);
+                }
+                field = parser.nextFieldName();
+            }
+            return Account.builder()
+                          .id(required(context, Account.class, ID, id))
+                          .metadata(AccountMetadata.builder()
+                                                   .balance(required(context, Account.class, BALANCE, balance))
+                                                   .build())
+                          .version(version)
+                          .build();
+        }
+    }
+
+    static final class TransactionMetadataSerializer extends StdSerializer<TransactionMetadata> {
+
+        private static final long serialVersionUID = 1L;
+
+        TransactionMetadataSerializer() {
+            super(TransactionMetadata.class);
+        }
+
+        @Override
+        public void serialize(TransactionMetadata value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            writeTransactionMetadata(generator, value);
+            generator.writeEndObject();
+        }
+    }
+
+    static final class TransactionMetadataDeserializer extends StdDeserializer<TransactionMetadata> {
+
+        private static final long serialVersionUID = 1L;
+
+        TransactionMetadataDeserializer() {
+            super(TransactionMetadata.class);
+        }
+
+        @Override
+        public TransactionMetadata deserialize(JsonParser parser, DeserializationContext context)
+                throws IOException {
+            TransactionFields fields = readTransaction(parser, context, this, TransactionMetadata.class, false);
+            return toTransactionMetadata(context, TransactionMetadata.class, fields);
+        }
+    }
+
+    static final class TransactionSerializer extends StdSerializer<Transaction> {
+
+        private static final long serialVersionUID = 1L;
+
+        TransactionSerializer() {
+            super(Transaction.class);
+        }
+
+        @Override
+        public void serialize(Transaction value, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            generator.writeStartObject();
+            generator.writeFieldName(ID);
+            writeId(generator, value.id());
+            writeTransactionMetadata(generator, value.metadata());
+            generator.writeEndObject();
+        }
+    }
+
+    static final class TransactionDeserializer extends StdDeserializer<Transaction> {
+
+        private static final long serialVersionUID = 1L;
+
+        TransactionDeserializer() {
+            super(Transaction.class);
+        }
+
+        @Override
+        public Transaction deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            TransactionFields fields = readTransaction(parser, context, this, Transaction.class, true);
+            return Transaction.builder()
+                              .id(fields.id)
+                              .metadata(toTransactionMetadata(context, Transaction.class, fields))
+                              .build();
+        }
+    }
+
+    private static final class TransactionFields {
+
+        private UniqueId<Transaction> id;
+        private UniqueId<Account> source;
+        private UniqueId<Account> destination;
+        private BigDecimal amount;
+        private Long expectedSourceVersion;
+        private Long expectedDestinationVersion;
+    }
+
+    private static TransactionFields readTransaction(JsonParser parser,
+                                                     DeserializationContext context,
+                                                     StdDeserializer<?> deserializer,
+                                                     Class<?> type,
+                                                     boolean withId) throws IOException {
+        TransactionFields fields = new TransactionFields();
+        String field = firstField(parser, context, type);
+        while (field != null) {
+            parser.nextToken();
+            if (withId && ID.getValue().equals(field)) {
+                fields.id = readId(parser, context);
+            } else if (!readTransactionMetadataField(parser, context, field, fields)) {
+                skipUnknownField(parser, context, deserializer, type, field);
+            }
+            field = parser.nextFieldName();
+        }
+        if (withId) {
+            required(context, type, ID, fields.id);
+        }
+        return fields;
+    }
+
+    private static TransactionMetadata toTransactionMetadata(DeserializationContext context,
+                                                             Class<?> type,
+                                                             TransactionFields fields) throws IOException {
+        return TransactionMetadata.builder()
+                                  .source(required(context, type, SOURCE, fields.source))
+                                  .destination(required(context, type, DESTINATION, fields.destination))
+                                  .amount(required(context, type, AMOUNT, fields.amount))
+                                  .expectedSourceVersion(fields.expectedSourceVersion)
+                                  .expectedDestinationVersion(fields.expectedDestinationVersion)
+                                  .build();
+    }
+
+    /**
+     * Reads the value of a field of {@link TransactionMetadata}, returning false if it is not one.
+     */
+    private static boolean readTransactionMetadataField(JsonParser parser,
+                                                        DeserializationContext context,
+                                                        String field,
+                                                        TransactionFields fields) throws IOException {
+        if (SOURCE.getValue().equals(field)) {
+            fields.source = readId(parser, context);
+        } else if (DESTINATION.getValue().equals(field)) {
+            fields.destination = readId(parser, context);
+        } else if (AMOUNT.getValue().equals(field)) {
+            fields.amount = readDecimal(parser, context);
+        } else if (EXPECTED_SOURCE_VERSION.getValue().equals(field)) {
+            fields.expectedSourceVersion = readVersion(parser);
+        } else if (EXPECTED_DESTINATION_VERSION.getValue().equals(field)) {
+            fields.expectedDestinationVersion = readVersion(parser);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static void writeAccountMetadata(JsonGenerator generator, AccountMetadata metadata) throws IOException {
+        generator.writeFieldName(BALANCE);
+        writeDecimal(generator, metadata.balance());
+    }
+
+    private static void writeTransactionMetadata(JsonGenerator generator, TransactionMetadata metadata)
+            throws IOException {
+        generator.writeFieldName(SOURCE);
+        writeId(generator, metadata.source());
+        generator.writeFieldName(DESTINATION);
+        writeId(generator, metadata.destination());
+        generator.writeFieldName(AMOUNT);
+        writeDecimal(generator, metadata.amount());
+        // Only conditional transfers carry versions, so leave them out otherwise
+        if (metadata.expectedSourceVersion() != null) {
+            generator.writeFieldName(EXPECTED_SOURCE_VERSION);
+            generator.writeNumber(metadata.expectedSourceVersion());
+        }
+        if (metadata.expectedDestinationVersion() != null) {
+            generator.writeFieldName(EXPECTED_DESTINATION_VERSION);
+            generator.writeNumber(metadata.expectedDestinationVersion());
+        }
+    }
+
+    /**
+     * Returns the name of the first field of the object the parser is at, or null if it is empty.
+     */
+    private static String firstField(JsonParser parser, DeserializationContext context, Class<?> type)
+            throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return parser.nextFieldName();
+        }
+        if (token == JsonToken.FIELD_NAME) {
+            return parser.getCurrentName();
+        }
+        if (token == JsonToken.END_OBJECT) {
+            return null;
+        }
+        throw context.mappingException(type, token);
+    }
+
+    private static void skipUnknownField(JsonParser parser,
+                                         DeserializationContext context,
+                                         StdDeserializer<?> deserializer,
+                                         Class<?> type,
+                                         String field) throws IOException {
+        if (!context.handleUnknownProperty(parser, deserializer, type, field)) {
+            // Throws unless unknown properties are configured to be ignored
+            context.reportUnknownProperty(type, field, deserializer);
+            parser.skipChildren();
+        }
+    }
+
+    private static <T> T required(DeserializationContext context,
+                                  Class<?> type,
+                                  SerializableString field,
+                                  T value) throws IOException {
+        if (value == null) {
+            throw context.mappingException("Missing required property '" + field.getValue() + "' of "
+                                           + type.getSimpleName());
+        }
+        return value;
+    }
+
+    private static void writeId(JsonGenerator generator, UniqueId<?> id) throws IOException {
+        UUID uuid = id.id();
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        char[] chars = buffers.get();
+        formatHex(chars, 0, msb >>> 32, 8);
+        chars[8] = '-';
+        formatHex(chars, 9, msb >>> 16, 4);
+        chars[13] = '-';
+        formatHex(chars, 14, msb, 4);
+        chars[18] = '-';
+        formatHex(chars, 19, lsb >>> 48, 4);
+        chars[23] = '-';
+        formatHex(chars, 24, lsb, 12);
+        generator.writeString(chars, 0, UUID_LENGTH);
+    }
+
+    private static void formatHex(char[] chars, int offset, long value, int digits) {
+        long remaining = value;
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) remaining & 0xF];
+            remaining >>>= 4;
+        }
+    }
+
+    private static <T> UniqueId<T> readId(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.VALUE_STRING) {
+            if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                return null;
+            }
+            throw context.mappingException(UniqueId.class, parser.getCurrentToken());
+        }
+        if (parser.getTextLength() == UUID_LENGTH) {
+            UUID uuid = parseCanonicalUuid(parser.getTextCharacters(), parser.getTextOffset());
+            if (uuid != null) {
+                return UniqueId.of(uuid);
+            }
+        }
+        String text = parser.getText();
+        try {
+            return UniqueId.valueOf(text);
+        } catch (IllegalArgumentException e) {
+            throw context.weirdStringException(text, UniqueId.class, e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the canonical {@code 8-4-4-4-12} hex form, returning null for anything else.
+     */
+    private static UUID parseCanonicalUuid(char[] chars, int offset) {
+        if (chars[offset + 8] != '-' || chars[offset + 13] != '-' || chars[offset + 18] != '-'
+                || chars[offset + 23] != '-') {
+            return null;
+        }
+        long[] groups = {
+            parseHex(chars, offset, 8),
+            parseHex(chars, offset + 9, 4),
+            parseHex(chars, offset + 14, 4),
+            parseHex(chars, offset + 19, 4),
+            parseHex(chars, offset + 24, 12),
+        };
+        for (long group : groups) {
+            if (group < 0) {
+                return null;
+            }
+        }
+        return new UUID(groups[0] << 32 | groups[1] << 16 | groups[2], groups[3] << 48 | groups[4]);
+    }
+
+    /**
+     * Returns the value of the hex digits, or -1 if there is anything else.
+     */
+    private static long parseHex(char[] chars, int offset, int digits) {
+        long value = 0;
+        for (int i = offset; i < offset + digits; i++) {
+            int digit = Character.digit(chars[i], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    private static void writeDecimal(JsonGenerator generator, BigDecimal value) throws IOException {
+        if (!isWrittenAsPlainLong(generator, value)) {
+            generator.writeNumber(value);
+            return;
+        }
+
+        int scale = value.scale();
+        long unscaled = value.unscaledValue().longValue();
+        long remaining = Math.abs(unscaled);
+        char[] chars = buffers.get();
+        int position = chars.length;
+        if (scale > 0) {
+            for (int i = 0; i < scale; i++) {
+                chars[--position] = (char) ('0' + remaining % 10);
+                remaining /= 10;
+            }
+            chars[--position] = '.';
+        }
+        do {
+            chars[--position] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (unscaled < 0) {
+            chars[--position] = '-';
+        }
+        generator.writeRawValue(chars, position, chars.length - position);
+    }
+
+    /**
+     * Returns whether the generator would print the decimal without an exponent, and its digits fit a long.
+     */
+    private static boolean isWrittenAsPlainLong(JsonGenerator generator, BigDecimal value) {
+        int scale = value.scale();
+        int precision = value.precision();
+        if (scale < 0 || scale > MAX_LONG_DIGITS || precision > MAX_LONG_DIGITS
+                || generator.isEnabled(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS)) {
+            return false;
+        }
+        return precision - 1 - scale >= MIN_PLAIN_EXPONENT
+               || generator.isEnabled(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN);
+    }
+
+    private static Long readVersion(JsonParser parser) throws IOException {
+        return parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getLongValue();
+    }
+
+    private static BigDecimal readDecimal(JsonParser parser, DeserializationContext context) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            // Parsed from the parser's own buffer, without going through a double
+            return parser.getDecimalValue();
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            String text = parser.getText().trim();
+            try {
+                return text.isEmpty() ? null : new BigDecimal(text);
+            } catch (NumberFormatException e) {
+                throw context.weirdStringException(text, BigDecimal.class, "not a valid representation");
+            }
+        }
+        throw context.mappingException(BigDecimal.class, token);
+    }
+}
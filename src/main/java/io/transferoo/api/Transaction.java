@@ -24,20 +24,18 @@
 
 package io.transferoo.api;
 
-import com.fasterxml.jackson.annotation.JsonUnwrapped;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import org.immutables.value.Value;
 
 @Value.Immutable
-@JsonSerialize(as = ImmutableTransaction.class)
-@JsonDeserialize(as = ImmutableTransaction.class)
+@JsonSerialize(using = JsonCodecs.TransactionSerializer.class)
+@JsonDeserialize(using = JsonCodecs.TransactionDeserializer.class)
 public abstract class Transaction implements HasUniqueId<Transaction> {
 
     @Override
     public abstract UniqueId<Transaction> id();
 
-    @JsonUnwrapped
     public abstract TransactionMetadata metadata();
 
     public static Transaction.Builder builder() {
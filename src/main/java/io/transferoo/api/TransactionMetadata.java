@@ -28,11 +28,12 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import java.math.BigDecimal;
+import javax.annotation.Nullable;
 import org.immutables.value.Value;
 
 @Value.Immutable
-@JsonSerialize(as = ImmutableTransactionMetadata.class)
-@JsonDeserialize(as = ImmutableTransactionMetadata.class)
+@JsonSerialize(using = JsonCodecs.TransactionMetadataSerializer.class)
+@JsonDeserialize(using = JsonCodecs.TransactionMetadataDeserializer.class)
 public abstract class TransactionMetadata {
 
     @JsonProperty("sourceAccount")
@@ -44,6 +45,35 @@ public abstract class TransactionMetadata {
     @JsonProperty("amount")
     public abstract BigDecimal amount();
 
+    /**
+     * The version the source account must be at for the transfer to go ahead, if any.
+     */
+    @Nullable
+    @JsonProperty("expectedSourceVersion")
+    public abstract Long expectedSourceVersion();
+
+    /**
+     * The version the destination account must be at for the transfer to go ahead, if any.
+     */
+    @Nullable
+    @JsonProperty("expectedDestinationVersion")
+    public abstract Long expectedDestinationVersion();
+
+    /**
+     * Returns the transfer without the versions it is conditional on, which is what gets recorded once it
+     * went ahead.
+     */
+    public TransactionMetadata unconditional() {
+        if (expectedSourceVersion() == null && expectedDestinationVersion() == null) {
+            return this;
+        }
+        return TransactionMetadata.builder()
+                                  .source(source())
+                                  .destination(destination())
+                                  .amount(amount())
+                                  .build();
+    }
+
     public static TransactionMetadata.Builder builder() {
         return new TransactionMetadata.Builder();
     }
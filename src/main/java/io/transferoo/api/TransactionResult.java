@@ -0,0 +1,67 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Preconditions;
+import javax.annotation.Nullable;
+import org.immutables.value.Value;
+
+/**
+ * Outcome of one transaction in a batch: either the transaction that was created, or why it was not.
+ */
+@Value.Immutable(builder = false)
+@JsonSerialize(as = ImmutableTransactionResult.class)
+@JsonDeserialize(as = ImmutableTransactionResult.class)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public abstract class TransactionResult {
+
+    @Nullable
+    @Value.Parameter
+    @JsonProperty("transaction")
+    public abstract Transaction transaction();
+
+    @Nullable
+    @Value.Parameter
+    @JsonProperty("error")
+    public abstract TransferooError error();
+
+    @Value.Check
+    protected void check() {
+        Preconditions.checkState(transaction() == null ^ error() == null,
+                                 "Exactly one of transaction and error must be set");
+    }
+
+    public static TransactionResult succeeded(Transaction transaction) {
+        return ImmutableTransactionResult.of(transaction, null);
+    }
+
+    public static TransactionResult failed(TransferooError error) {
+        return ImmutableTransactionResult.of(null, error);
+    }
+}
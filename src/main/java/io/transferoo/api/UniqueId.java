@@ -24,8 +24,8 @@
 
 package io.transferoo.api;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.base.MoreObjects;
 import java.util.Objects;
 import java.util.UUID;
@@ -35,6 +35,8 @@ import java.util.UUID;
  *
  * @param <T> tag to specify whether this is {@link Account} or {@link Transaction} id
  */
+@JsonSerialize(using = JsonCodecs.UniqueIdSerializer.class)
+@JsonDeserialize(using = JsonCodecs.UniqueIdDeserializer.class)
 public final class UniqueId<T> {
 
     // Cheap way of generating ids
@@ -44,7 +46,6 @@ public final class UniqueId<T> {
         this.id = Objects.requireNonNull(id, "id");
     }
 
-    @JsonValue
     public UUID id() {
         return id;
     }
@@ -63,7 +64,8 @@ public final class UniqueId<T> {
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        // Not Objects.hash(), which allocates an array on every call
+        return id.hashCode();
     }
 
     @Override
@@ -77,7 +79,6 @@ public final class UniqueId<T> {
         return new UniqueId<>(id);
     }
 
-    @JsonCreator
     public static <T> UniqueId<T> valueOf(String id) {
         return UniqueId.of(UUID.fromString(id));
     }
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import java.util.List;
+import org.immutables.value.Value;
+
+/**
+ * An account together with every transaction that led up to it, oldest first, as one node hands it to another.
+ */
+@Value.Immutable(builder = false)
+@JsonSerialize(as = ImmutableAccountHistory.class)
+@JsonDeserialize(as = ImmutableAccountHistory.class)
+public abstract class AccountHistory {
+
+    @Value.Parameter
+    @JsonProperty("account")
+    public abstract Account account();
+
+    @Value.Parameter
+    @JsonProperty("transactions")
+    public abstract List<Transaction> transactions();
+
+    public static AccountHistory of(Account account, Iterable<? extends Transaction> transactions) {
+        return ImmutableAccountHistory.of(account, transactions);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+/**
+ * Authenticates the nodes of a cluster to each other: every call to a {@link ClusterResource} carries the secret
+ * the nodes share as a bearer token, and calls without it are refused with {@code 401}.
+ */
+public final class ClusterAuthentication {
+
+    private static final String SCHEME = "Bearer";
+
+    private ClusterAuthentication() {}
+
+    /**
+     * Adds the secret to the calls a node makes.
+     */
+    static ClientRequestFilter client(String secret) {
+        return new Client(SCHEME + " " + secret);
+    }
+
+    /**
+     * Refuses the calls to this node that do not carry the secret.
+     */
+    public static ContainerRequestFilter server(String secret) {
+        return new Server((SCHEME + " " + secret).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Client implements ClientRequestFilter {
+
+        private final String authorization;
+
+        private Client(String authorization) {
+            this.authorization = authorization;
+        }
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            request.getHeaders().putSingle(HttpHeaders.AUTHORIZATION, authorization);
+        }
+    }
+
+    @Priority(Priorities.AUTHENTICATION)
+    private static final class Server implements ContainerRequestFilter {
+
+        private final byte[] authorization;
+
+        private Server(byte[] authorization) {
+            this.authorization = authorization;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext request) {
+            String header = request.getHeaderString(HttpHeaders.AUTHORIZATION);
+            // Compared in constant time, so that how long it takes tells nothing of the secret
+            if (header == null || !MessageDigest.isEqual(authorization, header.getBytes(StandardCharsets.UTF_8))) {
+                request.abortWith(Response.status(Response.Status.UNAUTHORIZED)
+                                          .header(HttpHeaders.WWW_AUTHENTICATE, SCHEME)
+                                          .build());
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.util.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.NotEmpty;
+
+public class ClusterConfiguration {
+
+    @NotEmpty
+    private String nodeId;
+
+    // Where the other nodes reach this node's API, context path included, e.g. http://localhost:8343/api
+    @NotEmpty
+    private String url;
+
+    // Where the other nodes reach this node's admin context, e.g. http://localhost:8344/admin, which serves the
+    // endpoints only nodes call. Keep the admin connector off public networks.
+    @NotEmpty
+    private String adminUrl;
+
+    // Shared by every node, which present it to each other's admin context as a bearer token
+    @NotEmpty
+    private String secret;
+
+    // The nodes the cluster was started with, which every node must be given alike. A node that is not one of
+    // them owns nothing until it is told to join.
+    @Valid
+    @NotEmpty
+    private List<ClusterMember> members = new ArrayList<>();
+
+    // Every node must use the same number of partitions and of virtual nodes
+    @Min(1)
+    private int partitions = 256;
+
+    @Min(1)
+    private int virtualNodes = 64;
+
+    // Attempts at crediting the destination of a transfer before the transfer is left in doubt
+    @Min(1)
+    private int creditAttempts = 3;
+
+    // How often the credits of transfers in doubt are retried
+    @NotNull
+    private Duration retryInterval = Duration.seconds(1);
+
+    // How long handing partitions over waits for the transfers in flight on them
+    @NotNull
+    private Duration handoffTimeout = Duration.seconds(10);
+
+    @Valid
+    @NotNull
+    private JerseyClientConfiguration client = new JerseyClientConfiguration();
+
+    @JsonProperty
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @JsonProperty
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @JsonProperty
+    public String getUrl() {
+        return url;
+    }
+
+    @JsonProperty
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    @JsonProperty
+    public String getAdminUrl() {
+        return adminUrl;
+    }
+
+    @JsonProperty
+    public void setAdminUrl(String adminUrl) {
+        this.adminUrl = adminUrl;
+    }
+
+    @JsonProperty
+    public String getSecret() {
+        return secret;
+    }
+
+    @JsonProperty
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    @JsonProperty
+    public List<ClusterMember> getMembers() {
+        return members;
+    }
+
+    @JsonProperty
+    public void setMembers(List<ClusterMember> members) {
+        this.members = members;
+    }
+
+    @JsonProperty
+    public int getPartitions() {
+        return partitions;
+    }
+
+    @JsonProperty
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    @JsonProperty
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    @JsonProperty
+    public void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    @JsonProperty
+    public int getCreditAttempts() {
+        return creditAttempts;
+    }
+
+    @JsonProperty
+    public void setCreditAttempts(int creditAttempts) {
+        this.creditAttempts = creditAttempts;
+    }
+
+    @JsonProperty
+    public Duration getRetryInterval() {
+        return retryInterval;
+    }
+
+    @JsonProperty
+    public void setRetryInterval(Duration retryInterval) {
+        this.retryInterval = retryInterval;
+    }
+
+    @JsonProperty
+    public Duration getHandoffTimeout() {
+        return handoffTimeout;
+    }
+
+    @JsonProperty
+    public void setHandoffTimeout(Duration handoffTimeout) {
+        this.handoffTimeout = handoffTimeout;
+    }
+
+    @JsonProperty
+    public JerseyClientConfiguration getClient() {
+        return client;
+    }
+
+    @JsonProperty
+    public void setClient(JerseyClientConfiguration client) {
+        this.client = client;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.codahale.metrics.annotation.Timed;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import io.transferoo.resource.TransferooEndpoints;
+import io.transferoo.store.AccountStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * What the nodes of a cluster ask of each other, besides forwarding requests to the public API. Served on the
+ * admin context, under {@link TransferooEndpoints#CLUSTER_RESOURCE}, to the nodes that present the secret they
+ * share, and straight from the request threads, as most of it is waiting for other nodes anyway.
+ */
+@Path("/")
+@Consumes(MediaType.APPLICATION_JSON)
+@Produces(MediaType.APPLICATION_JSON)
+public class ClusterResource {
+
+    private final ClusteredLedger ledger;
+
+    public ClusterResource(ClusteredLedger ledger) {
+        this.ledger = Objects.requireNonNull(ledger, "ledger");
+    }
+
+    @PUT
+    @Timed
+    @Path(TransferooEndpoints.ACCOUNT_RESOURCE + "/" + TransferooEndpoints.GET_BY_ID_PATH)
+    public Account createAccount(@NotNull @PathParam("id") UniqueId<Account> id,
+                                 @NotNull @Valid AccountMetadata metadata) {
+        return ledger.createAccount(id, metadata);
+    }
+
+    /**
+     * Returns those of the accounts that exist.
+     */
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.ACCOUNT_RESOURCE)
+    public List<Account> getAccounts(@NotNull @QueryParam("id") List<UniqueId<Account>> ids) {
+        return new ArrayList<>(ledger.getAccountsById(ids).values());
+    }
+
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.ACCOUNT_RESOURCE + "/" + TransferooEndpoints.GET_BY_ID_PATH + "/"
+            + TransferooEndpoints.STATEMENT_PATH)
+    public AccountHistory getStatement(@NotNull @PathParam("id") UniqueId<Account> id) {
+        AccountStatement statement = ledger.getStatement(id)
+                                           .orElseThrow(ErrorCode.accountNotFound(id));
+        return AccountHistory.of(statement.account(), statement);
+    }
+
+    /**
+     * Looks a transaction up among those recorded by this node only.
+     */
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.TRANSACTION_RESOURCE + "/" + TransferooEndpoints.GET_BY_ID_PATH)
+    public Transaction findTransaction(@NotNull @PathParam("id") UniqueId<Transaction> id) {
+        return ledger.findTransaction(id)
+                     .orElseThrow(ErrorCode.unknownTransactionId(id));
+    }
+
+    @POST
+    @Timed
+    @Path(TransferooEndpoints.CREDITS_PATH)
+    public Transaction credit(@NotNull @Valid Transaction transaction) {
+        return ledger.credit(transaction);
+    }
+
+    @POST
+    @Timed
+    @Path(TransferooEndpoints.HANDOFFS_PATH)
+    public int handOff(@NotNull @Valid ClusterMember joining) {
+        return ledger.handOff(joining);
+    }
+
+    @POST
+    @Timed
+    @Path(TransferooEndpoints.PARTITIONS_PATH)
+    public void takeOver(@NotNull @Valid PartitionHandoff handoff) {
+        ledger.takeOver(handoff);
+    }
+
+    @PUT
+    @Timed
+    @Path(TransferooEndpoints.MEMBERS_PATH)
+    public void setMembers(@NotNull @Valid List<ClusterMember> members) {
+        ledger.setMembers(members);
+    }
+}
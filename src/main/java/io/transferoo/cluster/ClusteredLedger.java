@@ -0,0 +1,803 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import io.transferoo.store.AccountStatement;
+import io.transferoo.store.IdGenerator;
+import io.transferoo.store.Ledger;
+import io.transferoo.store.LocalLedger;
+import io.transferoo.store.ShardedAccountStore;
+import io.transferoo.store.StoreConfiguration;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.core.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the ledger as one node of a cluster. Accounts are split into a fixed number of partitions by a hash of
+ * their id, and each partition is owned by one node, as a {@link PartitionRing} over the nodes assigns them. A
+ * node keeps the accounts of its own partitions in a {@link LocalLedger}, and forwards whatever concerns the
+ * accounts of other partitions to their owner, so that any node can serve any request.
+ *
+ * <p>A transfer is applied by the node owning its source. If another node owns its destination, it goes the way
+ * a transfer across the shards of a {@link ShardedAccountStore} does, with the destination's node in between:
+ * the amount is reserved on the source, the destination's node credits the destination, and the source is then
+ * either debited or, if the credit was rejected, given the amount back. Credits are only ever applied once per
+ * transaction, so a credit whose outcome is unknown is retried, in the background once the request has given up
+ * on it, until its outcome is known. The amount stays reserved in the meantime, and the transfer is reported as
+ * in doubt. A transfer is never visible half done on any one node, but reads of accounts kept by several nodes
+ * are not a consistent snapshot of them.
+ *
+ * <p>Operations on the accounts of a partition pass through the partition's gate, which is closed while the
+ * partition is handed over to a node joining the cluster, after the operations in flight on it are done. Only
+ * the partitions on the move are held up: the others are served throughout, and operations given up on at a
+ * closed gate after the handoff timeout fail as {@link ErrorCode#PartitionsBusy}. A handoff moves a partition
+ * to the next epoch, and the old owner only opens the gate again once it knows whether the new owner has taken
+ * the partition, sending it again until it does, so that a partition never has two owners. Nodes that have yet
+ * to learn of the new owner keep forwarding to the old one, which forwards on. Accounts handed over are left
+ * behind on the old owner, unused.
+ */
+@ThreadSafe
+public class ClusteredLedger implements Ledger {
+
+    private static final Logger log = LoggerFactory.getLogger(ClusteredLedger.class);
+
+    private final ClusterMember self;
+    private final LocalLedger local;
+    private final IdGenerator ids;
+    private final Client client;
+    private final String secret;
+    private final int virtualNodes;
+    private final int creditAttempts;
+    private final long retryIntervalMillis;
+    private final long handoffTimeoutMillis;
+    // Only ever changed from or to this node with the partition's gate closed, or while nothing here can use it
+    private final AtomicReferenceArray<String> owners;
+    // Of the partitions owned here, or handed over from here
+    private final AtomicLongArray epochs;
+    private final StampedLock[] gates;
+    private final Map<String, NodeClient> nodes = new ConcurrentHashMap<>();
+    private final Map<UniqueId<Transaction>, PendingTransfer> inDoubt = new ConcurrentHashMap<>();
+    // By the node they are for, guarded by this
+    private final Map<String, PendingHandoff> handoffsInDoubt = new HashMap<>();
+    // Not this, as the members hand over to this node while it joins
+    private final Object joinLock = new Object();
+
+    private volatile List<ClusterMember> members;
+    private ScheduledExecutorService retrier;
+
+    public ClusteredLedger(ClusterConfiguration configuration,
+                           StoreConfiguration storeConfiguration,
+                           MetricRegistry registry,
+                           Client client) {
+        Preconditions.checkArgument(storeConfiguration.getJournal() == null, "A clustered store cannot keep a journal");
+        this.self = ClusterMember.of(configuration.getNodeId(), configuration.getUrl(), configuration.getAdminUrl());
+        this.local = Ledger.create(storeConfiguration, registry);
+        this.ids = IdGenerator.create(storeConfiguration);
+        this.client = client;
+        this.secret = configuration.getSecret();
+        this.virtualNodes = configuration.getVirtualNodes();
+        this.creditAttempts = configuration.getCreditAttempts();
+        this.retryIntervalMillis = configuration.getRetryInterval().toMilliseconds();
+        this.handoffTimeoutMillis = configuration.getHandoffTimeout().toMilliseconds();
+
+        int partitions = configuration.getPartitions();
+        this.owners = new AtomicReferenceArray<>(partitions);
+        this.epochs = new AtomicLongArray(partitions);
+        this.gates = new StampedLock[partitions];
+        PartitionRing ring = ring(configuration.getMembers());
+        for (int partition = 0; partition < partitions; partition++) {
+            owners.set(partition, ring.ownerOf(partition));
+            gates[partition] = new StampedLock();
+        }
+        this.members = ImmutableList.copyOf(configuration.getMembers());
+        members.forEach(this::addNode);
+        // Partitions can be handed over while a request is on its way, so this node may end up forwarding to itself
+        addNode(self);
+    }
+
+    @Override
+    public void start() throws IOException {
+        local.start();
+        retrier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transferoo-cluster-retrier");
+            thread.setDaemon(true);
+            return thread;
+        });
+        retrier.scheduleWithFixedDelay(this::retryInDoubt, retryIntervalMillis, retryIntervalMillis,
+                                       TimeUnit.MILLISECONDS);
+        retrier.scheduleWithFixedDelay(this::retryHandoffs, retryIntervalMillis, retryIntervalMillis,
+                                       TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() throws InterruptedException, IOException {
+        if (retrier != null) {
+            retrier.shutdownNow();
+            retrier.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (!inDoubt.isEmpty()) {
+            log.error("Stopping with transfers in doubt, whose amounts stay reserved: {}", inDoubt.keySet());
+        }
+        synchronized (this) {
+            if (!handoffsInDoubt.isEmpty()) {
+                log.error("Stopping with handoffs in doubt to nodes: {}", handoffsInDoubt.keySet());
+            }
+        }
+        local.stop();
+    }
+
+    @Override
+    public Account createAccount(AccountMetadata metadata) {
+        return createAccount(UniqueId.of(ids.next()), metadata);
+    }
+
+    /**
+     * Creates an account with an id picked by another node.
+     */
+    Account createAccount(UniqueId<Account> accountId, AccountMetadata metadata) {
+        Function<NodeClient, Account> remote = node -> node.createAccount(accountId, metadata);
+        return route(accountId, () -> local.createAccount(accountId, metadata), remote);
+    }
+
+    @Override
+    public Optional<Account> getAccountById(UniqueId<Account> accountId) {
+        return route(accountId, () -> local.getAccountById(accountId), node -> node.getAccount(accountId));
+    }
+
+    /**
+     * Only the accounts kept by the same node are a consistent snapshot of each other.
+     */
+    @Override
+    public Map<UniqueId<Account>, Account> getAccountsById(Collection<UniqueId<Account>> accountIds) {
+        Map<String, List<UniqueId<Account>>> byOwner =
+                accountIds.stream()
+                          .collect(Collectors.groupingBy(accountId -> owners.get(partitionOf(accountId))));
+        Map<UniqueId<Account>, Account> accounts = new HashMap<>();
+        List<UniqueId<Account>> localIds = byOwner.remove(self.id());
+        if (localIds != null) {
+            accounts.putAll(getLocalAccountsById(localIds));
+        }
+        byOwner.forEach((owner, ownerIds) -> {
+            for (Account account : node(owner).getAccounts(ownerIds)) {
+                accounts.put(account.id(), account);
+            }
+        });
+        return accounts;
+    }
+
+    private Map<UniqueId<Account>, Account> getLocalAccountsById(List<UniqueId<Account>> accountIds) {
+        int[] partitions = accountIds.stream()
+                                     .mapToInt(this::partitionOf)
+                                     .distinct()
+                                     .sorted()
+                                     .toArray();
+        long[] stamps = enter(partitions);
+        try {
+            if (enteredAll(stamps)) {
+                return local.getAccountsById(accountIds);
+            }
+        } finally {
+            leave(partitions, stamps);
+        }
+
+        // Some have just been handed over, so look each one up wherever it is now
+        Map<UniqueId<Account>, Account> accounts = new HashMap<>();
+        for (UniqueId<Account> accountId : accountIds) {
+            getAccountById(accountId).ifPresent(account -> accounts.put(accountId, account));
+        }
+        return accounts;
+    }
+
+    @Override
+    public Transaction createTransaction(TransactionMetadata metadata) {
+        int sourcePartition = partitionOf(metadata.source());
+        int destinationPartition = partitionOf(metadata.destination());
+        if (sourcePartition != destinationPartition && isOwnedHere(destinationPartition)) {
+            Optional<Transaction> transaction = transferWithinNode(metadata, sourcePartition, destinationPartition);
+            if (transaction.isPresent()) {
+                return transaction.get();
+            }
+        }
+
+        long stamp = enter(sourcePartition);
+        if (stamp == 0L) {
+            return ownerOf(sourcePartition).createTransaction(metadata, null);
+        }
+        if (sourcePartition != destinationPartition) {
+            return transferToNode(metadata, sourcePartition, stamp);
+        }
+        try {
+            return local.createTransaction(metadata);
+        } finally {
+            leave(sourcePartition, stamp);
+        }
+    }
+
+    /**
+     * Forwards a transfer from an account of another node to that node, which remembers the idempotency key, or
+     * forwards it on with the key if it has handed the account over since. Only an account handed over by this
+     * node right after it is looked up leaves the key here.
+     */
+    @Override
+    public Optional<Transaction> forwardTransaction(TransactionMetadata metadata, String idempotencyKey) {
+        String owner = owners.get(partitionOf(metadata.source()));
+        return owner.equals(self.id())
+                ? Optional.empty()
+                : Optional.of(node(owner).createTransaction(metadata, idempotencyKey));
+    }
+
+    /**
+     * Applies a transfer between accounts of two partitions of this node, unless one of them has just been
+     * handed over.
+     */
+    private Optional<Transaction> transferWithinNode(TransactionMetadata metadata,
+                                                     int sourcePartition,
+                                                     int destinationPartition) {
+        int[] partitions = {Math.min(sourcePartition, destinationPartition),
+                            Math.max(sourcePartition, destinationPartition)};
+        long[] stamps = enter(partitions);
+        try {
+            return enteredAll(stamps)
+                    ? Optional.of(local.createTransaction(metadata))
+                    : Optional.empty();
+        } finally {
+            leave(partitions, stamps);
+        }
+    }
+
+    /**
+     * Applies a transfer from an account of this node to an account of another node. The source's gate, passed
+     * with the given stamp, is only left once the transfer is settled, so that the source cannot be handed over
+     * in the middle of it.
+     */
+    private Transaction transferToNode(TransactionMetadata metadata, int sourcePartition, long stamp) {
+        PendingTransfer transfer;
+        try {
+            transfer = new PendingTransfer(local.reserve(metadata), sourcePartition, stamp);
+        } catch (RuntimeException e) {
+            leave(sourcePartition, stamp);
+            throw e;
+        }
+
+        for (int attempt = 0; attempt < creditAttempts; attempt++) {
+            Optional<Transaction> transaction = settle(transfer);
+            if (transaction.isPresent()) {
+                return transaction.get();
+            }
+        }
+        UniqueId<Transaction> transactionId = transfer.transaction.id();
+        String destinationOwner = owners.get(partitionOf(metadata.destination()));
+        log.warn("Transfer {} is in doubt until node {} can be reached", transactionId, destinationOwner);
+        inDoubt.put(transactionId, transfer);
+        throw ErrorCode.transferInDoubtException(transactionId, destinationOwner);
+    }
+
+    /**
+     * Credits the destination of a reserved transfer, and settles the transfer if the outcome of the credit is
+     * known: returns the transaction once the source is debited, or throws the error the credit was rejected with
+     * once the amount is given back. Returns empty if the outcome is unknown.
+     */
+    private Optional<Transaction> settle(PendingTransfer transfer) {
+        try {
+            credit(transfer.transaction);
+        } catch (WebApplicationException e) {
+            if (e.getResponse().getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR) {
+                return Optional.empty();
+            }
+            try {
+                local.release(transfer.transaction);
+            } finally {
+                leave(transfer.sourcePartition, transfer.stamp);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            log.warn("Failed to credit transfer {}", transfer.transaction.id(), e);
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(local.debit(transfer.transaction));
+        } finally {
+            leave(transfer.sourcePartition, transfer.stamp);
+        }
+    }
+
+    private void retryInDoubt() {
+        for (PendingTransfer transfer : inDoubt.values()) {
+            UniqueId<Transaction> transactionId = transfer.transaction.id();
+            try {
+                if (settle(transfer).isPresent()) {
+                    inDoubt.remove(transactionId);
+                    log.info("Transfer {} is no longer in doubt: it went ahead", transactionId);
+                }
+            } catch (WebApplicationException e) {
+                inDoubt.remove(transactionId);
+                log.info("Transfer {} is no longer in doubt: it was rejected: {}", transactionId,
+                         ((TransferooError) e.getResponse().getEntity()).message());
+            } catch (RuntimeException e) {
+                log.error("Failed to settle transfer {}", transactionId, e);
+            }
+        }
+    }
+
+    /**
+     * Credits the destination of a transfer from another node, or from this one.
+     */
+    Transaction credit(Transaction transaction) {
+        Function<NodeClient, Transaction> remote = node -> node.credit(transaction);
+        return route(transaction.metadata().destination(), () -> local.credit(transaction), remote);
+    }
+
+    /**
+     * A batch is applied as a whole by the node owning all of its accounts. Otherwise, only best effort batches
+     * are accepted, and applied one transfer at a time.
+     */
+    @Override
+    public List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        int[] partitions = batch.stream()
+                                .flatMapToInt(metadata -> IntStream.of(partitionOf(metadata.source()),
+                                                                       partitionOf(metadata.destination())))
+                                .distinct()
+                                .sorted()
+                                .toArray();
+        Set<String> batchOwners = IntStream.of(partitions)
+                                           .mapToObj(owners::get)
+                                           .collect(Collectors.toSet());
+        if (batchOwners.size() == 1 && !batchOwners.contains(self.id())) {
+            return node(batchOwners.iterator().next()).createTransactions(batch, mode);
+        }
+        if (batchOwners.size() <= 1) {
+            long[] stamps = enter(partitions);
+            try {
+                if (enteredAll(stamps)) {
+                    return local.createTransactions(batch, mode);
+                }
+            } finally {
+                leave(partitions, stamps);
+            }
+        }
+
+        if (mode == BatchMode.ATOMIC) {
+            throw ErrorCode.batchAcrossNodesException();
+        }
+        return batch.stream()
+                    .map(this::createBatchedTransaction)
+                    .collect(Collectors.toList());
+    }
+
+    private TransactionResult createBatchedTransaction(TransactionMetadata metadata) {
+        try {
+            return TransactionResult.succeeded(createTransaction(metadata));
+        } catch (WebApplicationException e) {
+            return TransactionResult.failed((TransferooError) e.getResponse().getEntity());
+        }
+    }
+
+    /**
+     * Looks a transaction up on this node first, and then on every other node in turn, as the transactions of an
+     * account are kept along with it.
+     */
+    @Override
+    public Optional<Transaction> getTransactionById(UniqueId<Transaction> transactionId) {
+        Optional<Transaction> transaction = findTransaction(transactionId);
+        for (NodeClient node : nodes.values()) {
+            if (transaction.isPresent()) {
+                return transaction;
+            }
+            if (!node.member().id().equals(self.id())) {
+                transaction = node.findTransaction(transactionId);
+            }
+        }
+        return transaction;
+    }
+
+    /**
+     * Looks a transaction up among those recorded by this node.
+     */
+    Optional<Transaction> findTransaction(UniqueId<Transaction> transactionId) {
+        return local.getTransactionById(transactionId);
+    }
+
+    @Override
+    public Optional<TransactionPage> getTransactionsByAccountId(UniqueId<Account> accountId, long after, int limit) {
+        Function<NodeClient, Optional<TransactionPage>> remote = node -> node.getTransactions(accountId, after, limit);
+        return route(accountId, () -> local.getTransactionsByAccountId(accountId, after, limit), remote);
+    }
+
+    /**
+     * A statement of an account of another node is read into memory as a whole.
+     */
+    @Override
+    public Optional<AccountStatement> getStatement(UniqueId<Account> accountId) {
+        Function<NodeClient, Optional<AccountStatement>> remote =
+                node -> node.getStatement(accountId)
+                            .map(history -> AccountStatement.of(history.account(), history.transactions()));
+        return route(accountId, () -> local.getStatement(accountId), remote);
+    }
+
+    /**
+     * Makes this node, started outside of the cluster, a member of it. Every member in turn hands over the
+     * partitions the ring now gives to this node, and every node then learns of the new membership. Can be
+     * repeated if it fails half way, as the partitions handed over by then stay handed over.
+     */
+    String join() {
+        synchronized (joinLock) {
+            return joinMembers(members);
+        }
+    }
+
+    private String joinMembers(List<ClusterMember> current) {
+        Preconditions.checkState(current.stream().noneMatch(member -> member.id().equals(self.id())),
+                                 "Already a member of the cluster: %s", self.id());
+        StringBuilder report = new StringBuilder();
+        for (ClusterMember member : current) {
+            int partitions = node(member.id()).handOff(self);
+            report.append("Took ").append(partitions).append(" partitions over from ").append(member.id())
+                  .append('\n');
+        }
+
+        List<ClusterMember> joined = ImmutableList.<ClusterMember>builder()
+                                                  .addAll(current)
+                                                  .add(self)
+                                                  .build();
+        for (ClusterMember member : joined) {
+            try {
+                node(member.id()).setMembers(joined);
+            } catch (WebApplicationException e) {
+                // It forwards to the old owners, which forward on, until it learns of the new ones
+                log.warn("Failed to tell node {} of the new members", member.id(), e);
+                report.append("Failed to tell ").append(member.id()).append(" of the new members\n");
+            }
+        }
+        return report.toString();
+    }
+
+    /**
+     * Hands the partitions of this node that the ring gives to a joining node over to it, and returns how many
+     * there were. A handoff to the node whose outcome is unknown is sent again instead, as its partitions have
+     * stayed closed since.
+     */
+    synchronized int handOff(ClusterMember joining) {
+        PendingHandoff handoff = handoffsInDoubt.get(joining.id());
+        if (handoff == null) {
+            PartitionRing ring = ring(ImmutableList.<ClusterMember>builder().addAll(members).add(joining).build());
+            int[] partitions = IntStream.range(0, gates.length)
+                                        .filter(partition -> isOwnedHere(partition)
+                                                             && ring.ownerOf(partition).equals(joining.id()))
+                                        .toArray();
+            if (partitions.length == 0) {
+                return 0;
+            }
+            handoff = prepareHandoff(addNode(joining), partitions);
+        }
+        completeHandoff(handoff);
+        return handoff.partitions.length;
+    }
+
+    /**
+     * Closes the gates of the partitions, which waits for the operations in flight on them, and reads their
+     * accounts.
+     */
+    private PendingHandoff prepareHandoff(NodeClient node, int[] partitions) {
+        long[] stamps = close(partitions);
+        try {
+            Map<Integer, Long> nextEpochs = new HashMap<>();
+            for (int partition : partitions) {
+                nextEpochs.put(partition, epochs.get(partition) + 1);
+            }
+            List<AccountHistory> accounts = new ArrayList<>();
+            Predicate<UniqueId<Account>> isMoving = accountId -> nextEpochs.containsKey(partitionOf(accountId));
+            for (AccountStatement statement : local.getStatements(isMoving)) {
+                accounts.add(AccountHistory.of(statement.account(), statement));
+            }
+            return new PendingHandoff(node, PartitionHandoff.of(nextEpochs, accounts), partitions, stamps);
+        } catch (RuntimeException e) {
+            open(partitions, stamps);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends closed partitions over, and forwards to their new owner once it has them. If the new owner refuses
+     * them, or cannot be connected to, they stay here. If its answer is lost, they stay closed, and are sent
+     * again until it answers, as they may have been taken over already.
+     */
+    private void completeHandoff(PendingHandoff handoff) {
+        String nodeId = handoff.node.member().id();
+        try {
+            handoff.node.takeOver(handoff.handoff);
+        } catch (RuntimeException e) {
+            if (isHandoffInDoubt(e)) {
+                if (handoffsInDoubt.put(nodeId, handoff) == null) {
+                    log.warn("Handoff of {} partitions to {} is in doubt until it can be reached",
+                             handoff.partitions.length, nodeId);
+                }
+            } else {
+                handoffsInDoubt.remove(nodeId);
+                open(handoff.partitions, handoff.stamps);
+            }
+            throw e;
+        }
+
+        for (int partition : handoff.partitions) {
+            epochs.set(partition, handoff.handoff.partitions().get(partition));
+            owners.set(partition, nodeId);
+        }
+        handoffsInDoubt.remove(nodeId);
+        open(handoff.partitions, handoff.stamps);
+        log.info("Handed {} partitions with {} accounts over to {}", handoff.partitions.length,
+                 handoff.handoff.accounts().size(), nodeId);
+    }
+
+    private static boolean isHandoffInDoubt(RuntimeException failure) {
+        return !(failure instanceof WebApplicationException)
+               || ((TransferooError) ((WebApplicationException) failure).getResponse().getEntity()).errorCode()
+                  == ErrorCode.HandoffInDoubt;
+    }
+
+    private synchronized void retryHandoffs() {
+        for (PendingHandoff handoff : new ArrayList<>(handoffsInDoubt.values())) {
+            try {
+                completeHandoff(handoff);
+            } catch (RuntimeException e) {
+                log.debug("Failed to hand partitions over to {}", handoff.node, e);
+            }
+        }
+    }
+
+    /**
+     * Takes over partitions handed over by their owner, along with their accounts. A partition this node has
+     * at the epoch it is handed over at, or a later one, was taken over already, by the same handoff sent again
+     * as its answer was lost, and is left as it is: its old owner has kept it closed since.
+     */
+    synchronized void takeOver(PartitionHandoff handoff) {
+        Map<Integer, Long> taking = new HashMap<>();
+        handoff.partitions().forEach((partition, epoch) -> {
+            if (epochs.get(partition) < epoch) {
+                taking.put(partition, epoch);
+            }
+        });
+        for (AccountHistory account : handoff.accounts()) {
+            if (taking.containsKey(partitionOf(account.account().id()))) {
+                local.restoreAccount(account.account(), account.transactions());
+            }
+        }
+        taking.forEach((partition, epoch) -> {
+            epochs.set(partition, epoch);
+            owners.set(partition, self.id());
+        });
+    }
+
+    /**
+     * Learns of the members of the cluster, and of the owners the ring gives the partitions. Partitions only
+     * ever change hands from or to this node by being handed over, so the ones this node owns, or is given, are
+     * left as they are.
+     */
+    synchronized void setMembers(List<ClusterMember> newMembers) {
+        PartitionRing ring = ring(newMembers);
+        newMembers.forEach(this::addNode);
+        for (int partition = 0; partition < gates.length; partition++) {
+            String owner = ring.ownerOf(partition);
+            if (!isOwnedHere(partition) && !owner.equals(self.id())) {
+                owners.set(partition, owner);
+            }
+        }
+        members = ImmutableList.copyOf(newMembers);
+    }
+
+    private <T> T route(UniqueId<Account> accountId, Supplier<T> here, Function<NodeClient, T> there) {
+        int partition = partitionOf(accountId);
+        long stamp = enter(partition);
+        if (stamp == 0L) {
+            return there.apply(ownerOf(partition));
+        }
+        try {
+            return here.get();
+        } finally {
+            leave(partition, stamp);
+        }
+    }
+
+    /**
+     * Passes the gate of a partition if this node owns it, and returns the stamp to leave with, or 0 if another
+     * node owns it. Gives up if the gate stays closed for longer than a handoff is given to close it.
+     */
+    private long enter(int partition) {
+        long stamp = 0L;
+        try {
+            stamp = gates[partition].tryReadLock(handoffTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (stamp == 0L) {
+            throw ErrorCode.partitionsClosedException();
+        }
+        if (isOwnedHere(partition)) {
+            return stamp;
+        }
+        gates[partition].unlockRead(stamp);
+        return 0L;
+    }
+
+    /**
+     * Passes the gates of the given partitions, which must be distinct and in order, as handoffs close them in
+     * that order too.
+     */
+    private long[] enter(int[] partitions) {
+        long[] stamps = new long[partitions.length];
+        try {
+            for (int i = 0; i < partitions.length; i++) {
+                stamps[i] = enter(partitions[i]);
+            }
+        } catch (RuntimeException e) {
+            leave(partitions, stamps);
+            throw e;
+        }
+        return stamps;
+    }
+
+    private static boolean enteredAll(long[] stamps) {
+        for (long stamp : stamps) {
+            if (stamp == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void leave(int partition, long stamp) {
+        gates[partition].unlockRead(stamp);
+    }
+
+    private void leave(int[] partitions, long[] stamps) {
+        for (int i = partitions.length - 1; i >= 0; i--) {
+            if (stamps[i] != 0L) {
+                leave(partitions[i], stamps[i]);
+            }
+        }
+    }
+
+    private long[] close(int[] partitions) {
+        long[] stamps = new long[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            try {
+                stamps[i] = gates[partitions[i]].tryWriteLock(handoffTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (stamps[i] == 0L) {
+                open(partitions, stamps);
+                throw ErrorCode.partitionsBusyException();
+            }
+        }
+        return stamps;
+    }
+
+    private void open(int[] partitions, long[] stamps) {
+        for (int i = partitions.length - 1; i >= 0; i--) {
+            if (stamps[i] != 0L) {
+                gates[partitions[i]].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    private boolean isOwnedHere(int partition) {
+        return self.id().equals(owners.get(partition));
+    }
+
+    private NodeClient ownerOf(int partition) {
+        return node(owners.get(partition));
+    }
+
+    private NodeClient node(String nodeId) {
+        return Preconditions.checkNotNull(nodes.get(nodeId), "Unknown node: %s", nodeId);
+    }
+
+    private NodeClient addNode(ClusterMember member) {
+        return nodes.computeIfAbsent(member.id(), nodeId -> new NodeClient(member, client, secret));
+    }
+
+    private PartitionRing ring(List<ClusterMember> ringMembers) {
+        List<String> nodeIds = ringMembers.stream()
+                                          .map(ClusterMember::id)
+                                          .collect(Collectors.toList());
+        return new PartitionRing(nodeIds, gates.length, virtualNodes);
+    }
+
+    int partitionOf(UniqueId<Account> accountId) {
+        return PartitionRing.partitionOf(accountId, gates.length);
+    }
+
+    /**
+     * Partitions closed to be handed over to another node, whose gates stay closed until the node is known to
+     * have taken them over, or not to have.
+     */
+    private static final class PendingHandoff {
+
+        private final NodeClient node;
+        private final PartitionHandoff handoff;
+        private final int[] partitions;
+        private final long[] stamps;
+
+        private PendingHandoff(NodeClient node, PartitionHandoff handoff, int[] partitions, long[] stamps) {
+            this.node = node;
+            this.handoff = handoff;
+            this.partitions = partitions;
+            this.stamps = stamps;
+        }
+    }
+
+    /**
+     * A transfer to another node, reserved on its source, whose gate it holds until it is settled.
+     */
+    private static final class PendingTransfer {
+
+        private final Transaction transaction;
+        private final int sourcePartition;
+        private final long stamp;
+
+        private PendingTransfer(Transaction transaction, int sourcePartition, long stamp) {
+            this.transaction = transaction;
+            this.sourcePartition = sourcePartition;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.google.common.base.Throwables;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import io.transferoo.resource.TransferooEndpoints;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls another node of the cluster: its public API for requests forwarded to it as they are, and the
+ * {@link ClusterResource} on its admin context, with the secret the nodes share, for the rest. Errors the node
+ * reports are thrown again as they are, while a node that cannot be reached, or fails in an unexpected way, is
+ * reported as {@link ErrorCode#NodeUnavailable}. Either way, a server error leaves it unknown whether the request
+ * took effect. A transfer forwarded to a node that stops answering once connected to is reported as
+ * {@link ErrorCode#TransferInDoubt} instead, as the node may well have made it, and so are partitions handed over
+ * to a node that stops answering or fails once connected to, as {@link ErrorCode#HandoffInDoubt}.
+ */
+@ThreadSafe
+final class NodeClient {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeClient.class);
+
+    private static final GenericType<List<Account>> ACCOUNTS = new GenericType<List<Account>>() {};
+    private static final GenericType<List<TransactionResult>> RESULTS = new GenericType<List<TransactionResult>>() {};
+
+    private final ClusterMember member;
+    private final WebTarget api;
+    private final WebTarget cluster;
+
+    NodeClient(ClusterMember member, Client client, String secret) {
+        this.member = member;
+        this.api = client.target(member.url());
+        this.cluster = client.target(member.adminUrl())
+                             .path(TransferooEndpoints.CLUSTER_RESOURCE)
+                             .register(ClusterAuthentication.client(secret));
+    }
+
+    ClusterMember member() {
+        return member;
+    }
+
+    Account createAccount(UniqueId<Account> accountId, AccountMetadata metadata) {
+        Invocation put = account(cluster, accountId).request(MediaType.APPLICATION_JSON_TYPE)
+                                                     .buildPut(Entity.json(metadata));
+        return call(put, response -> entity(response, Account.class));
+    }
+
+    Optional<Account> getAccount(UniqueId<Account> accountId) {
+        Invocation get = account(api, accountId).request(MediaType.APPLICATION_JSON_TYPE)
+                                                .buildGet();
+        return call(get, response -> optionalEntity(response, Account.class));
+    }
+
+    /**
+     * Returns those of the accounts that exist, wherever they are kept.
+     */
+    List<Account> getAccounts(Collection<UniqueId<Account>> accountIds) {
+        WebTarget target = cluster.path(TransferooEndpoints.ACCOUNT_RESOURCE);
+        for (UniqueId<Account> accountId : accountIds) {
+            target = target.queryParam("id", accountId.id().toString());
+        }
+        Invocation get = target.request(MediaType.APPLICATION_JSON_TYPE)
+                               .buildGet();
+        return call(get, response -> entity(response, ACCOUNTS));
+    }
+
+    Optional<TransactionPage> getTransactions(UniqueId<Account> accountId, long after, int limit) {
+        Invocation get = account(api, accountId).path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                                                .queryParam("after", after)
+                                                .queryParam("limit", limit)
+                                                .request(MediaType.APPLICATION_JSON_TYPE)
+                                                .buildGet();
+        return call(get, response -> optionalEntity(response, TransactionPage.class));
+    }
+
+    Optional<AccountHistory> getStatement(UniqueId<Account> accountId) {
+        Invocation get = account(cluster, accountId).path(TransferooEndpoints.STATEMENT_PATH)
+                                                    .request(MediaType.APPLICATION_JSON_TYPE)
+                                                    .buildGet();
+        return call(get, response -> optionalEntity(response, AccountHistory.class));
+    }
+
+    /**
+     * Forwards a transfer, with the idempotency key it was requested with, if any.
+     */
+    Transaction createTransaction(TransactionMetadata metadata, @Nullable String idempotencyKey) {
+        Invocation post = api.path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                             .request(MediaType.APPLICATION_JSON_TYPE)
+                             .header(TransferooEndpoints.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                             .buildPost(Entity.json(metadata));
+        return call(post, response -> entity(response, Transaction.class), transferInDoubt());
+    }
+
+    List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        Invocation post = api.path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                             .path(TransferooEndpoints.BATCH_PATH)
+                             .queryParam("mode", mode)
+                             .request(MediaType.APPLICATION_JSON_TYPE)
+                             .buildPost(Entity.json(batch));
+        return call(post, response -> entity(response, RESULTS), transferInDoubt());
+    }
+
+    /**
+     * Looks a transaction up among those the node has recorded itself.
+     */
+    Optional<Transaction> findTransaction(UniqueId<Transaction> transactionId) {
+        Invocation get = cluster.path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                                .path(transactionId.id().toString())
+                                .request(MediaType.APPLICATION_JSON_TYPE)
+                                .buildGet();
+        return call(get, response -> optionalEntity(response, Transaction.class));
+    }
+
+    Transaction credit(Transaction transaction) {
+        Invocation post = cluster.path(TransferooEndpoints.CREDITS_PATH)
+                                 .request(MediaType.APPLICATION_JSON_TYPE)
+                                 .buildPost(Entity.json(transaction));
+        return call(post, response -> entity(response, Transaction.class));
+    }
+
+    /**
+     * Has the node hand the partitions the joining node is to own over to it. Returns how many there were.
+     */
+    int handOff(ClusterMember joining) {
+        Invocation post = cluster.path(TransferooEndpoints.HANDOFFS_PATH)
+                                 .request(MediaType.APPLICATION_JSON_TYPE)
+                                 .buildPost(Entity.json(joining));
+        return call(post, response -> entity(response, Integer.class));
+    }
+
+    /**
+     * Hands partitions over to the node. Any error but {@link ErrorCode#HandoffInDoubt} means that the node did
+     * not take them over.
+     */
+    void takeOver(PartitionHandoff handoff) {
+        Invocation post = cluster.path(TransferooEndpoints.PARTITIONS_PATH)
+                                 .request(MediaType.APPLICATION_JSON_TYPE)
+                                 .buildPost(Entity.json(handoff));
+        call(post, this::checkTakenOver, handoffInDoubt());
+    }
+
+    void setMembers(List<ClusterMember> members) {
+        Invocation put = cluster.path(TransferooEndpoints.MEMBERS_PATH)
+                                .request(MediaType.APPLICATION_JSON_TYPE)
+                                .buildPut(Entity.json(members));
+        call(put, this::checkSuccessful);
+    }
+
+    private static WebTarget account(WebTarget target, UniqueId<Account> accountId) {
+        return target.path(TransferooEndpoints.ACCOUNT_RESOURCE)
+                     .path(accountId.id().toString());
+    }
+
+    private <T> T call(Invocation request, Function<Response, T> read) {
+        return call(request, read, ErrorCode.nodeUnavailable(member.id()));
+    }
+
+    /**
+     * Makes a call, and reports the node as unavailable if it cannot be connected to, or with the given error if
+     * it fails to answer once connected to.
+     */
+    private <T> T call(Invocation request, Function<Response, T> read, Supplier<WebApplicationException> unanswered) {
+        try {
+            Response response = request.invoke();
+            try {
+                return read.apply(response);
+            } finally {
+                response.close();
+            }
+        } catch (ProcessingException e) {
+            log.warn("Failed to call node {}", member.id(), e);
+            throw isConnectFailure(e) ? ErrorCode.nodeUnavailable(member.id()).get() : unanswered.get();
+        }
+    }
+
+    private Supplier<WebApplicationException> transferInDoubt() {
+        return () -> ErrorCode.forwardedTransferInDoubtException(member.id());
+    }
+
+    private Supplier<WebApplicationException> handoffInDoubt() {
+        return () -> ErrorCode.handoffInDoubtException(member.id());
+    }
+
+    private static boolean isConnectFailure(ProcessingException failure) {
+        return Throwables.getCausalChain(failure)
+                         .stream()
+                         .anyMatch(cause -> cause instanceof ConnectException
+                                            || cause instanceof ConnectTimeoutException
+                                            || cause instanceof UnknownHostException);
+    }
+
+    private <T> Optional<T> optionalEntity(Response response, Class<T> type) {
+        return response.getStatus() == Response.Status.NOT_FOUND.getStatusCode()
+                ? Optional.empty()
+                : Optional.of(entity(response, type));
+    }
+
+    private <T> T entity(Response response, Class<T> type) {
+        return checkSuccessful(response).readEntity(type);
+    }
+
+    private <T> T entity(Response response, GenericType<T> type) {
+        return checkSuccessful(response).readEntity(type);
+    }
+
+    private Response checkTakenOver(Response response) {
+        if (response.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR) {
+            log.warn("Node {} failed with status {} to take partitions over", member.id(), response.getStatus());
+            throw handoffInDoubt().get();
+        }
+        return checkSuccessful(response);
+    }
+
+    private Response checkSuccessful(Response response) {
+        if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+            return response;
+        }
+        // Errors are always JSON, anything else did not come from the node's own code
+        if (MediaType.APPLICATION_JSON_TYPE.isCompatible(response.getMediaType())) {
+            TransferooError error;
+            try {
+                error = response.readEntity(TransferooError.class);
+            } catch (ProcessingException e) {
+                // Such as Dropwizard's own errors, for failures nothing expected
+                log.warn("Node {} failed with status {}: {}", member.id(), response.getStatus(), e.getMessage());
+                throw ErrorCode.nodeUnavailable(member.id()).get();
+            }
+            throw ErrorCode.exceptionOf(error);
+        }
+        log.warn("Node {} failed with status {}", member.id(), response.getStatus());
+        throw ErrorCode.nodeUnavailable(member.id()).get();
+    }
+
+    @Override
+    public String toString() {
+        return member.id();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import java.util.List;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/**
+ * Partitions on their way to a node joining the cluster, with all of their accounts. Each partition comes with
+ * the epoch it is to be owned at, one past the epoch its old owner had it at, so that a handoff that reaches
+ * the node again, as its answer was lost, is told apart from one it has yet to take.
+ */
+@Value.Immutable(builder = false)
+@JsonSerialize(as = ImmutablePartitionHandoff.class)
+@JsonDeserialize(as = ImmutablePartitionHandoff.class)
+public abstract class PartitionHandoff {
+
+    @Value.Parameter
+    @JsonProperty("partitions")
+    public abstract Map<Integer, Long> partitions();
+
+    @Value.Parameter
+    @JsonProperty("accounts")
+    public abstract List<AccountHistory> accounts();
+
+    public static PartitionHandoff of(Map<Integer, ? extends Long> partitions,
+                                      Iterable<? extends AccountHistory> accounts) {
+        return ImmutablePartitionHandoff.of(partitions, accounts);
+    }
+}
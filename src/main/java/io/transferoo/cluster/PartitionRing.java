@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.transferoo.api.Account;
+import io.transferoo.api.UniqueId;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Assigns partitions to nodes by consistent hashing. Every node is hashed onto a ring at a number of points, its
+ * virtual nodes, and each partition goes to the node of the first point at or after the partition's own hash. A
+ * node joining the ring takes partitions over from every other node in about equal measure, and no partition
+ * changes hands between the nodes that were there before.
+ */
+@Immutable
+final class PartitionRing {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final String[] owners;
+
+    PartitionRing(Collection<String> nodeIds, int partitions, int virtualNodes) {
+        Preconditions.checkArgument(!nodeIds.isEmpty(), "A ring needs at least one node");
+        NavigableMap<Long, String> ring = new TreeMap<>();
+        // Nodes are placed in order of their ids, so that every node settles clashing points the same way
+        for (String nodeId : new TreeSet<>(nodeIds)) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.putIfAbsent(HASH.hashString(nodeId + "#" + i, StandardCharsets.UTF_8).asLong(), nodeId);
+            }
+        }
+
+        this.owners = new String[partitions];
+        for (int partition = 0; partition < partitions; partition++) {
+            Map.Entry<Long, String> point = ring.ceilingEntry(HASH.hashInt(partition).asLong());
+            owners[partition] = (point == null ? ring.firstEntry() : point).getValue();
+        }
+    }
+
+    String ownerOf(int partition) {
+        return owners[partition];
+    }
+
+    int partitions() {
+        return owners.length;
+    }
+
+    static int partitionOf(UniqueId<Account> accountId, int partitions) {
+        // Use other bits than a node's shards do, so that the partitions of every node spread over all of its shards
+        UUID id = accountId.id();
+        long hash = (id.getMostSignificantBits() ^ id.getLeastSignificantBits()) * 0x9E3779B97F4A7C15L;
+        return (int) (((hash & 0xFFFFFFFFL) * partitions) >>> 32);
+    }
+}
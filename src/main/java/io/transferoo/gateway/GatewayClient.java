@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.gateway;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Client of the {@link TransferGateway}, over a single connection.
+ *
+ * <p>Requests are pipelined: each call sends its request straight away and returns a future, completed by a
+ * reader thread as responses arrive, so a caller can keep many requests in flight. Rejected requests complete
+ * with a {@link GatewayException}.
+ */
+@ThreadSafe
+public final class GatewayClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final Thread reader;
+
+    @GuardedBy("this")
+    private final ByteBuffer request = ByteBuffer.allocateDirect(
+            GatewayProtocol.HEADER_SIZE + GatewayProtocol.MAX_REQUEST_SIZE);
+    @GuardedBy("this")
+    private final Queue<Pending<?>> pending = new ArrayDeque<>();
+    @GuardedBy("this")
+    private IOException failure;
+
+    private GatewayClient(SocketChannel channel) {
+        this.channel = channel;
+        this.reader = new Thread(this::read, "transferoo-gateway-client");
+        this.reader.setDaemon(true);
+    }
+
+    public static GatewayClient connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        GatewayClient client = new GatewayClient(channel);
+        client.reader.start();
+        return client;
+    }
+
+    public CompletableFuture<Transaction> createTransaction(TransactionMetadata metadata) {
+        if (!GatewayProtocol.isEncodable(metadata.amount())) {
+            throw new IllegalArgumentException("Amount cannot be sent to the gateway: " + metadata.amount());
+        }
+        if (!metadata.unconditional().equals(metadata)) {
+            throw new IllegalArgumentException("Expected account versions cannot be sent to the gateway");
+        }
+        Consumer<ByteBuffer> encoder = buffer -> {
+            buffer.put(GatewayProtocol.CREATE_TRANSACTION);
+            GatewayProtocol.putId(buffer, metadata.source().id());
+            GatewayProtocol.putId(buffer, metadata.destination().id());
+            GatewayProtocol.putAmount(buffer, metadata.amount());
+        };
+        Function<ByteBuffer, Transaction> decoder = response -> {
+            UniqueId<Transaction> id = UniqueId.of(GatewayProtocol.getId(response));
+            return Transaction.builder().id(id).metadata(metadata).build();
+        };
+        return send(GatewayProtocol.CREATE_TRANSACTION_SIZE, encoder, decoder);
+    }
+
+    public CompletableFuture<Account> getAccount(UniqueId<Account> id) {
+        Consumer<ByteBuffer> encoder = buffer -> {
+            buffer.put(GatewayProtocol.GET_ACCOUNT);
+            GatewayProtocol.putId(buffer, id.id());
+        };
+        Function<ByteBuffer, Account> decoder = response -> {
+            AccountMetadata metadata = AccountMetadata.builder()
+                                                      .balance(GatewayProtocol.getAmount(response))
+                                                      .build();
+            return Account.builder().id(id).metadata(metadata).version(response.getLong()).build();
+        };
+        return send(GatewayProtocol.GET_ACCOUNT_SIZE, encoder, decoder);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized <T> CompletableFuture<T> send(int length,
+                                                       Consumer<ByteBuffer> encoder,
+                                                       Function<ByteBuffer, T> decoder) {
+        Pending<T> next = new Pending<>(decoder);
+        if (failure != null) {
+            next.future.completeExceptionally(failure);
+            return next.future;
+        }
+        request.clear();
+        request.putInt(length);
+        encoder.accept(request);
+        request.flip();
+        // Queued before it is sent, so that the reader always finds it
+        pending.add(next);
+        try {
+            while (request.hasRemaining()) {
+                channel.write(request);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        return next.future;
+    }
+
+    private void read() {
+        ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("Gateway closed the connection");
+                }
+                in.flip();
+                while (in.remaining() >= GatewayProtocol.HEADER_SIZE
+                       && in.remaining() >= GatewayProtocol.HEADER_SIZE + in.getInt(in.position())) {
+                    int length = in.getInt();
+                    ByteBuffer response = in.slice();
+                    response.limit(length);
+                    in.position(in.position() + length);
+                    next().complete(response);
+                }
+                in.compact();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                fail(e);
+            }
+        }
+    }
+
+    private synchronized Pending<?> next() throws IOException {
+        Pending<?> next = pending.poll();
+        if (next == null) {
+            throw new IOException("Response without a request");
+        }
+        return next;
+    }
+
+    @GuardedBy("this")
+    private void fail(IOException cause) {
+        if (failure == null) {
+            failure = cause;
+        }
+        Pending<?> next;
+        while ((next = pending.poll()) != null) {
+            next.future.completeExceptionally(failure);
+        }
+    }
+
+    private static final class Pending<T> {
+
+        private final Function<ByteBuffer, T> decoder;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Pending(Function<ByteBuffer, T> decoder) {
+            this.decoder = decoder;
+        }
+
+        private void complete(ByteBuffer response) {
+            byte status = response.get();
+            if (status == GatewayProtocol.OK) {
+                future.complete(decoder.apply(response));
+            } else {
+                future.completeExceptionally(new GatewayException(GatewayProtocol.getError(status, response)));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.gateway;
+
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransferooError;
+
+/**
+ * Error a gateway request was rejected with, carrying the same {@link ErrorCode} the REST API would report.
+ */
+public final class GatewayException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    // Kept apart rather than as a TransferooError, which is not serializable
+    private final ErrorCode errorCode;
+    private final String errorMessage;
+
+    GatewayException(TransferooError error) {
+        super(error.errorCode() + ": " + error.message());
+        this.errorCode = error.errorCode();
+        this.errorMessage = error.message();
+    }
+
+    public TransferooError error() {
+        return TransferooError.of(errorMessage, errorCode);
+    }
+
+    public ErrorCode errorCode() {
+        return errorCode;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.gateway;
+
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransferooError;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Wire format of the gateway.
+ *
+ * <p>Every message is a frame: a big-endian {@code int} length followed by that many bytes. A request starts
+ * with an opcode byte:
+ * <ul>
+ *     <li>{@link #CREATE_TRANSACTION}: source id, destination id, amount.</li>
+ *     <li>{@link #GET_ACCOUNT}: account id.</li>
+ * </ul>
+ * A response starts with a status byte. {@link #OK} is followed by the transaction id, or by the balance and
+ * version of the account. Any other status is an {@link ErrorCode}, followed by the UTF-8 error message. Ids are two
+ * {@code long}s, most significant first; amounts are an unscaled {@code long} and a scale byte.
+ *
+ * <p>Requests may be pipelined: a connection answers its requests in the order they were sent. A connection that
+ * sends a malformed request is closed, and none of the requests it has not had a response to were applied.
+ */
+final class GatewayProtocol {
+
+    static final byte CREATE_TRANSACTION = 1;
+    static final byte GET_ACCOUNT = 2;
+
+    static final byte OK = 0;
+
+    static final int HEADER_SIZE = Integer.BYTES;
+    static final int CREATE_TRANSACTION_SIZE = 1 + 2 * 2 * Long.BYTES + Long.BYTES + 1;
+    static final int GET_ACCOUNT_SIZE = 1 + 2 * Long.BYTES;
+    static final int MAX_REQUEST_SIZE = CREATE_TRANSACTION_SIZE;
+    static final int MAX_MESSAGE_SIZE = 1024;
+    static final int MAX_RESPONSE_SIZE = 1 + MAX_MESSAGE_SIZE;
+
+    private static final BigInteger MIN_UNSCALED = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_UNSCALED = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private GatewayProtocol() {}
+
+    static void putId(ByteBuffer buffer, UUID id) {
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+    }
+
+    static UUID getId(ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    static boolean isEncodable(BigDecimal amount) {
+        BigInteger unscaled = amount.unscaledValue();
+        return amount.scale() >= Byte.MIN_VALUE && amount.scale() <= Byte.MAX_VALUE
+               && unscaled.compareTo(MIN_UNSCALED) >= 0 && unscaled.compareTo(MAX_UNSCALED) <= 0;
+    }
+
+    static void putAmount(ByteBuffer buffer, BigDecimal amount) {
+        buffer.putLong(amount.unscaledValue().longValue());
+        buffer.put((byte) amount.scale());
+    }
+
+    static BigDecimal getAmount(ByteBuffer buffer) {
+        long unscaled = buffer.getLong();
+        return BigDecimal.valueOf(unscaled, buffer.get());
+    }
+
+    // Error codes are only ever appended, so their ordinals are stable
+    static byte statusOf(ErrorCode errorCode) {
+        return (byte) (errorCode.ordinal() + 1);
+    }
+
+    static void putError(ByteBuffer buffer, TransferooError error) {
+        buffer.put(statusOf(error.errorCode()));
+        byte[] message = error.message().getBytes(StandardCharsets.UTF_8);
+        buffer.put(message, 0, Math.min(message.length, MAX_MESSAGE_SIZE));
+    }
+
+    static TransferooError getError(byte status, ByteBuffer buffer) {
+        ErrorCode errorCode = ErrorCode.values()[status - 1];
+        byte[] message = new byte[buffer.remaining()];
+        buffer.get(message);
+        return TransferooError.of(new String(message, StandardCharsets.UTF_8), errorCode);
+    }
+}
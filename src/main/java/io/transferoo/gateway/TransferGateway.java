@@ -0,0 +1,473 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.gateway;
+
+import io.dropwizard.lifecycle.Managed;
+import io.transferoo.api.Account;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import io.transferoo.store.Ledger;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.WebApplicationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary TCP listener that calls straight into the store, for callers that cannot afford HTTP and JSON.
+ *
+ * <p>An acceptor thread hands connections to a fixed set of event loops, each with a selector of its own. A loop
+ * reads whatever its connections have sent and hands every complete request in the read buffer to a worker. The
+ * worker answers them in order, applying each run of pipelined transfers as one best effort batch, so that they
+ * wait for the journal once. The loop then writes all the responses at once, so pipelined requests cost one read,
+ * one write and one journal commit per batch rather than per request. Store calls never run on a loop, so a
+ * connection waiting for the journal, or for another node, does not hold up the others.
+ * See {@link GatewayProtocol} for the wire format.
+ */
+public final class TransferGateway implements Managed {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferGateway.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Ledger accounts;
+    private final GatewayConfiguration configuration;
+
+    private ServerSocketChannel server;
+    private Thread acceptor;
+    private EventLoop[] loops;
+    private ExecutorService workers;
+
+    public TransferGateway(Ledger accounts, GatewayConfiguration configuration) {
+        this.accounts = Objects.requireNonNull(accounts, "accounts");
+        this.configuration = Objects.requireNonNull(configuration, "configuration");
+    }
+
+    @Override
+    public void start() throws IOException {
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(configuration.getWorkerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "transferoo-gateway-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loops = new EventLoop[configuration.getIoThreads()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open(), "transferoo-gateway-" + i);
+            loops[i].thread.start();
+        }
+
+        server = ServerSocketChannel.open();
+        server.bind(configuration.getBindHost() == null
+                ? new InetSocketAddress(configuration.getPort())
+                : new InetSocketAddress(configuration.getBindHost(), configuration.getPort()));
+        acceptor = new Thread(this::accept, "transferoo-gateway-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("Gateway listening on {}", server.getLocalAddress());
+    }
+
+    @Override
+    public void stop() throws IOException, InterruptedException {
+        server.close();
+        acceptor.join(TimeUnit.SECONDS.toMillis(5));
+        for (EventLoop loop : loops) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        for (EventLoop loop : loops) {
+            loop.thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        workers.shutdown();
+        workers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Port the gateway is listening on, which is only known once started if the configured port is 0.
+     */
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    private void accept() {
+        int next = 0;
+        while (server.isOpen()) {
+            try {
+                SocketChannel channel = server.accept();
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                log.warn("Failed to accept a gateway connection", e);
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> added = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> answered = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        private EventLoop(Selector selector, String name) {
+            this.selector = selector;
+            this.thread = new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        private void add(SocketChannel channel) {
+            added.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Takes a connection back from the worker that has answered its requests.
+         */
+        private void answered(Connection connection) {
+            answered.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAdded();
+                    resumeAnswered();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        serve(key);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Gateway event loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    close(key);
+                }
+                close(selector);
+            }
+        }
+
+        private void registerAdded() {
+            SocketChannel channel;
+            while ((channel = added.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    log.warn("Failed to register a gateway connection", e);
+                    close(channel);
+                }
+            }
+        }
+
+        private void resumeAnswered() {
+            Connection connection;
+            while ((connection = answered.poll()) != null) {
+                if (connection.failure != null) {
+                    log.warn("Closing gateway connection {}", connection.channel, connection.failure);
+                    close(connection.key);
+                } else {
+                    proceed(connection);
+                }
+            }
+        }
+
+        private void serve(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isReadable() && connection.read() < 0) {
+                    close(key);
+                    return;
+                }
+            } catch (IOException e) {
+                log.warn("Closing gateway connection {}", connection.channel, e);
+                close(key);
+                return;
+            }
+            proceed(connection);
+        }
+
+        private void proceed(Connection connection) {
+            try {
+                connection.proceed();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Closing gateway connection {}", connection.channel, e);
+                close(connection.key);
+            }
+        }
+    }
+
+    /**
+     * Buffers of a connection, which belong to its event loop, except while a worker answers the requests in them.
+     * The loop neither reads nor writes in the meantime, which also keeps the responses in the order of the
+     * requests.
+     */
+    private final class Connection {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        // Both are left ready to be filled between calls
+        private final ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final List<TransactionMetadata> transfers = new ArrayList<>();
+        private SelectionKey key;
+        // Why the worker gave up on the requests, handed back to the loop along with the connection
+        private Exception failure;
+
+        private Connection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        /**
+         * Writes what is left of the responses, and once they are all out, hands any complete requests to a worker.
+         */
+        private void proceed() throws IOException {
+            boolean written = write();
+            if (written && hasRequest()) {
+                key.interestOps(0);
+                workers.execute(this::answerAll);
+            } else {
+                // Stop reading until the caller has taken its responses
+                key.interestOps(written ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void answerAll() {
+            try {
+                answer();
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            loop.answered(this);
+        }
+
+        private int read() throws IOException {
+            return channel.read(in);
+        }
+
+        /**
+         * Checks the length of the first request as soon as it is in, as a frame that cannot fit in the buffer would
+         * otherwise keep the connection readable with nothing left to read it into.
+         */
+        private boolean hasRequest() throws IOException {
+            return in.position() >= GatewayProtocol.HEADER_SIZE
+                   && in.position() >= GatewayProtocol.HEADER_SIZE + checkLength(in.getInt(0));
+        }
+
+        /**
+         * Answers as many of the requests read so far as there is room for the responses of. They are all checked
+         * before any is applied, so a connection closed over a malformed request has had a response to every request
+         * that was applied.
+         */
+        private void answer() throws IOException {
+            in.flip();
+            int room = out.remaining() / (GatewayProtocol.HEADER_SIZE + GatewayProtocol.MAX_RESPONSE_SIZE);
+            for (int requests = checkRequests(room); requests > 0; requests--) {
+                in.position(in.position() + GatewayProtocol.HEADER_SIZE);
+                byte opcode = in.get();
+                if (opcode == GatewayProtocol.CREATE_TRANSACTION) {
+                    transfers.add(TransactionMetadata.builder()
+                                                     .source(UniqueId.of(GatewayProtocol.getId(in)))
+                                                     .destination(UniqueId.of(GatewayProtocol.getId(in)))
+                                                     .amount(GatewayProtocol.getAmount(in))
+                                                     .build());
+                } else {
+                    // Anything else sees the transfers sent before it
+                    createTransactions();
+                    answer(opcode);
+                }
+            }
+            createTransactions();
+            in.compact();
+        }
+
+        private void answer(byte opcode) {
+            int start = out.position();
+            out.position(start + GatewayProtocol.HEADER_SIZE);
+            try {
+                if (opcode == GatewayProtocol.GET_ACCOUNT) {
+                    getAccount();
+                } else {
+                    throw new IllegalStateException("Unchecked opcode: " + opcode);
+                }
+            } catch (WebApplicationException e) {
+                out.position(start + GatewayProtocol.HEADER_SIZE);
+                GatewayProtocol.putError(out, (TransferooError) e.getResponse().getEntity());
+            }
+            out.putInt(start, out.position() - start - GatewayProtocol.HEADER_SIZE);
+        }
+
+        /**
+         * Returns how many of the complete requests at the start of the flipped read buffer, up to the given number,
+         * are well formed, failing if one of them is not.
+         */
+        private int checkRequests(int max) throws IOException {
+            int requests = 0;
+            int position = in.position();
+            while (requests < max && in.limit() - position >= GatewayProtocol.HEADER_SIZE) {
+                int length = checkLength(in.getInt(position));
+                if (in.limit() - position < GatewayProtocol.HEADER_SIZE + length) {
+                    break;
+                }
+                if (length != requestSize(in.get(position + GatewayProtocol.HEADER_SIZE))) {
+                    throw new IOException("Request does not match its length: " + length);
+                }
+                position += GatewayProtocol.HEADER_SIZE + length;
+                requests++;
+            }
+            return requests;
+        }
+
+        private int checkLength(int length) throws IOException {
+            if (length < 1 || length > GatewayProtocol.MAX_REQUEST_SIZE) {
+                throw new IOException("Invalid request length: " + length);
+            }
+            return length;
+        }
+
+        private int requestSize(byte opcode) throws IOException {
+            if (opcode == GatewayProtocol.CREATE_TRANSACTION) {
+                return GatewayProtocol.CREATE_TRANSACTION_SIZE;
+            } else if (opcode == GatewayProtocol.GET_ACCOUNT) {
+                return GatewayProtocol.GET_ACCOUNT_SIZE;
+            }
+            throw new IOException("Unknown opcode: " + opcode);
+        }
+
+        /**
+         * Applies the transfers decoded since the last call, a lone one as it is and more as one best effort batch,
+         * and writes their responses.
+         */
+        private void createTransactions() {
+            if (transfers.size() == 1) {
+                respond(createTransaction(transfers.get(0)));
+            } else if (!transfers.isEmpty()) {
+                createTransactionsInBatch().forEach(this::respond);
+            }
+            transfers.clear();
+        }
+
+        private TransactionResult createTransaction(TransactionMetadata metadata) {
+            try {
+                return TransactionResult.succeeded(accounts.createTransaction(metadata));
+            } catch (WebApplicationException e) {
+                return TransactionResult.failed((TransferooError) e.getResponse().getEntity());
+            }
+        }
+
+        private List<TransactionResult> createTransactionsInBatch() {
+            try {
+                return accounts.createTransactions(transfers, BatchMode.BEST_EFFORT);
+            } catch (WebApplicationException e) {
+                // Refused as a whole, e.g. by a store that cannot take batches
+                TransactionResult failed = TransactionResult.failed((TransferooError) e.getResponse().getEntity());
+                return Collections.nCopies(transfers.size(), failed);
+            }
+        }
+
+        private void respond(TransactionResult result) {
+            int start = out.position();
+            out.position(start + GatewayProtocol.HEADER_SIZE);
+            if (result.transaction() != null) {
+                out.put(GatewayProtocol.OK);
+                GatewayProtocol.putId(out, result.transaction().id().id());
+            } else {
+                GatewayProtocol.putError(out, result.error());
+            }
+            out.putInt(start, out.position() - start - GatewayProtocol.HEADER_SIZE);
+        }
+
+        private void getAccount() {
+            UniqueId<Account> id = UniqueId.of(GatewayProtocol.getId(in));
+            Optional<Account> account = accounts.getAccountById(id);
+            if (!account.isPresent()) {
+                throw ErrorCode.accountNotFound(id).get();
+            }
+            BigDecimal balance = account.get().metadata().balance();
+            out.put(GatewayProtocol.OK);
+            GatewayProtocol.putAmount(out, balance);
+            out.putLong(account.get().version());
+        }
+
+        /**
+         * Returns whether everything was written.
+         */
+        private boolean write() throws IOException {
+            out.flip();
+            channel.write(out);
+            boolean written = !out.hasRemaining();
+            out.compact();
+            return written;
+        }
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        close(key.channel());
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Failed to close {}", closeable, e);
+        }
+    }
+}
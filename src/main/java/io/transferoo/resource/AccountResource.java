@@ -25,23 +25,48 @@
 package io.transferoo.resource;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.transferoo.api.Account;
 import io.transferoo.api.AccountMetadata;
 import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
 import io.transferoo.api.UniqueId;
-import io.transferoo.store.AccountStore;
+import io.transferoo.store.AccountStatement;
+import io.transferoo.store.Ledger;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Collectors;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 @Path(TransferooEndpoints.ACCOUNT_RESOURCE)
@@ -49,27 +74,130 @@ import javax.ws.rs.core.UriInfo;
 @Produces(MediaType.APPLICATION_JSON)
 public class AccountResource {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
     @Context
     private UriInfo uri;
 
-    private final AccountStore accounts;
+    private final Ledger accounts;
+    private final StoreExecutor executor;
+    private final ObjectWriter transactionWriter;
 
-    public AccountResource(AccountStore accounts) {
+    public AccountResource(Ledger accounts, StoreExecutor executor, ObjectMapper mapper) {
         this.accounts = Objects.requireNonNull(accounts, "accounts");
+        this.executor = Objects.requireNonNull(executor, "executor");
+        // One line per transaction, flushed as the output buffer fills up rather than after every line
+        this.transactionWriter = mapper.writerFor(Transaction.class)
+                                       .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                                       .withRootValueSeparator(new SerializedString("\n"));
     }
 
     @GET
     @Timed
     @Path(TransferooEndpoints.GET_BY_ID_PATH)
-    public Account getAccount(@NotNull @PathParam("id") UniqueId<Account> id) {
-        return accounts.getAccountById(id)
-                       .orElseThrow(ErrorCode.accountNotFound(id));
+    public void getAccount(@NotNull @PathParam("id") UniqueId<Account> id,
+                           @Context Request request,
+                           @Suspended AsyncResponse response) {
+        executor.submit(response, () -> {
+            Account account = accounts.getAccountById(id)
+                                      .orElseThrow(ErrorCode.accountNotFound(id));
+            // The version changes with the balance, so an unchanged one is answered with 304 and no body
+            EntityTag tag = new EntityTag(Long.toString(account.version()));
+            Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+            return notModified != null
+                    ? notModified.build()
+                    : Response.ok(account).tag(tag).build();
+        });
+    }
+
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.GET_BY_ID_PATH + "/" + TransferooEndpoints.TRANSACTION_RESOURCE)
+    public void getTransactions(@NotNull @PathParam("id") UniqueId<Account> id,
+                                @Min(0) @DefaultValue("0") @QueryParam("after") long after,
+                                @Min(1) @Max(MAX_PAGE_SIZE) @DefaultValue("100") @QueryParam("limit") int limit,
+                                @Suspended AsyncResponse response) {
+        executor.submit(response, () -> accounts.getTransactionsByAccountId(id, after, limit)
+                                                .orElseThrow(ErrorCode.accountNotFound(id)));
+    }
+
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.GET_BY_ID_PATH + "/" + TransferooEndpoints.STATEMENT_PATH)
+    @Produces(TransferooEndpoints.JSON_LINES)
+    public Response getStatementAsJsonLines(@NotNull @PathParam("id") UniqueId<Account> id) {
+        AccountStatement statement = getStatement(id);
+        return statementResponse(statement, output -> {
+            try (JsonGenerator generator = transactionWriter.getFactory().createGenerator(output)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                for (Transaction transaction : statement) {
+                    transactionWriter.writeValue(generator, transaction);
+                }
+                if (statement.size() > 0) {
+                    generator.writeRaw('\n');
+                }
+            }
+        });
+    }
+
+    @GET
+    @Timed
+    @Path(TransferooEndpoints.GET_BY_ID_PATH + "/" + TransferooEndpoints.STATEMENT_PATH)
+    @Produces(TransferooEndpoints.CSV)
+    public Response getStatementAsCsv(@NotNull @PathParam("id") UniqueId<Account> id) {
+        AccountStatement statement = getStatement(id);
+        return statementResponse(statement, output -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer.write("id,sourceAccount,destinationAccount,amount\n");
+            for (Transaction transaction : statement) {
+                writer.write(transaction.id().id().toString());
+                writer.write(',');
+                writer.write(transaction.metadata().source().id().toString());
+                writer.write(',');
+                writer.write(transaction.metadata().destination().id().toString());
+                writer.write(',');
+                writer.write(transaction.metadata().amount().toPlainString());
+                writer.write('\n');
+            }
+            writer.flush();
+        });
+    }
+
+    @GET
+    @Timed
+    public void getAccounts(@NotNull @QueryParam("id") List<UniqueId<Account>> ids,
+                            @Suspended AsyncResponse response) {
+        executor.submit(response, () -> {
+            Map<UniqueId<Account>, Account> snapshot = accounts.getAccountsById(ids);
+            return ids.stream()
+                      .map(id -> Optional.ofNullable(snapshot.get(id))
+                                         .orElseThrow(ErrorCode.accountNotFound(id)))
+                      .collect(Collectors.toList());
+        });
     }
 
     @POST
     @Timed
-    public Response createAccount(@NotNull @Valid AccountMetadata metadata) {
-        Account account = accounts.createAccount(metadata);
-        return TransferooEndpoints.createdResponse(uri, account);
+    public void createAccount(@NotNull @Valid AccountMetadata metadata,
+                              @Suspended AsyncResponse response) {
+        // The location is built here, as the request scoped UriInfo is not usable from the store executor
+        UriBuilder location = uri.getAbsolutePathBuilder();
+        executor.submit(response, () -> TransferooEndpoints.createdResponse(location,
+                                                                            accounts.createAccount(metadata)));
+    }
+
+    // Statements stay synchronous: the body is streamed by the thread that resumes the request, which must not be a
+    // store thread
+    private AccountStatement getStatement(UniqueId<Account> id) {
+        return accounts.getStatement(id)
+                       .orElseThrow(ErrorCode.accountNotFound(id));
+    }
+
+    private static Response statementResponse(AccountStatement statement, StreamingOutput body) {
+        // Streamed straight out of the store, so the whole history is never held in memory
+        return Response.ok(body)
+                       .header(TransferooEndpoints.BALANCE_HEADER,
+                               statement.account().metadata().balance().toPlainString())
+                       .build();
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.resource;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class ExecutionConfiguration {
+
+    public enum Mode {
+        // Requests are served on the Jetty thread that accepted them
+        SYNC,
+        // Requests are suspended and served on the store executor, freeing the Jetty thread straight away
+        ASYNC
+    }
+
+    @NotNull
+    private Mode mode = Mode.SYNC;
+
+    // Threads of the store executor, i.e. how many requests can be in the store at once
+    @Min(1)
+    private int threads = 32;
+
+    // Requests waiting for a store thread beyond this are rejected as unavailable
+    @Min(1)
+    private int queueSize = 10_000;
+
+    @JsonProperty
+    public Mode getMode() {
+        return mode;
+    }
+
+    @JsonProperty
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+}
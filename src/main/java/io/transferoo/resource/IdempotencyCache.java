@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.resource;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Remembers the outcome of transfers requested with an idempotency key, so that retries get the same outcome
+ * instead of transferring again. Concurrent requests with the same key wait for the first one and share its
+ * outcome. The cache is bounded in size and entries expire; it is split into independently locked segments,
+ * and lookups of existing keys do not lock at all, so requests with different keys hardly contend.
+ *
+ * <p>Only outcomes the client can act on are kept: the transaction, or the {@link ErrorCode} it was rejected
+ * with as a client error. Server errors are not, as they leave it unknown whether the transfer was made, or ask
+ * for a retry later, and neither do unexpected failures, so that the request can be retried.
+ */
+@ThreadSafe
+final class IdempotencyCache {
+
+    static final int MAX_KEY_LENGTH = 255;
+
+    private final Cache<String, Outcome> outcomes;
+
+    IdempotencyCache(IdempotencyConfiguration configuration) {
+        this.outcomes = CacheBuilder.newBuilder()
+                                    .maximumSize(configuration.getMaxKeys())
+                                    .expireAfterWrite(configuration.getExpireAfter().toMilliseconds(),
+                                                      TimeUnit.MILLISECONDS)
+                                    .concurrencyLevel(configuration.getConcurrencyLevel())
+                                    .build();
+    }
+
+    /**
+     * Returns the transaction created for the key, creating it if nobody has yet, or throws the error it was
+     * rejected with. Throws if the key was used for a different transfer.
+     */
+    Transaction createTransaction(String key, TransactionMetadata metadata, Supplier<Transaction> transfer) {
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw ErrorCode.invalidIdempotencyKeyException(MAX_KEY_LENGTH);
+        }
+
+        Outcome outcome;
+        try {
+            outcome = outcomes.get(key, () -> new Outcome(metadata, attempt(transfer)));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+
+        if (!outcome.metadata.equals(metadata)) {
+            throw ErrorCode.idempotencyKeyReusedException(key);
+        }
+        if (outcome.result.error() != null) {
+            throw ErrorCode.exceptionOf(outcome.result.error());
+        }
+        return outcome.result.transaction();
+    }
+
+    private static TransactionResult attempt(Supplier<Transaction> transfer) {
+        try {
+            return TransactionResult.succeeded(transfer.get());
+        } catch (WebApplicationException e) {
+            if (e.getResponse().getStatusInfo().getFamily() != Response.Status.Family.CLIENT_ERROR) {
+                throw e;
+            }
+            return TransactionResult.failed((TransferooError) e.getResponse().getEntity());
+        }
+    }
+
+    private static final class Outcome {
+
+        private final TransactionMetadata metadata;
+        private final TransactionResult result;
+
+        private Outcome(TransactionMetadata metadata, TransactionResult result) {
+            this.metadata = metadata;
+            this.result = result;
+        }
+    }
+}
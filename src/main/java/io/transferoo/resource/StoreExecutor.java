@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.resource;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.transferoo.api.ErrorCode;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.container.AsyncResponse;
+
+/**
+ * Runs the store calls of suspended requests and resumes them with the outcome.
+ *
+ * <p>With a {@link #direct()} executor the call runs on the request thread, exactly as a synchronous resource
+ * would. With a pooled executor the request thread is handed back to Jetty as soon as the call is queued, so
+ * requests waiting for the store only hold a queue slot; once the queue is full they are rejected straight away
+ * rather than piling up.
+ */
+@ThreadSafe
+public final class StoreExecutor {
+
+    private final Executor executor;
+
+    public StoreExecutor(Executor executor) {
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    public static StoreExecutor direct() {
+        return new StoreExecutor(MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Resumes {@code response} with what {@code call} returns, or with what it throws.
+     */
+    public void submit(AsyncResponse response, Supplier<?> call) {
+        try {
+            executor.execute(() -> {
+                try {
+                    response.resume(call.get());
+                } catch (Throwable e) {
+                    response.resume(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.resume(ErrorCode.storeUnavailable().get());
+        }
+    }
+}
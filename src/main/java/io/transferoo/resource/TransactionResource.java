@@ -25,22 +25,30 @@
 package io.transferoo.resource;
 
 import com.codahale.metrics.annotation.Timed;
+import io.transferoo.api.BatchMode;
 import io.transferoo.api.ErrorCode;
 import io.transferoo.api.Transaction;
 import io.transferoo.api.TransactionMetadata;
 import io.transferoo.api.UniqueId;
-import io.transferoo.store.AccountStore;
+import io.transferoo.store.Ledger;
+import java.util.List;
+import java.util.function.Supplier;
 import javax.validation.Valid;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
 @Path(TransferooEndpoints.TRANSACTION_RESOURCE)
@@ -51,24 +59,57 @@ public class TransactionResource {
     @Context
     private UriInfo uri;
 
-    private final AccountStore accounts;
+    private final Ledger accounts;
+    private final StoreExecutor executor;
+    private final IdempotencyCache idempotency;
+    private final int maxBatchSize;
 
-    public TransactionResource(AccountStore accounts) {
+    public TransactionResource(Ledger accounts,
+                               StoreExecutor executor,
+                               IdempotencyConfiguration idempotency,
+                               int maxBatchSize) {
         this.accounts = accounts;
+        this.executor = executor;
+        this.idempotency = new IdempotencyCache(idempotency);
+        this.maxBatchSize = maxBatchSize;
     }
 
     @GET
     @Timed
     @Path(TransferooEndpoints.GET_BY_ID_PATH)
-    public Transaction getTransaction(@NotNull @PathParam("id") UniqueId<Transaction> id) {
-        return accounts.getTransactionById(id)
-                       .orElseThrow(ErrorCode.unknownTransactionId(id));
+    public void getTransaction(@NotNull @PathParam("id") UniqueId<Transaction> id,
+                               @Suspended AsyncResponse response) {
+        executor.submit(response, () -> accounts.getTransactionById(id)
+                                                .orElseThrow(ErrorCode.unknownTransactionId(id)));
     }
 
     @POST
     @Timed
-    public Response createAccount(@NotNull @Valid TransactionMetadata metadata) {
-        Transaction transaction = accounts.createTransaction(metadata);
-        return TransferooEndpoints.createdResponse(uri, transaction);
+    public void createAccount(@NotNull @Valid TransactionMetadata metadata,
+                              @HeaderParam(TransferooEndpoints.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+                              @Suspended AsyncResponse response) {
+        UriBuilder location = uri.getAbsolutePathBuilder();
+        executor.submit(response, () -> {
+            Supplier<Transaction> create = () -> accounts.createTransaction(metadata);
+            Transaction transaction = idempotencyKey == null
+                    ? create.get()
+                    : accounts.forwardTransaction(metadata, idempotencyKey)
+                              .orElseGet(() -> idempotency.createTransaction(idempotencyKey, metadata, create));
+            return TransferooEndpoints.createdResponse(location, transaction);
+        });
+    }
+
+    @POST
+    @Timed
+    @Path(TransferooEndpoints.BATCH_PATH)
+    public void createTransactions(@NotNull @Valid List<TransactionMetadata> batch,
+                                   @NotNull @DefaultValue("ATOMIC") @QueryParam("mode") BatchMode mode,
+                                   @Suspended AsyncResponse response) {
+        executor.submit(response, () -> {
+            if (batch.size() > maxBatchSize) {
+                throw ErrorCode.batchTooLargeException(maxBatchSize, batch.size());
+            }
+            return accounts.createTransactions(batch, mode);
+        });
     }
 }
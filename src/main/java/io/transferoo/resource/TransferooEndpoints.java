@@ -27,23 +27,36 @@ package io.transferoo.resource;
 import io.transferoo.api.HasUniqueId;
 import java.net.URI;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.UriBuilder;
 
 public interface TransferooEndpoints {
 
     String ACCOUNT_RESOURCE = "accounts";
     String TRANSACTION_RESOURCE = "transactions";
     String GET_BY_ID_PATH = "{id}";
+    String BATCH_PATH = "batch";
+    String STATEMENT_PATH = "statement";
 
-    static Response createdResponse(UriInfo uri, HasUniqueId<?> resource) {
-        return Response.created(resourceUri(uri, resource))
+    // Only for the nodes of a cluster to call each other with, on the admin context
+    String CLUSTER_RESOURCE = "cluster";
+    String CREDITS_PATH = "credits";
+    String HANDOFFS_PATH = "handoffs";
+    String PARTITIONS_PATH = "partitions";
+    String MEMBERS_PATH = "members";
+
+    String JSON_LINES = "application/x-ndjson";
+    String CSV = "text/csv";
+    String BALANCE_HEADER = "X-Account-Balance";
+    String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    static Response createdResponse(UriBuilder collection, HasUniqueId<?> resource) {
+        return Response.created(resourceUri(collection, resource))
                        .entity(resource)
                        .build();
     }
 
-    static URI resourceUri(UriInfo uri, HasUniqueId<?> resource) {
-        return uri.getAbsolutePathBuilder()
-                  .path(GET_BY_ID_PATH)
-                  .build(resource.id().id().toString());
+    static URI resourceUri(UriBuilder collection, HasUniqueId<?> resource) {
+        return collection.path(GET_BY_ID_PATH)
+                         .build(resource.id().id().toString());
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The store's internal view of an account: its balance in {@link MinorUnits} and the scale the balance
+ * is rendered with. The scale tracks the finest scale of the opening balance and of every amount
+ * transferred, exactly like {@link java.math.BigDecimal} arithmetic would, so that the API keeps
+ * returning the same balances it did when they were kept as decimals.
+ *
+ * <p>Records also remember the journal sequence number of the last change applied to them, so that
+ * replaying the journal on top of a snapshot skips changes the snapshot already has.
+ *
+ * <p>Records are updated in place, so they must only be modified under the write lock of their stripe,
+ * and only read under its read lock or a validated optimistic read. The same goes for appending to their
+ * {@link TransactionHistory}, which can however be read at any time.
+ *
+ * <p>Where the state actually lives is up to the {@link AccountTable} that hands out the record.
+ */
+@NotThreadSafe
+abstract class AccountRecord {
+
+    abstract UniqueId<Account> id();
+
+    abstract long balance();
+
+    abstract int scale();
+
+    abstract long sequence();
+
+    abstract void setBalance(long newBalance, int amountScale, long newSequence);
+
+    /**
+     * Returns the account's transactions. Accounts without any may share an empty history, so only append
+     * through {@link #appendHistory(Transaction)}.
+     */
+    abstract TransactionHistory history();
+
+    abstract void appendHistory(Transaction transaction);
+
+    /**
+     * Returns the number of transfers applied to the account, which goes up by one with every balance change
+     * and is restored along with the history.
+     */
+    final long version() {
+        return history().size();
+    }
+}
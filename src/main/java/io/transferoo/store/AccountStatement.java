@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.collect.ImmutableList;
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import java.util.Iterator;
+import java.util.List;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * An account as of one point in time, together with every transaction that led up to it. Transactions
+ * applied after that point are left out, however long it takes to go through the rest.
+ */
+@Immutable
+public final class AccountStatement implements Iterable<Transaction> {
+
+    private final Account account;
+    private final Iterable<Transaction> transactions;
+    private final int size;
+
+    AccountStatement(Account account, TransactionHistory history, int size) {
+        this(account, () -> history.iterator(size), size);
+    }
+
+    private AccountStatement(Account account, Iterable<Transaction> transactions, int size) {
+        this.account = account;
+        this.transactions = transactions;
+        this.size = size;
+    }
+
+    /**
+     * Creates a statement of transactions that have already been read, e.g. from another node.
+     */
+    public static AccountStatement of(Account account, List<Transaction> transactions) {
+        List<Transaction> copy = ImmutableList.copyOf(transactions);
+        return new AccountStatement(account, copy, copy.size());
+    }
+
+    public Account account() {
+        return account;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Iterates over the transactions oldest first, straight out of the store.
+     */
+    @Override
+    public Iterator<Transaction> iterator() {
+        return transactions.iterator();
+    }
+}
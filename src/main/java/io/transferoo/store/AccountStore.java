@@ -24,50 +24,536 @@
 
 package io.transferoo.store;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.base.Preconditions;
 import io.transferoo.api.Account;
 import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
 import io.transferoo.api.ErrorCode;
 import io.transferoo.api.Transaction;
 import io.transferoo.api.TransactionAccountType;
 import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
 import io.transferoo.api.UniqueId;
+import java.io.IOException;
 import java.math.BigDecimal;
-import java.math.MathContext;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * All methods are globally synchronized: not ideal, but this is the simplest implementation.
+ * Accounts are guarded by a fixed set of striped locks: a transfer only takes the stripes of its source and
+ * destination accounts, always in stripe order, so transfers between unrelated accounts run in parallel
+ * and can never deadlock. Lookups do not lock at all: reads validate optimistic stamps on the stripes of
+ * the accounts they read, so they never observe a half-applied transfer.
+ *
+ * <p>Balances are kept as {@link MinorUnits} at the configured scale in mutable {@link AccountRecord}s,
+ * and {@link Account}s are only built from them when they are handed out. The records live either on the
+ * heap or, with {@link StoreConfiguration.AccountStorage#OFF_HEAP}, in direct buffers.
+ *
+ * <p>With the {@link StoreConfiguration.Engine#SEQUENCED} engine, transfers are instead handed over to a
+ * single writer thread, so request threads never contend on the stripes with each other. Batches of
+ * transfers are always applied by the request thread, under all of their stripes at once.
+ *
+ * <p>If a journal is configured, every change is appended to it before it is applied, and requests only
+ * return once their changes are as durable as configured. The journal is replayed on {@link #start()}.
+ * Snapshots are taken periodically in the background, while transfers carry on, after which the journal
+ * they cover is dropped, so that only the snapshot and the journal since have to be loaded on startup.
+ *
+ * <p>A store can also be one of the shards of a {@link ShardedAccountStore}, which then reserves the amounts
+ * of transfers to other shards on their source accounts, and applies them through the source's shard. Without
+ * a journal, it can take either side of a transfer with an account kept elsewhere, as a {@link LocalLedger}.
+ * Either way, a condition on the version of an account with an amount reserved on it is rejected until the
+ * transfer it was reserved for is settled, as that transfer moves the version on without checking it again.
  */
 @ThreadSafe
-public class AccountStore {
+public class AccountStore implements LocalLedger {
 
-    private final Map<UniqueId<Account>, Account> accounts = new HashMap<>();
-    private final Map<UniqueId<Transaction>, Transaction> transactions = new HashMap<>();
+    private static final Logger log = LoggerFactory.getLogger(AccountStore.class);
 
-    public synchronized Account createAccount(AccountMetadata metadata) {
-        UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
-        Preconditions.checkState(!accounts.containsKey(accountId),
-                                 "Oh noes, UUIDs just clashed! Lucky you! Try again later!");
-        Account account = Account.builder()
-                                 .id(accountId)
-                                 .metadata(metadata)
-                                 .build();
-        accounts.put(accountId, account);
-        return account;
+    private static final int OPTIMISTIC_READ_ATTEMPTS = 3;
+
+    private final AccountTable accounts;
+    private final UuidMap<Transaction> transactions = new UuidMap<>();
+    private final StampedLock[] locks;
+    // Amounts reserved by transfers to other shards, by source account, only changed under its stripe
+    private final Map<UniqueId<Account>, Long> holds = new ConcurrentHashMap<>();
+    private final TransferSequencer sequencer;
+    private final MinorUnits units;
+    private final IdGenerator ids;
+    private final StoreMetrics metrics;
+    private final Journal journal;
+    // Both null without a journal
+    private final SnapshotFiles snapshots;
+    private final Long snapshotIntervalMillis;
+
+    private ScheduledExecutorService snapshotter;
+
+    public AccountStore() {
+        this(new StoreConfiguration());
+    }
+
+    public AccountStore(StoreConfiguration configuration) {
+        this(configuration, new MetricRegistry());
+    }
+
+    public AccountStore(StoreConfiguration configuration, MetricRegistry registry) {
+        this(configuration, store -> new StoreMetrics(registry, store.accounts::size, store.transactions::size));
+    }
+
+    /**
+     * Creates a store that records into the metrics the function returns for it, which shards share.
+     */
+    AccountStore(StoreConfiguration configuration, Function<AccountStore, StoreMetrics> metricsOf) {
+        int lockStripes = configuration.getLockStripes();
+        Preconditions.checkArgument(lockStripes > 0, "lockStripes must be positive: %s", lockStripes);
+        this.locks = new StampedLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            locks[i] = new StampedLock();
+        }
+        this.accounts = configuration.getAccountStorage() == StoreConfiguration.AccountStorage.OFF_HEAP
+                ? new OffHeapAccountTable(configuration.getOffHeapAccounts())
+                : new HeapAccountTable();
+        this.metrics = metricsOf.apply(this);
+        this.sequencer = configuration.getEngine() == StoreConfiguration.Engine.SEQUENCED
+                ? new TransferSequencer(configuration.getRingBufferSize(), this::lockAndApplyTransaction,
+                                        metrics::queueWait)
+                : null;
+        this.units = new MinorUnits(configuration.getBalanceScale());
+        this.ids = IdGenerator.create(configuration);
+        JournalConfiguration journalConfiguration = configuration.getJournal();
+        if (journalConfiguration == null) {
+            this.journal = NoJournal.INSTANCE;
+            this.snapshots = null;
+            this.snapshotIntervalMillis = null;
+        } else {
+            this.journal = new FileJournal(journalConfiguration);
+            this.snapshots = new SnapshotFiles(Paths.get(journalConfiguration.getDirectory()));
+            this.snapshotIntervalMillis = journalConfiguration.getSnapshotInterval().toMilliseconds();
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        long snapshotSequence = snapshots == null ? 0 : snapshots.load(new SnapshotLoader());
+        journal.open(snapshotSequence, new Replayer());
+        if (sequencer != null) {
+            sequencer.start();
+        }
+
+        if (snapshots != null) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "transferoo-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshotInBackground,
+                                               snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException, IOException {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (sequencer != null) {
+            sequencer.stop();
+        }
+        journal.close();
     }
 
-    public synchronized Optional<Account> getAccountById(UniqueId<Account> accountId) {
-        return Optional.ofNullable(accounts.get(accountId));
+    @Override
+    public Account createAccount(AccountMetadata metadata) {
+        return createAccount(UniqueId.of(ids.next()), metadata);
     }
 
-    public synchronized Transaction createTransaction(TransactionMetadata metadata) {
+    @Override
+    public Account createAccount(UniqueId<Account> accountId, AccountMetadata metadata) {
+        BigDecimal balance = metadata.balance();
+        long balanceUnits = toUnits(balance);
 
+        // Journal the account before anyone can transfer to it, under the stripe so snapshots can wait for it
+        StampedLock lock = locks[stripe(accountId)];
+        long waitStart = System.nanoTime();
+        long stamp = lock.writeLock();
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        AccountRecord account;
+        try {
+            long sequence = journal.appendAccount(accountId, balanceUnits, balance.scale());
+            account = accounts.create(accountId, balanceUnits, balance.scale(), sequence);
+            Preconditions.checkState(account != null,
+                                     "Oh noes, UUIDs just clashed! Lucky you! Try again later!");
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            lock.unlockWrite(stamp);
+        }
+        journal.commit();
+        return toAccount(accountId, account.balance(), account.scale(), account.version());
+    }
+
+    @Override
+    public Optional<Account> getAccountById(UniqueId<Account> accountId) {
+        AccountRecord account = accounts.get(accountId);
+        if (account == null) {
+            return Optional.empty();
+        }
+
+        StampedLock lock = locks[stripe(accountId)];
+        long stamp = lock.tryOptimisticRead();
+        long balance = account.balance();
+        int scale = account.scale();
+        long version = account.version();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = account.balance();
+                scale = account.scale();
+                version = account.version();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return Optional.of(toAccount(accountId, balance, scale, version));
+    }
+
+    @Override
+    public Map<UniqueId<Account>, Account> getAccountsById(Collection<UniqueId<Account>> accountIds) {
+        List<AccountRecord> records = new ArrayList<>(accountIds.size());
+        for (UniqueId<Account> accountId : accountIds) {
+            AccountRecord account = accounts.get(accountId);
+            if (account != null) {
+                records.add(account);
+            }
+        }
+        StampedLock[] recordLocks = records.stream()
+                                           .mapToInt(account -> stripe(account.id()))
+                                           .distinct()
+                                           .sorted()
+                                           .mapToObj(stripe -> locks[stripe])
+                                           .toArray(StampedLock[]::new);
+        return readAccounts(records, recordLocks);
+    }
+
+    /**
+     * Reads the records consistently, under the given locks, which must guard all of them and be in locking
+     * order. They may be the stripes of several shards, which all render balances the same way.
+     */
+    Map<UniqueId<Account>, Account> readAccounts(List<AccountRecord> records, StampedLock[] recordLocks) {
+        long[] stamps = new long[recordLocks.length];
+        long[] balances = new long[records.size()];
+        int[] scales = new int[records.size()];
+        long[] versions = new long[records.size()];
+
+        for (int attempt = 0; attempt < OPTIMISTIC_READ_ATTEMPTS; attempt++) {
+            for (int i = 0; i < recordLocks.length; i++) {
+                stamps[i] = recordLocks[i].tryOptimisticRead();
+            }
+            readBalances(records, balances, scales, versions);
+            if (validate(recordLocks, stamps)) {
+                return toAccounts(records, balances, scales, versions);
+            }
+        }
+
+        // Writers keep getting in the way, so hold them off; locking order keeps this deadlock free
+        for (int i = 0; i < recordLocks.length; i++) {
+            stamps[i] = recordLocks[i].readLock();
+        }
+        try {
+            readBalances(records, balances, scales, versions);
+        } finally {
+            for (int i = recordLocks.length - 1; i >= 0; i--) {
+                recordLocks[i].unlockRead(stamps[i]);
+            }
+        }
+        return toAccounts(records, balances, scales, versions);
+    }
+
+    @Override
+    public Transaction createTransaction(TransactionMetadata metadata) {
+        Transaction transaction;
+        try {
+            validateTransaction(metadata);
+            checkVersionsWithoutLocking(metadata);
+            if (sequencer == null) {
+                transaction = lockAndApplyTransaction(metadata);
+            } else {
+                transaction = awaitSequenced(metadata);
+            }
+        } catch (WebApplicationException e) {
+            metrics.rejected(e);
+            throw e;
+        }
+        // Wait for durability outside of the locks, so that concurrent transfers can share a flush
+        journal.commit();
+        return transaction;
+    }
+
+    /**
+     * Takes the stripes of every account involved once, and waits for durability once.
+     */
+    @Override
+    public List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        try {
+            return applyBatch(batch, mode);
+        } catch (WebApplicationException e) {
+            // Only atomic batches throw; the failures of best effort ones are counted as they happen
+            metrics.rejected(e);
+            throw e;
+        }
+    }
+
+    private List<TransactionResult> applyBatch(List<TransactionMetadata> batch, BatchMode mode) {
+        boolean atomic = mode == BatchMode.ATOMIC;
+        TransactionResult[] results = new TransactionResult[batch.size()];
+        boolean[] involved = new boolean[locks.length];
+        for (int i = 0; i < batch.size(); i++) {
+            TransactionMetadata metadata = batch.get(i);
+            try {
+                validateTransaction(metadata);
+                involved[stripe(metadata.source())] = true;
+                involved[stripe(metadata.destination())] = true;
+            } catch (WebApplicationException e) {
+                if (atomic) {
+                    throw e;
+                }
+                results[i] = failed(e);
+            }
+        }
+
+        // Walking the flags yields the stripes in order, which keeps this deadlock free
+        int[] stripes = IntStream.range(0, locks.length)
+                                 .filter(stripe -> involved[stripe])
+                                 .toArray();
+        long[] stamps = new long[stripes.length];
+        long waitStart = System.nanoTime();
+        for (int i = 0; i < stripes.length; i++) {
+            stamps[i] = locks[stripes[i]].writeLock();
+        }
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        List<TransactionResult> applied;
+        try {
+            if (atomic) {
+                checkBatch(batch, accountId -> this);
+                applied = applyCheckedBatch(batch);
+            } else {
+                for (int i = 0; i < results.length; i++) {
+                    if (results[i] == null) {
+                        results[i] = applyBatched(batch.get(i));
+                    }
+                }
+                applied = Arrays.asList(results);
+            }
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                locks[stripes[i]].unlockWrite(stamps[i]);
+            }
+        }
+        journal.commit();
+        return applied;
+    }
+
+    @Override
+    public Optional<Transaction> getTransactionById(UniqueId<Transaction> transactionId) {
+        return Optional.ofNullable(transactions.get(transactionId));
+    }
+
+    @Override
+    public Optional<TransactionPage> getTransactionsByAccountId(UniqueId<Account> accountId, long after, int limit) {
+        AccountRecord account = accounts.get(accountId);
+        if (account == null) {
+            return Optional.empty();
+        }
+
+        TransactionHistory history = account.history();
+        int size = history.size();
+        int from = (int) Math.min(after, size);
+        int to = (int) Math.min(size, (long) from + limit);
+        return Optional.of(TransactionPage.builder()
+                                          .transactions(history.get(from, to))
+                                          .next(to)
+                                          .build());
+    }
+
+    @Override
+    public Optional<AccountStatement> getStatement(UniqueId<Account> accountId) {
+        return Optional.ofNullable(accounts.get(accountId))
+                       .map(this::statementOf);
+    }
+
+    private AccountStatement statementOf(AccountRecord account) {
+        UniqueId<Account> accountId = account.id();
+        StampedLock lock = locks[stripe(accountId)];
+        long stamp = lock.tryOptimisticRead();
+        long balance = account.balance();
+        int scale = account.scale();
+        int size = account.history().size();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = account.balance();
+                scale = account.scale();
+                size = account.history().size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return new AccountStatement(toAccount(accountId, balance, scale, size), account.history(), size);
+    }
+
+    @Override
+    public Transaction reserve(TransactionMetadata metadata) {
+        checkNotJournaled();
+        try {
+            validateTransfer(metadata);
+            hold(metadata);
+        } catch (WebApplicationException e) {
+            metrics.rejected(e);
+            throw e;
+        }
+        return Transaction.builder()
+                          .id(UniqueId.of(ids.next()))
+                          .metadata(metadata)
+                          .build();
+    }
+
+    @Override
+    public void release(Transaction transaction) {
+        TransactionMetadata metadata = transaction.metadata();
+        AccountRecord source = getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        long amount = toUnits(metadata.amount());
+        underStripe(source.id(), () -> releaseHold(source, amount));
+    }
+
+    @Override
+    public Transaction debit(Transaction transaction) {
+        TransactionMetadata metadata = transaction.metadata();
+        AccountRecord source = getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        long amount = toUnits(metadata.amount());
+        Supplier<Transaction> apply = () -> {
+            // The amount was held, so the balance is known to cover it
+            releaseHold(source, amount);
+            Transaction debited = unconditional(transaction);
+            source.setBalance(source.balance() - amount, metadata.amount().scale(), source.sequence());
+            source.appendHistory(debited);
+            // Already there if the destination came to be kept here while the transfer was in flight
+            Transaction credited = transactions.putIfAbsent(debited.id(), debited);
+            Preconditions.checkState(credited == null || credited.equals(debited),
+                                     "Oh noes, UUIDs just clashed! Lucky you! Try again later!");
+            return debited;
+        };
+        Transaction debited = underStripe(source.id(), apply);
+        metrics.transferred();
+        return debited;
+    }
+
+    @Override
+    public Transaction credit(Transaction transaction) {
+        checkNotJournaled();
+        try {
+            AccountRecord destination = getAccountRecordStrict(transaction.metadata().destination(),
+                                                               TransactionAccountType.DESTINATION);
+            long amount = toUnits(transaction.metadata().amount());
+            return underStripe(destination.id(), () -> applyCredit(transaction, destination, amount));
+        } catch (WebApplicationException e) {
+            metrics.rejected(e);
+            throw e;
+        }
+    }
+
+    private Transaction applyCredit(Transaction transaction, AccountRecord destination, long amount) {
+        // Looked up under the destination's stripe, so that a retry cannot race the attempt it repeats
+        Transaction credited = transactions.get(transaction.id());
+        if (credited != null) {
+            return credited;
+        }
+
+        TransactionMetadata metadata = transaction.metadata();
+        checkVersion(metadata.expectedDestinationVersion(), destination, destination.version(),
+                     TransactionAccountType.DESTINATION);
+        long destinationBalance;
+        try {
+            destinationBalance = Math.addExact(destination.balance(), amount);
+        } catch (ArithmeticException e) {
+            throw ErrorCode.balanceOutOfRangeException(destination.id());
+        }
+
+        credited = unconditional(transaction);
+        destination.setBalance(destinationBalance, metadata.amount().scale(), destination.sequence());
+        destination.appendHistory(credited);
+        putTransaction(credited);
+        return credited;
+    }
+
+    @Override
+    public List<AccountStatement> getStatements(Predicate<UniqueId<Account>> accountIds) {
+        List<AccountStatement> statements = new ArrayList<>();
+        for (AccountRecord account : accounts.records()) {
+            if (accountIds.test(account.id())) {
+                statements.add(statementOf(account));
+            }
+        }
+        return statements;
+    }
+
+    @Override
+    public void restoreAccount(Account account, List<Transaction> history) {
+        checkNotJournaled();
+        Preconditions.checkArgument(account.version() == history.size(),
+                                    "History does not match the version of account: %s", account.id());
+        BigDecimal balance = account.metadata().balance();
+        long balanceUnits = toUnits(balance);
+        Supplier<AccountRecord> restore = () -> {
+            AccountRecord record = accounts.create(account.id(), balanceUnits, balance.scale(), 0L);
+            Preconditions.checkState(record != null, "Account exists already: %s", account.id());
+            for (Transaction transaction : history) {
+                // A transfer with another account kept here is recorded already
+                Transaction existing = transactions.putIfAbsent(transaction.id(), transaction);
+                record.appendHistory(existing == null ? transaction : existing);
+            }
+            return record;
+        };
+        underStripe(account.id(), restore);
+    }
+
+    private void validateTransaction(TransactionMetadata metadata) {
+        validateTransfer(metadata);
+
+        // Accounts are never removed, so it is safe to check for their existence before locking
+        getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        getAccountRecordStrict(metadata.destination(), TransactionAccountType.DESTINATION);
+    }
+
+    /**
+     * Checks what can be checked of a transfer without looking at its accounts.
+     */
+    void validateTransfer(TransactionMetadata metadata) {
         if (sourceAccountIsSameAsDestination(metadata)) {
             throw ErrorCode.sourceSameAsDestinationException(metadata);
         }
@@ -76,28 +562,374 @@ public class AccountStore {
             throw ErrorCode.transactionAmountNonPositiveException(metadata);
         }
 
-        Account source = getAccountByIdStrict(metadata.source(), TransactionAccountType.SOURCE);
-        Account destination = getAccountByIdStrict(metadata.destination(), TransactionAccountType.DESTINATION);
+        // Throws if the amount cannot be represented at our scale
+        toUnits(metadata.amount());
+    }
+
+    /**
+     * Rejects a conditional transfer that already conflicts, without taking any lock. Versions are read from a
+     * volatile and only ever grow, so a mismatch seen here held at some point during the call; a match is
+     * checked again under the stripes, as the account may move on before they are taken.
+     *
+     * <p>That check under the stripes is the compare-and-set: there is deliberately no lock-free apply. A
+     * transfer changes the balance, version and history of two accounts, which no single CAS covers, and readers
+     * validate what they read against the stripes, which a CAS that bypassed them would tear.
+     */
+    private void checkVersionsWithoutLocking(TransactionMetadata metadata) {
+        if (metadata.expectedSourceVersion() != null) {
+            AccountRecord source = accounts.get(metadata.source());
+            checkVersion(metadata.expectedSourceVersion(), source, source.version(), TransactionAccountType.SOURCE);
+        }
+        if (metadata.expectedDestinationVersion() != null) {
+            AccountRecord destination = accounts.get(metadata.destination());
+            checkVersion(metadata.expectedDestinationVersion(), destination, destination.version(),
+                         TransactionAccountType.DESTINATION);
+        }
+    }
+
+    private void checkVersion(@Nullable Long expectedVersion,
+                              AccountRecord account,
+                              long version,
+                              TransactionAccountType type) {
+        if (expectedVersion == null) {
+            return;
+        }
+        if (expectedVersion != version) {
+            throw ErrorCode.accountVersionConflictException(account.id(), type, expectedVersion, version);
+        }
+        if (holds.containsKey(account.id())) {
+            throw ErrorCode.accountVersionPendingException(account.id(), type, expectedVersion);
+        }
+    }
+
+    /**
+     * Checks that a batch can be applied in full, by running it against scratch changes of the balances. Must be
+     * called under the stripes of every account in the batch, which must all exist in the shards the function
+     * finds them in.
+     */
+    void checkBatch(List<TransactionMetadata> batch, Function<UniqueId<Account>, AccountStore> shards) {
+        Map<UniqueId<Account>, Long> changes = new HashMap<>();
+        Map<UniqueId<Account>, Long> versions = new HashMap<>();
+        for (TransactionMetadata metadata : batch) {
+            AccountStore sourceShard = shards.apply(metadata.source());
+            AccountStore destinationShard = shards.apply(metadata.destination());
+            AccountRecord source = sourceShard.accounts.get(metadata.source());
+            AccountRecord destination = destinationShard.accounts.get(metadata.destination());
+            long amount = toUnits(metadata.amount());
+
+            // Earlier transfers of the batch move the versions on, so later ones can expect that
+            long sourceVersion = versions.getOrDefault(source.id(), source.version());
+            long destinationVersion = versions.getOrDefault(destination.id(), destination.version());
+            sourceShard.checkVersion(metadata.expectedSourceVersion(), source, sourceVersion,
+                                     TransactionAccountType.SOURCE);
+            destinationShard.checkVersion(metadata.expectedDestinationVersion(), destination, destinationVersion,
+                                          TransactionAccountType.DESTINATION);
 
-        if (!hasEnoughBalance(metadata, source)) {
-            throw ErrorCode.insufficientBalanceException(metadata, source);
+            long sourceChange = changes.getOrDefault(source.id(), 0L);
+            if (amount > sourceShard.available(source) + sourceChange) {
+                throw ErrorCode.insufficientBalanceException(
+                        metadata, units.toDecimal(source.balance() + sourceChange, source.scale()));
+            }
+            long destinationChange = changes.getOrDefault(destination.id(), 0L) + amount;
+            try {
+                Math.addExact(destination.balance(), destinationChange);
+            } catch (ArithmeticException e) {
+                throw ErrorCode.balanceOutOfRangeException(destination.id());
+            }
+            changes.put(source.id(), sourceChange - amount);
+            changes.put(destination.id(), destinationChange);
+            versions.put(source.id(), sourceVersion + 1);
+            versions.put(destination.id(), destinationVersion + 1);
         }
+    }
+
+    private TransactionResult applyBatched(TransactionMetadata metadata) {
+        try {
+            return TransactionResult.succeeded(applyTransaction(metadata));
+        } catch (WebApplicationException e) {
+            // Nothing has been changed yet when a transfer is rejected
+            return failed(e);
+        }
+    }
+
+    private TransactionResult failed(WebApplicationException exception) {
+        TransferooError error = (TransferooError) exception.getResponse().getEntity();
+        metrics.rejected(error);
+        return TransactionResult.failed(error);
+    }
+
+    private Transaction awaitSequenced(TransactionMetadata metadata) {
+        try {
+            return sequencer.publish(metadata).join();
+        } catch (CompletionException e) {
+            // Rethrow validation failures as they are, as if they happened on this thread
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private Transaction lockAndApplyTransaction(TransactionMetadata metadata) {
+        // Always lock in stripe order, and only once if both accounts share a stripe
+        int sourceStripe = stripe(metadata.source());
+        int destinationStripe = stripe(metadata.destination());
+        int first = Math.min(sourceStripe, destinationStripe);
+        int second = Math.max(sourceStripe, destinationStripe);
+
+        long waitStart = System.nanoTime();
+        long firstStamp = locks[first].writeLock();
+        long secondStamp = first == second ? 0L : locks[second].writeLock();
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        try {
+            return applyTransaction(metadata);
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            if (first != second) {
+                locks[second].unlockWrite(secondStamp);
+            }
+            locks[first].unlockWrite(firstStamp);
+        }
+    }
+
+    /**
+     * Holds the amount of a transfer to another ledger on its source account, which must be in this
+     * store, so that transfers applied here in the meantime cannot spend it. Checks the source's side of the
+     * transfer, and returns the amount held.
+     */
+    long hold(TransactionMetadata metadata) {
+        AccountRecord source = getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        long amount = toUnits(metadata.amount());
+        StampedLock lock = locks[stripe(source.id())];
+        long waitStart = System.nanoTime();
+        long stamp = lock.writeLock();
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        try {
+            checkVersion(metadata.expectedSourceVersion(), source, source.version(), TransactionAccountType.SOURCE);
+            if (!hasEnoughBalance(amount, source)) {
+                throw ErrorCode.insufficientBalanceException(metadata, toBalance(source));
+            }
+            holds.merge(source.id(), amount, Long::sum);
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            lock.unlockWrite(stamp);
+        }
+        return amount;
+    }
+
+    private Transaction applyTransaction(TransactionMetadata metadata) {
+        return applyTransaction(metadata, this);
+    }
 
-        Transaction transaction = putTransaction(metadata);
+    /**
+     * Applies a transfer from an account of this store to an account of this store or of another shard. Must be
+     * called under the stripes of both accounts.
+     */
+    Transaction applyTransaction(TransactionMetadata metadata, AccountStore destinationShard) {
+        AccountRecord source = getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        AccountRecord destination = destinationShard.getAccountRecordStrict(metadata.destination(),
+                                                                            TransactionAccountType.DESTINATION);
+        long amount = toUnits(metadata.amount());
 
-        BigDecimal amount = metadata.amount();
-        modifyBalance(source, (balance) -> balance.subtract(amount, MathContext.UNLIMITED));
-        modifyBalance(destination, (balance) -> balance.add(amount, MathContext.UNLIMITED));
+        checkVersion(metadata.expectedSourceVersion(), source, source.version(), TransactionAccountType.SOURCE);
+        destinationShard.checkVersion(metadata.expectedDestinationVersion(), destination, destination.version(),
+                                      TransactionAccountType.DESTINATION);
 
+        if (!hasEnoughBalance(amount, source)) {
+            throw ErrorCode.insufficientBalanceException(metadata, toBalance(source));
+        }
+
+        try {
+            Math.addExact(destination.balance(), amount);
+        } catch (ArithmeticException e) {
+            throw ErrorCode.balanceOutOfRangeException(destination.id());
+        }
+
+        int amountScale = metadata.amount().scale();
+        Transaction transaction = newTransaction(metadata);
+        long sequence = journal.appendTransfer(transaction.id(), source.id(), destination.id(), amount, amountScale);
+        applyTransfer(transaction, source, destination, amount, sequence);
         return transaction;
     }
 
-    public synchronized Optional<Transaction> getTransactionById(UniqueId<Transaction> transactionId) {
-        return Optional.ofNullable(transactions.get(transactionId));
+    /**
+     * Applies an atomic batch that {@link #checkBatch} has found can be applied in full, so nothing is checked
+     * again, and journals it as one record. Must be called under the stripes of every account in the batch.
+     */
+    private List<TransactionResult> applyCheckedBatch(List<TransactionMetadata> batch) {
+        List<Transaction> batchTransactions = new ArrayList<>(batch.size());
+        List<Journal.Transfer> transfers = new ArrayList<>(batch.size());
+        for (TransactionMetadata metadata : batch) {
+            Transaction transaction = newTransaction(metadata);
+            batchTransactions.add(transaction);
+            transfers.add(new Journal.Transfer(transaction.id(), metadata.source(), metadata.destination(),
+                                               toUnits(metadata.amount()), metadata.amount().scale()));
+        }
+        long sequence = journal.appendTransfers(transfers);
+
+        List<TransactionResult> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < transfers.size(); i++) {
+            Journal.Transfer transfer = transfers.get(i);
+            applyTransfer(batchTransactions.get(i), accounts.get(transfer.source()),
+                          accounts.get(transfer.destination()), transfer.amount(), sequence + i);
+            results.add(TransactionResult.succeeded(batchTransactions.get(i)));
+        }
+        return results;
+    }
+
+    private Transaction newTransaction(TransactionMetadata metadata) {
+        return Transaction.builder()
+                          .id(UniqueId.of(ids.next()))
+                          .metadata(metadata.unconditional())
+                          .build();
+    }
+
+    private void applyTransfer(Transaction transaction,
+                               AccountRecord source,
+                               AccountRecord destination,
+                               long amount,
+                               long sequence) {
+        int amountScale = transaction.metadata().amount().scale();
+        source.setBalance(source.balance() - amount, amountScale, sequence);
+        destination.setBalance(destination.balance() + amount, amountScale, sequence);
+        source.appendHistory(transaction);
+        destination.appendHistory(transaction);
+
+        // Only publish the transaction once its effects are visible
+        putTransaction(transaction);
+        metrics.transferred();
+    }
+
+    /**
+     * Writes a snapshot of the store and drops the journal it covers. Transfers carry on while the snapshot is
+     * taken, so it is fuzzy: it holds every change up to the journal position it is taken at, plus some of
+     * the changes after it, and each account remembers the last change it holds so that replaying the journal
+     * skips those. Those later changes are made durable in the journal before the snapshot is, so that the
+     * journal can still replay whatever the snapshot missed of them, such as the other side of a transfer.
+     */
+    void snapshot() throws IOException {
+        long sequence = journal.sequence();
+        // Changes journaled up to there are applied under their stripes, so wait for any still in flight
+        for (StampedLock lock : locks) {
+            lock.unlockRead(lock.readLock());
+        }
+
+        try (SnapshotFiles.Writer writer = snapshots.begin(sequence)) {
+            for (AccountRecord account : accounts.records()) {
+                writeAccount(writer, account);
+            }
+            for (Transaction transaction : transactions.values()) {
+                TransactionMetadata metadata = transaction.metadata();
+                writer.transaction(transaction.id(), metadata.source(), metadata.destination(),
+                                   toUnits(metadata.amount()), metadata.amount().scale());
+            }
+            // Every change the snapshot holds was journaled by now
+            journal.flush(journal.sequence());
+            writer.commit();
+        }
+        journal.truncate(sequence);
     }
 
-    private Account getAccountByIdStrict(UniqueId<Account> accountId, TransactionAccountType accountType) {
-        return getAccountById(accountId).orElseThrow(ErrorCode.unknownAccountId(accountId, accountType));
+    private void snapshotInBackground() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Failed to take a snapshot", e);
+        }
+    }
+
+    private void writeAccount(SnapshotFiles.Writer writer, AccountRecord account) throws IOException {
+        StampedLock lock = locks[stripe(account.id())];
+        long stamp = lock.tryOptimisticRead();
+        long balance = account.balance();
+        int scale = account.scale();
+        long sequence = account.sequence();
+        int historySize = account.history().size();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                balance = account.balance();
+                scale = account.scale();
+                sequence = account.sequence();
+                historySize = account.history().size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        writer.account(account.id(), balance, scale, sequence, account.history().get(0, historySize));
+    }
+
+    private static void readBalances(List<AccountRecord> records, long[] balances, int[] scales, long[] versions) {
+        for (int i = 0; i < balances.length; i++) {
+            balances[i] = records.get(i).balance();
+            scales[i] = records.get(i).scale();
+            versions[i] = records.get(i).version();
+        }
+    }
+
+    private Map<UniqueId<Account>, Account> toAccounts(List<AccountRecord> records,
+                                                       long[] balances,
+                                                       int[] scales,
+                                                       long[] versions) {
+        Map<UniqueId<Account>, Account> snapshot = new HashMap<>();
+        for (int i = 0; i < balances.length; i++) {
+            UniqueId<Account> accountId = records.get(i).id();
+            snapshot.put(accountId, toAccount(accountId, balances[i], scales[i], versions[i]));
+        }
+        return snapshot;
+    }
+
+    private Account toAccount(UniqueId<Account> accountId, long balance, int scale, long version) {
+        return Account.builder()
+                      .id(accountId)
+                      .metadata(AccountMetadata.builder()
+                                               .balance(units.toDecimal(balance, scale))
+                                               .build())
+                      .version(version)
+                      .build();
+    }
+
+    private BigDecimal toBalance(AccountRecord account) {
+        return units.toDecimal(account.balance(), account.scale());
+    }
+
+    private long toUnits(BigDecimal amount) {
+        try {
+            return units.toUnits(amount);
+        } catch (ArithmeticException e) {
+            throw ErrorCode.amountOutOfRangeException(amount, units.scale());
+        }
+    }
+
+    private static boolean validate(StampedLock[] recordLocks, long[] stamps) {
+        for (int i = 0; i < recordLocks.length; i++) {
+            if (!recordLocks[i].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int stripe(UniqueId<Account> accountId) {
+        // Spread the bits, as UUID.hashCode() is just a xor of its halves
+        int hash = accountId.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % locks.length;
+    }
+
+    StampedLock stripeLock(int stripe) {
+        return locks[stripe];
+    }
+
+    AccountRecord getAccountRecord(UniqueId<Account> accountId) {
+        return accounts.get(accountId);
+    }
+
+    AccountRecord getAccountRecordStrict(UniqueId<Account> accountId, TransactionAccountType accountType) {
+        return Optional.ofNullable(accounts.get(accountId))
+                       .orElseThrow(ErrorCode.unknownAccountId(accountId, accountType));
     }
 
     private boolean sourceAccountIsSameAsDestination(TransactionMetadata metadata) {
@@ -108,28 +940,148 @@ public class AccountStore {
         return metadata.amount().compareTo(BigDecimal.ZERO) <= 0;
     }
 
-    private boolean hasEnoughBalance(TransactionMetadata metadata, Account source) {
-        return metadata.amount().compareTo(source.metadata().balance()) <= 0;
+    private boolean hasEnoughBalance(long amount, AccountRecord source) {
+        return amount <= available(source);
+    }
+
+    private long available(AccountRecord account) {
+        // Only shards ever hold anything, so skip the lookup otherwise
+        return holds.isEmpty() ? account.balance() : account.balance() - holds.getOrDefault(account.id(), 0L);
     }
 
-    private Transaction putTransaction(TransactionMetadata metadata) {
-        UniqueId<Transaction> transactionId = UniqueId.of(UUID.randomUUID());
-        Preconditions.checkState(!transactions.containsKey(transactionId),
+    /**
+     * Returns what is still held on the account afterwards, if anything.
+     */
+    private Long releaseHold(AccountRecord source, long amount) {
+        return holds.computeIfPresent(source.id(), (accountId, held) -> held == amount ? null : held - amount);
+    }
+
+    int accountCount() {
+        return accounts.size();
+    }
+
+    int transactionCount() {
+        return transactions.size();
+    }
+
+    private <T> T underStripe(UniqueId<Account> accountId, Supplier<T> action) {
+        StampedLock lock = locks[stripe(accountId)];
+        long waitStart = System.nanoTime();
+        long stamp = lock.writeLock();
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        try {
+            return action.get();
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void checkNotJournaled() {
+        Preconditions.checkState(journal == NoJournal.INSTANCE,
+                                 "Transfers with accounts kept elsewhere cannot be journaled");
+    }
+
+    private static Transaction unconditional(Transaction transaction) {
+        TransactionMetadata metadata = transaction.metadata().unconditional();
+        return metadata == transaction.metadata()
+                ? transaction
+                : Transaction.builder()
+                             .id(transaction.id())
+                             .metadata(metadata)
+                             .build();
+    }
+
+    private void putTransaction(Transaction transaction) {
+        Preconditions.checkState(transactions.putIfAbsent(transaction.id(), transaction) == null,
                                  "Oh noes, UUIDs just clashed! Lucky you! Try again later!");
-        Transaction transaction = Transaction.builder()
-                                             .id(transactionId)
-                                             .metadata(metadata)
-                                             .build();
-        transactions.put(transactionId, transaction);
+    }
 
-        return transaction;
+    private TransactionMetadata toMetadata(UniqueId<Account> source,
+                                           UniqueId<Account> destination,
+                                           long amount,
+                                           int amountScale) {
+        return TransactionMetadata.builder()
+                                  .source(source)
+                                  .destination(destination)
+                                  .amount(units.toDecimal(amount, amountScale))
+                                  .build();
+    }
+
+    /**
+     * Loads a snapshot in parallel, before the store is started.
+     */
+    private final class SnapshotLoader implements SnapshotFiles.Loader {
+
+        @Override
+        public void account(UniqueId<Account> accountId,
+                            long balance,
+                            int scale,
+                            long sequence,
+                            List<UniqueId<Transaction>> history) {
+            AccountRecord account = accounts.create(accountId, balance, scale, sequence);
+            Preconditions.checkState(account != null, "Snapshot has a duplicate account: %s", accountId);
+            for (UniqueId<Transaction> transactionId : history) {
+                Transaction transaction = transactions.get(transactionId);
+                Preconditions.checkState(transaction != null, "Snapshot refers to unknown transaction: %s",
+                                         transactionId);
+                account.appendHistory(transaction);
+            }
+        }
+
+        @Override
+        public void transaction(UniqueId<Transaction> transactionId,
+                                UniqueId<Account> source,
+                                UniqueId<Account> destination,
+                                long amount,
+                                int amountScale) {
+            putTransaction(Transaction.builder()
+                                      .id(transactionId)
+                                      .metadata(toMetadata(source, destination, amount, amountScale))
+                                      .build());
+        }
     }
 
-    private void modifyBalance(Account account, Function<BigDecimal, BigDecimal> modifier) {
-        Preconditions.checkState(accounts.containsKey(account.id()),
-                                 "Should've checked that %s exists, you naughty developer!",
-                                 account.id());
+    /**
+     * Rebuilds the store from the journal. Runs before the store is started, so nothing else can see the
+     * records yet, and the changes are applied as they were recorded without validating them again. Changes
+     * the snapshot already has are skipped.
+     */
+    private final class Replayer implements Journal.Replayer {
 
-        accounts.put(account.id(), account.newBalance(modifier.apply(account.metadata().balance())));
+        @Override
+        public void account(long sequence, UniqueId<Account> accountId, long balance, int scale) {
+            accounts.create(accountId, balance, scale, sequence);
+        }
+
+        @Override
+        public void transfer(long sequence,
+                             UniqueId<Transaction> transactionId,
+                             UniqueId<Account> source,
+                             UniqueId<Account> destination,
+                             long amount,
+                             int amountScale) {
+            AccountRecord sourceAccount = accounts.get(source);
+            AccountRecord destinationAccount = accounts.get(destination);
+            Preconditions.checkState(sourceAccount != null && destinationAccount != null,
+                                     "Journal refers to unknown accounts: %s -> %s", source, destination);
+            Transaction transaction = transactions.get(transactionId);
+            if (transaction == null) {
+                transaction = Transaction.builder()
+                                         .id(transactionId)
+                                         .metadata(toMetadata(source, destination, amount, amountScale))
+                                         .build();
+                putTransaction(transaction);
+            }
+            if (sequence > sourceAccount.sequence()) {
+                sourceAccount.setBalance(sourceAccount.balance() - amount, amountScale, sequence);
+                sourceAccount.appendHistory(transaction);
+            }
+            if (sequence > destinationAccount.sequence()) {
+                destinationAccount.setBalance(destinationAccount.balance() + amount, amountScale, sequence);
+                destinationAccount.appendHistory(transaction);
+            }
+        }
     }
 }
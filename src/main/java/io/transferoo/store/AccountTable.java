@@ -0,0 +1,54 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.UniqueId;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Holds the store's {@link AccountRecord}s. Accounts can be added but never removed.
+ */
+@ThreadSafe
+interface AccountTable {
+
+    /**
+     * Returns the account's record, or null if there is no such account. Does not lock.
+     */
+    AccountRecord get(UniqueId<Account> id);
+
+    /**
+     * Adds an account, unless there is one with the same id already. Returns its record, or null if it
+     * existed. Once the store has started, must be called under the write lock of the account's stripe.
+     */
+    AccountRecord create(UniqueId<Account> id, long balance, int scale, long sequence);
+
+    int size();
+
+    /**
+     * Iterates over the records, including some of those added while iterating.
+     */
+    Iterable<? extends AccountRecord> records();
+}
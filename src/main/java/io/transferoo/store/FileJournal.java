@@ -0,0 +1,523 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary {@link Journal} kept in a directory of segment files, each named after the sequence number of its
+ * first record.
+ *
+ * <p>Appenders serialise records into an in-memory buffer. Whoever flushes swaps that buffer for an empty
+ * one, then writes and fsyncs it without holding up appenders; anyone committing in the meantime waits for
+ * that flush and, if their records missed it, takes care of the next one, so concurrent commits share
+ * fsyncs. Each record carries a checksum, and a torn record at the end of the journal is truncated away on
+ * startup. The transfers of an atomic batch share a record, which numbers them from its own sequence number
+ * on, so that a batch is never replayed in part.
+ */
+@ThreadSafe
+final class FileJournal implements Journal {
+
+    private static final Logger log = LoggerFactory.getLogger(FileJournal.class);
+
+    private static final int MAGIC = 0x54524a4c;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    // Length and checksum of the rest of the record, then its sequence number and type
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 1;
+    private static final int CHECKSUMMED_HEADER_SIZE = 8 + 1;
+    private static final int ACCOUNT_SIZE = 16 + 8 + 4;
+    private static final int TRANSFER_SIZE = 3 * 16 + 8 + 4;
+    private static final byte ACCOUNT = 1;
+    private static final byte TRANSFER = 2;
+    private static final byte BATCH = 3;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final JournalConfiguration.Durability durability;
+    private final long segmentSize;
+    private final long flushIntervalMillis;
+
+    private final Lock appendLock = new ReentrantLock();
+    @GuardedBy("appendLock")
+    private final CRC32 checksum = new CRC32();
+    @GuardedBy("appendLock")
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private volatile long appendedSequence;
+
+    private final Lock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+    @GuardedBy("flushLock")
+    private boolean flushing;
+    private volatile long durableSequence;
+    private volatile IOException failure;
+
+    // Only touched by whoever is flushing
+    private ByteBuffer spare = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private FileChannel segment;
+
+    private ScheduledExecutorService flusher;
+
+    FileJournal(JournalConfiguration configuration) {
+        this.directory = Paths.get(configuration.getDirectory());
+        this.durability = configuration.getDurability();
+        this.segmentSize = configuration.getSegmentSize().toBytes();
+        this.flushIntervalMillis = configuration.getFlushInterval().toMilliseconds();
+        Preconditions.checkArgument(segmentSize > SEGMENT_HEADER_SIZE && segmentSize <= Integer.MAX_VALUE,
+                                    "Invalid journal segment size: %s", configuration.getSegmentSize());
+    }
+
+    @Override
+    public void open(long afterSequence, Replayer replayer) throws IOException {
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments();
+        long sequence = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            sequence = replay(segments.get(i), sequence, afterSequence, replayer, i == segments.size() - 1);
+        }
+        log.info("Replayed journal in {} up to record {} from {} segments", directory, sequence, segments.size());
+
+        if (sequence < afterSequence) {
+            // The end of the journal was lost, but the snapshot has everything the journal still has. Carry on
+            // numbering from the snapshot, in a segment of its own, so that the records still follow each other
+            log.warn("Journal in {} ends at record {}, behind the snapshot at {}; starting a new segment",
+                     directory, sequence, afterSequence);
+            for (Path covered : segments) {
+                Files.delete(covered);
+            }
+            sequence = afterSequence;
+            segments.clear();
+        }
+        appendedSequence = sequence;
+        durableSequence = sequence;
+
+        if (segments.isEmpty()) {
+            segment = createSegment(sequence + 1);
+        } else {
+            segment = FileChannel.open(segments.get(segments.size() - 1), StandardOpenOption.WRITE);
+            segment.position(segment.size());
+        }
+
+        if (durability == JournalConfiguration.Durability.ASYNC) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "transferoo-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushInBackground,
+                                           flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public long appendAccount(UniqueId<Account> accountId, long balance, int scale) {
+        appendLock.lock();
+        try {
+            int start = beginRecord(ACCOUNT, ACCOUNT_SIZE);
+            putId(accountId);
+            pending.putLong(balance);
+            pending.putInt(scale);
+            return endRecord(start);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfer(UniqueId<Transaction> transactionId,
+                               UniqueId<Account> source,
+                               UniqueId<Account> destination,
+                               long amount,
+                               int amountScale) {
+        appendLock.lock();
+        try {
+            int start = beginRecord(TRANSFER, TRANSFER_SIZE);
+            putId(transactionId);
+            putId(source);
+            putId(destination);
+            pending.putLong(amount);
+            pending.putInt(amountScale);
+            return endRecord(start);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public long appendTransfers(List<Transfer> transfers) {
+        Preconditions.checkArgument(!transfers.isEmpty(), "Empty batch");
+        appendLock.lock();
+        try {
+            int start = beginRecord(BATCH, 4 + transfers.size() * TRANSFER_SIZE);
+            pending.putInt(transfers.size());
+            for (Transfer transfer : transfers) {
+                putId(transfer.transactionId());
+                putId(transfer.source());
+                putId(transfer.destination());
+                pending.putLong(transfer.amount());
+                pending.putInt(transfer.amountScale());
+            }
+            return endRecord(start, transfers.size()) - transfers.size() + 1;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void commit() {
+        if (durability == JournalConfiguration.Durability.GROUP) {
+            flush(appendedSequence);
+        }
+    }
+
+    @Override
+    public long sequence() {
+        return appendedSequence;
+    }
+
+    @Override
+    public void truncate(long sequence) throws IOException {
+        List<Path> segments = segments();
+        // Never drop the last segment, as that is the one being written to
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (firstSequence(segments.get(i + 1)) > sequence + 1) {
+                break;
+            }
+            Files.delete(segments.get(i));
+            log.debug("Deleted journal segment {} covered by snapshot at {}", segments.get(i), sequence);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        if (segment != null) {
+            // Synchronous appends have flushed everything already
+            if (failure == null && durability != JournalConfiguration.Durability.SYNC) {
+                flush(appendedSequence);
+            }
+            segment.close();
+        }
+    }
+
+    @GuardedBy("appendLock")
+    private int beginRecord(byte type, int payloadSize) {
+        checkNotFailed();
+        ensureCapacity(RECORD_HEADER_SIZE + payloadSize);
+        int start = pending.position();
+        pending.putInt(CHECKSUMMED_HEADER_SIZE + payloadSize);
+        pending.putInt(0);
+        pending.putLong(appendedSequence + 1);
+        pending.put(type);
+        return start;
+    }
+
+    @GuardedBy("appendLock")
+    private long endRecord(int start) {
+        return endRecord(start, 1);
+    }
+
+    /**
+     * Seals a record that takes the given number of sequence numbers, and returns the last of them.
+     */
+    @GuardedBy("appendLock")
+    private long endRecord(int start, int sequences) {
+        checksum.reset();
+        checksum.update(pending.array(), pending.arrayOffset() + start + 8, pending.position() - start - 8);
+        pending.putInt(start + 4, (int) checksum.getValue());
+        appendedSequence += sequences;
+        long sequence = appendedSequence;
+
+        if (durability == JournalConfiguration.Durability.SYNC) {
+            // Still holding the append lock, so records are written one at a time
+            flush(sequence);
+        }
+        return sequence;
+    }
+
+    @GuardedBy("appendLock")
+    private void ensureCapacity(int size) {
+        if (pending.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+
+    @GuardedBy("appendLock")
+    private void putId(UniqueId<?> id) {
+        pending.putLong(id.id().getMostSignificantBits());
+        pending.putLong(id.id().getLeastSignificantBits());
+    }
+
+    private void flushInBackground() {
+        try {
+            flush(appendedSequence);
+        } catch (RuntimeException e) {
+            log.error("Failed to flush the journal", e);
+        }
+    }
+
+    /**
+     * Makes sure that everything up to the given sequence number is durable, either by flushing or by waiting
+     * for whoever is flushing already.
+     */
+    @Override
+    public void flush(long sequence) {
+        flushLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                checkNotFailed();
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+
+                flushing = true;
+                flushLock.unlock();
+                try {
+                    writeAndForce();
+                } finally {
+                    flushLock.lock();
+                    flushing = false;
+                    flushed.signalAll();
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void writeAndForce() {
+        ByteBuffer batch;
+        long batchSequence;
+        appendLock.lock();
+        try {
+            batch = pending;
+            pending = spare;
+            batchSequence = appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                segment.write(batch);
+            }
+            segment.force(false);
+            if (segment.position() >= segmentSize) {
+                segment.close();
+                segment = createSegment(batchSequence + 1);
+            }
+        } catch (IOException e) {
+            failure = e;
+            throw new UncheckedIOException("Failed to write to journal in " + directory, e);
+        } finally {
+            batch.clear();
+            spare = batch;
+        }
+        durableSequence = batchSequence;
+    }
+
+    private void checkNotFailed() {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal in " + directory + " has failed", failure);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                                                                   SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        // Sequence numbers are zero padded, so the names sort in sequence order
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static long firstSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private FileChannel createSegment(long firstSequence) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writeSegmentHeader(channel);
+        forceDirectory();
+        return channel;
+    }
+
+    private static void writeSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(false);
+    }
+
+    private void forceDirectory() {
+        // Makes the new file itself durable; not every platform lets us open a directory, which is fine
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Could not fsync journal directory {}", directory, e);
+        }
+    }
+
+    private long replay(Path path, long lastSequence, long afterSequence, Replayer replayer, boolean last)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading
+            }
+            buffer.flip();
+
+            if (buffer.remaining() < SEGMENT_HEADER_SIZE && last) {
+                // Crashed while creating the segment
+                channel.truncate(0);
+                writeSegmentHeader(channel);
+                return lastSequence;
+            }
+            Preconditions.checkState(buffer.getInt() == MAGIC && buffer.getInt() == VERSION,
+                                     "Not a journal segment: %s", path);
+
+            long sequence = lastSequence;
+            while (buffer.hasRemaining()) {
+                int start = buffer.position();
+                long replayed = replayRecord(buffer, sequence, afterSequence, replayer);
+                if (replayed < 0) {
+                    Preconditions.checkState(last, "Corrupt record at %s in journal segment %s", start, path);
+                    log.warn("Truncating torn record at {} in journal segment {}", start, path);
+                    channel.truncate(start);
+                    channel.force(false);
+                    break;
+                }
+                sequence = replayed;
+            }
+            return sequence;
+        }
+    }
+
+    /**
+     * Replays the record at the buffer's position unless the snapshot already has it, returning its last
+     * sequence number or -1 if it is incomplete or corrupt.
+     */
+    private static long replayRecord(ByteBuffer buffer, long lastSequence, long afterSequence, Replayer replayer) {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        int length = buffer.getInt();
+        int expectedChecksum = buffer.getInt();
+        if (length < CHECKSUMMED_HEADER_SIZE || length > buffer.remaining()) {
+            return -1;
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        if ((int) checksum.getValue() != expectedChecksum) {
+            return -1;
+        }
+
+        long sequence = buffer.getLong();
+        Preconditions.checkState(lastSequence == 0 || sequence == lastSequence + 1,
+                                 "Journal record %s does not follow %s", sequence, lastSequence);
+        byte type = buffer.get();
+        if (type == BATCH) {
+            return replayBatch(buffer, sequence, afterSequence, replayer);
+        }
+        if (sequence <= afterSequence) {
+            buffer.position(buffer.position() + length - CHECKSUMMED_HEADER_SIZE);
+        } else if (type == ACCOUNT) {
+            replayer.account(sequence, getId(buffer), buffer.getLong(), buffer.getInt());
+        } else if (type == TRANSFER) {
+            replayer.transfer(sequence, getId(buffer), getId(buffer), getId(buffer), buffer.getLong(),
+                              buffer.getInt());
+        } else {
+            throw new IllegalStateException("Unknown journal record type: " + type);
+        }
+        return sequence;
+    }
+
+    /**
+     * Replays the transfers of a batch the snapshot does not have yet, and returns the last sequence number of
+     * the batch.
+     */
+    private static long replayBatch(ByteBuffer buffer, long firstSequence, long afterSequence, Replayer replayer) {
+        int count = buffer.getInt();
+        long sequence = firstSequence;
+        for (int i = 0; i < count; i++, sequence++) {
+            if (sequence <= afterSequence) {
+                buffer.position(buffer.position() + TRANSFER_SIZE);
+            } else {
+                replayer.transfer(sequence, getId(buffer), getId(buffer), getId(buffer), buffer.getLong(),
+                                  buffer.getInt());
+            }
+        }
+        return sequence - 1;
+    }
+
+    private static <T> UniqueId<T> getId(ByteBuffer buffer) {
+        return UniqueId.of(new UUID(buffer.getLong(), buffer.getLong()));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps each account in an object of its own on the heap.
+ */
+@ThreadSafe
+final class HeapAccountTable implements AccountTable {
+
+    private final UuidMap<Record> records = new UuidMap<>();
+
+    @Override
+    public AccountRecord get(UniqueId<Account> id) {
+        return records.get(id);
+    }
+
+    @Override
+    public AccountRecord create(UniqueId<Account> id, long balance, int scale, long sequence) {
+        Record record = new Record(id, balance, scale, sequence);
+        return records.putIfAbsent(id, record) == null ? record : null;
+    }
+
+    @Override
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public Iterable<? extends AccountRecord> records() {
+        return records.values();
+    }
+
+    @NotThreadSafe
+    private static final class Record extends AccountRecord {
+
+        private final UniqueId<Account> id;
+        // Most accounts never see a transaction, so only allocated by the first one
+        private volatile TransactionHistory history;
+        private long balance;
+        private int scale;
+        private long sequence;
+
+        private Record(UniqueId<Account> id, long balance, int scale, long sequence) {
+            this.id = id;
+            this.balance = balance;
+            this.scale = scale;
+            this.sequence = sequence;
+        }
+
+        @Override
+        UniqueId<Account> id() {
+            return id;
+        }
+
+        @Override
+        long balance() {
+            return balance;
+        }
+
+        @Override
+        int scale() {
+            return scale;
+        }
+
+        @Override
+        long sequence() {
+            return sequence;
+        }
+
+        @Override
+        void setBalance(long newBalance, int amountScale, long newSequence) {
+            this.balance = newBalance;
+            this.scale = Math.max(scale, amountScale);
+            this.sequence = newSequence;
+        }
+
+        @Override
+        TransactionHistory history() {
+            TransactionHistory current = history;
+            return current == null ? TransactionHistory.NONE : current;
+        }
+
+        @Override
+        void appendHistory(Transaction transaction) {
+            TransactionHistory current = history;
+            if (current == null) {
+                current = new TransactionHistory();
+                history = current;
+            }
+            current.append(transaction);
+        }
+    }
+}
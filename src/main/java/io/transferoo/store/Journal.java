@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Write-ahead log of every change made to the store, replayed to rebuild it on startup. Every record gets
+ * the next sequence number, starting from 1.
+ *
+ * <p>Records are appended while the stripes of the accounts they touch are write locked, so the order of
+ * the records of any one account matches the order the changes were applied in. {@link #commit()} is
+ * called once the locks are released, and blocks until everything appended so far is as durable as
+ * configured.
+ */
+interface Journal extends Closeable {
+
+    /**
+     * Replays every record after the given sequence number, which the store already has from a snapshot.
+     */
+    void open(long afterSequence, Replayer replayer) throws IOException;
+
+    /**
+     * Returns the sequence number of the record.
+     */
+    long appendAccount(UniqueId<Account> accountId, long balance, int scale);
+
+    /**
+     * Returns the sequence number of the record.
+     */
+    long appendTransfer(UniqueId<Transaction> transactionId,
+                        UniqueId<Account> source,
+                        UniqueId<Account> destination,
+                        long amount,
+                        int amountScale);
+
+    /**
+     * Appends the transfers of an atomic batch as one record, so that they are made durable, and replayed, all
+     * together or not at all. Each transfer still gets a sequence number of its own, in order. Returns the
+     * sequence number of the first.
+     */
+    long appendTransfers(List<Transfer> transfers);
+
+    void commit();
+
+    /**
+     * Blocks until every record up to the given sequence number is durable, whatever the configured
+     * durability.
+     */
+    void flush(long sequence);
+
+    /**
+     * Returns the sequence number of the last record appended.
+     */
+    long sequence();
+
+    /**
+     * Drops records up to and including the given sequence number, as far as the journal's layout allows,
+     * once they are covered by a snapshot.
+     */
+    void truncate(long sequence) throws IOException;
+
+    /**
+     * A transfer as the journal records it.
+     */
+    final class Transfer {
+
+        private final UniqueId<Transaction> transactionId;
+        private final UniqueId<Account> source;
+        private final UniqueId<Account> destination;
+        private final long amount;
+        private final int amountScale;
+
+        Transfer(UniqueId<Transaction> transactionId,
+                 UniqueId<Account> source,
+                 UniqueId<Account> destination,
+                 long amount,
+                 int amountScale) {
+            this.transactionId = transactionId;
+            this.source = source;
+            this.destination = destination;
+            this.amount = amount;
+            this.amountScale = amountScale;
+        }
+
+        UniqueId<Transaction> transactionId() {
+            return transactionId;
+        }
+
+        UniqueId<Account> source() {
+            return source;
+        }
+
+        UniqueId<Account> destination() {
+            return destination;
+        }
+
+        long amount() {
+            return amount;
+        }
+
+        int amountScale() {
+            return amountScale;
+        }
+    }
+
+    interface Replayer {
+
+        void account(long sequence, UniqueId<Account> accountId, long balance, int scale);
+
+        void transfer(long sequence,
+                      UniqueId<Transaction> transactionId,
+                      UniqueId<Account> source,
+                      UniqueId<Account> destination,
+                      long amount,
+                      int amountScale);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import javax.validation.constraints.NotNull;
+import org.hibernate.validator.constraints.NotEmpty;
+
+public class JournalConfiguration {
+
+    public enum Durability {
+        /**
+         * Every record is written and fsynced on its own before the change becomes visible.
+         */
+        SYNC,
+        /**
+         * Requests wait for their records to be fsynced, but concurrent requests share a single fsync.
+         */
+        GROUP,
+        /**
+         * Records are fsynced in the background every {@link #getFlushInterval()}, so a crash may lose the
+         * most recent changes.
+         */
+        ASYNC
+    }
+
+    @NotEmpty
+    private String directory;
+
+    @NotNull
+    private Durability durability = Durability.GROUP;
+
+    @NotNull
+    private Size segmentSize = Size.megabytes(64);
+
+    @NotNull
+    private Duration flushInterval = Duration.milliseconds(10);
+
+    @NotNull
+    private Duration snapshotInterval = Duration.minutes(10);
+
+    @JsonProperty
+    public String getDirectory() {
+        return directory;
+    }
+
+    @JsonProperty
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @JsonProperty
+    public Durability getDurability() {
+        return durability;
+    }
+
+    @JsonProperty
+    public void setDurability(Durability durability) {
+        this.durability = durability;
+    }
+
+    @JsonProperty
+    public Size getSegmentSize() {
+        return segmentSize;
+    }
+
+    @JsonProperty
+    public void setSegmentSize(Size segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    @JsonProperty
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    @JsonProperty
+    public void setFlushInterval(Duration flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    @JsonProperty
+    public Duration getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    @JsonProperty
+    public void setSnapshotInterval(Duration snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The accounts and transactions the API serves, whether they are kept by a single {@link AccountStore} or
+ * spread over the shards of a {@link ShardedAccountStore}, or over the nodes of a cluster.
+ */
+@ThreadSafe
+public interface Ledger extends Managed {
+
+    /**
+     * Creates the store the configuration asks for: sharded if it has more than one shard.
+     */
+    static LocalLedger create(StoreConfiguration configuration, MetricRegistry registry) {
+        return configuration.getShards() > 1
+                ? new ShardedAccountStore(configuration, registry)
+                : new AccountStore(configuration, registry);
+    }
+
+    @Override
+    void start() throws IOException;
+
+    @Override
+    void stop() throws InterruptedException, IOException;
+
+    Account createAccount(AccountMetadata metadata);
+
+    Optional<Account> getAccountById(UniqueId<Account> accountId);
+
+    /**
+     * Returns a consistent snapshot of the given accounts: either all or none of the effects of any
+     * transfer between them are visible. Unknown accounts are left out of the result.
+     */
+    Map<UniqueId<Account>, Account> getAccountsById(Collection<UniqueId<Account>> accountIds);
+
+    Transaction createTransaction(TransactionMetadata metadata);
+
+    /**
+     * Forwards a transfer requested with an idempotency key, along with the key, to where the transfer is made if
+     * that is elsewhere, so that the key is remembered there, whichever way retries come in. Returns empty if the
+     * transfer is made here, and the key is to be remembered here too.
+     */
+    default Optional<Transaction> forwardTransaction(TransactionMetadata metadata, String idempotencyKey) {
+        return Optional.empty();
+    }
+
+    /**
+     * Applies a batch of transfers in order. Returns the outcome of each transfer, in the same order.
+     *
+     * <p>In {@link BatchMode#ATOMIC} mode the whole batch is checked before anything is applied, and the
+     * error of the first transfer that would fail is thrown instead.
+     */
+    List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode);
+
+    Optional<Transaction> getTransactionById(UniqueId<Transaction> transactionId);
+
+    /**
+     * Returns up to {@code limit} of the account's transactions, oldest first, starting from the given cursor:
+     * the number of its transactions to skip. Empty if the account does not exist.
+     */
+    Optional<TransactionPage> getTransactionsByAccountId(UniqueId<Account> accountId, long after, int limit);
+
+    /**
+     * Returns the account's balance together with every transaction that led up to it, as of now. Empty if
+     * the account does not exist.
+     */
+    Optional<AccountStatement> getStatement(UniqueId<Account> accountId);
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.util.List;
+import java.util.function.Predicate;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link Ledger} that keeps its accounts itself, in this process. Besides serving them, it can take part in
+ * transfers with accounts kept elsewhere, one side at a time, and hand its accounts over to another ledger, which
+ * is what each node of a cluster does with its own.
+ *
+ * <p>A transfer to an account kept elsewhere is first {@link #reserve reserved} on its source, then credited to
+ * its destination wherever that is kept, and finally either {@link #debit debited} from the source or, if the
+ * destination's side was rejected, {@link #release released}. Neither side can be journaled on its own, so none
+ * of this is available with a journal.
+ */
+@ThreadSafe
+public interface LocalLedger extends Ledger {
+
+    /**
+     * Creates an account with an id picked by the caller.
+     */
+    Account createAccount(UniqueId<Account> accountId, AccountMetadata metadata);
+
+    /**
+     * Holds the amount of a transfer on its source account, which must be kept here, so that nothing else can
+     * spend it until the transfer is debited or released. Checks the source's side of the transfer, and returns
+     * the transaction it is going to be: with a new id, and with the conditions of its metadata left in for the
+     * destination's side to check.
+     */
+    Transaction reserve(TransactionMetadata metadata);
+
+    /**
+     * Gives back the amount reserved for a transfer, which leaves its source as it was.
+     */
+    void release(Transaction transaction);
+
+    /**
+     * Applies the source's side of a transfer reserved here, spending the amount held for it, and records the
+     * transaction. Returns the transaction as recorded, without conditions.
+     */
+    Transaction debit(Transaction transaction);
+
+    /**
+     * Applies the destination's side of a transfer whose source is kept elsewhere, after checking it, and
+     * records the transaction. A transaction is only ever credited once: crediting it again returns it as it
+     * was recorded the first time, so that a credit whose outcome was lost can be retried.
+     */
+    Transaction credit(Transaction transaction);
+
+    /**
+     * Returns statements of the accounts whose ids match, for handing them over to another ledger. The accounts
+     * must not change while this runs.
+     */
+    List<AccountStatement> getStatements(Predicate<UniqueId<Account>> accountIds);
+
+    /**
+     * Adds an account as another ledger kept it: with its id, balance and history, and so with its version.
+     */
+    void restoreAccount(Account account, List<Transaction> history);
+}
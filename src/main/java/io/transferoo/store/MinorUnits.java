@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import java.math.BigDecimal;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Converts decimal amounts to and from a whole number of minor units at a fixed scale, e.g. cents for a
+ * scale of 2, so that the store can do its arithmetic on {@code long}s.
+ */
+@Immutable
+final class MinorUnits {
+
+    // Long.MAX_VALUE has 19 digits, so keep at least one whole digit to play with
+    static final int MAX_SCALE = 18;
+
+    private final int scale;
+
+    MinorUnits(int scale) {
+        Preconditions.checkArgument(scale >= 0 && scale <= MAX_SCALE,
+                                    "Scale must be between 0 and %s: %s", MAX_SCALE, scale);
+        this.scale = scale;
+    }
+
+    int scale() {
+        return scale;
+    }
+
+    /**
+     * Converts the amount to minor units.
+     *
+     * @throws ArithmeticException if the amount has a finer scale or is too large to fit in a {@code long}
+     */
+    long toUnits(BigDecimal amount) {
+        return amount.movePointRight(scale).longValueExact();
+    }
+
+    /**
+     * Converts minor units back to a decimal with the given scale, which must not be finer than what
+     * the units were converted from.
+     */
+    BigDecimal toDecimal(long units, int decimalScale) {
+        return BigDecimal.valueOf(units, scale).setScale(decimalScale);
+    }
+}
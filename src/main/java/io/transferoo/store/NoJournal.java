@@ -0,0 +1,76 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import java.util.List;
+
+/**
+ * Keeps nothing, for when the store is purely in memory.
+ */
+enum NoJournal implements Journal {
+    INSTANCE;
+
+    @Override
+    public void open(long afterSequence, Replayer replayer) {}
+
+    @Override
+    public long appendAccount(UniqueId<Account> accountId, long balance, int scale) {
+        return 0;
+    }
+
+    @Override
+    public long appendTransfer(UniqueId<Transaction> transactionId,
+                               UniqueId<Account> source,
+                               UniqueId<Account> destination,
+                               long amount,
+                               int amountScale) {
+        return 0;
+    }
+
+    @Override
+    public long appendTransfers(List<Transfer> transfers) {
+        return 0;
+    }
+
+    @Override
+    public void commit() {}
+
+    @Override
+    public void flush(long sequence) {}
+
+    @Override
+    public long sequence() {
+        return 0;
+    }
+
+    @Override
+    public void truncate(long sequence) {}
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,260 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Keeps accounts as fixed-size records in direct buffers, outside of the heap, in an open-addressing table
+ * keyed by the two halves of their ids. The table is allocated up front for a maximum number of accounts
+ * and never grows, so the heap only holds a bit per slot, plus the histories of the accounts that have
+ * transactions, which live on the heap along with the transactions themselves.
+ *
+ * <p>Records are only materialised as short-lived views when the store asks for one. Slots are written
+ * under the table's monitor and then published by setting their bit, so lookups do not lock and never see
+ * a half-written slot; balances are then guarded by the stripes like any other {@link AccountRecord}.
+ */
+@ThreadSafe
+final class OffHeapAccountTable implements AccountTable {
+
+    static final int MAX_ACCOUNTS = 3 << 28;
+
+    private static final int MOST_SIGNIFICANT_BITS = 0;
+    private static final int LEAST_SIGNIFICANT_BITS = 8;
+    private static final int BALANCE = 16;
+    private static final int SEQUENCE = 24;
+    private static final int SCALE = 32;
+    private static final int SLOT_SIZE = 40;
+    // 40MB per buffer, well below what a buffer can address
+    private static final int SEGMENT_SHIFT = 20;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int MIN_CAPACITY = 16;
+
+    private final ByteBuffer[] segments;
+    // One bit per slot, set once the slot has been written
+    private final AtomicLongArray occupied;
+    private final int mask;
+    private final int maxAccounts;
+    private final UuidMap<TransactionHistory> histories = new UuidMap<>();
+    @GuardedBy("this")
+    private int size;
+
+    OffHeapAccountTable(int maxAccounts) {
+        Preconditions.checkArgument(maxAccounts > 0 && maxAccounts <= MAX_ACCOUNTS,
+                                    "maxAccounts must be between 1 and %s: %s", MAX_ACCOUNTS, maxAccounts);
+        int capacity = capacityFor(maxAccounts);
+        int slotsPerSegment = Math.min(capacity, 1 << SEGMENT_SHIFT);
+        this.segments = new ByteBuffer[capacity / slotsPerSegment];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(slotsPerSegment * SLOT_SIZE).order(ByteOrder.nativeOrder());
+        }
+        this.occupied = new AtomicLongArray((capacity + Long.SIZE - 1) / Long.SIZE);
+        this.mask = capacity - 1;
+        this.maxAccounts = maxAccounts;
+    }
+
+    @Override
+    public AccountRecord get(UniqueId<Account> id) {
+        long mostSignificantBits = id.id().getMostSignificantBits();
+        long leastSignificantBits = id.id().getLeastSignificantBits();
+        int slot = find(mostSignificantBits, leastSignificantBits);
+        return slot >= 0 ? new Record(id, slot) : null;
+    }
+
+    @Override
+    public synchronized AccountRecord create(UniqueId<Account> id, long balance, int scale, long sequence) {
+        long mostSignificantBits = id.id().getMostSignificantBits();
+        long leastSignificantBits = id.id().getLeastSignificantBits();
+        int slot = find(mostSignificantBits, leastSignificantBits);
+        if (slot >= 0) {
+            return null;
+        }
+        slot = -slot - 1;
+        Preconditions.checkState(size < maxAccounts, "Account table is full: %s accounts", size);
+
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.putLong(offset + MOST_SIGNIFICANT_BITS, mostSignificantBits);
+        segment.putLong(offset + LEAST_SIGNIFICANT_BITS, leastSignificantBits);
+        segment.putLong(offset + BALANCE, balance);
+        segment.putLong(offset + SEQUENCE, sequence);
+        segment.putInt(offset + SCALE, scale);
+        // Publishes the slot; only writers ever set bits, and they are serialised
+        int word = slot / Long.SIZE;
+        occupied.set(word, occupied.get(word) | 1L << slot);
+        size++;
+        return new Record(id, slot);
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public Iterable<? extends AccountRecord> records() {
+        return () -> new Iterator<AccountRecord>() {
+            private int slot = advance(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot <= mask;
+            }
+
+            @Override
+            public AccountRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ByteBuffer segment = segment(slot);
+                int offset = offset(slot);
+                UniqueId<Account> id = UniqueId.of(new UUID(segment.getLong(offset + MOST_SIGNIFICANT_BITS),
+                                                            segment.getLong(offset + LEAST_SIGNIFICANT_BITS)));
+                Record record = new Record(id, slot);
+                slot = advance(slot + 1);
+                return record;
+            }
+
+            private int advance(int from) {
+                int next = from;
+                while (next <= mask && !isOccupied(next)) {
+                    next++;
+                }
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Returns the slot holding the key or, if there is none, {@code -slot - 1} of the free slot it would go into.
+     */
+    private int find(long mostSignificantBits, long leastSignificantBits) {
+        int slot = UuidMap.hash(mostSignificantBits, leastSignificantBits) & mask;
+        while (isOccupied(slot)) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            if (segment.getLong(offset + MOST_SIGNIFICANT_BITS) == mostSignificantBits
+                    && segment.getLong(offset + LEAST_SIGNIFICANT_BITS) == leastSignificantBits) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private boolean isOccupied(int slot) {
+        return (occupied.get(slot / Long.SIZE) & 1L << slot) != 0;
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments[slot >>> SEGMENT_SHIFT];
+    }
+
+    private static int offset(int slot) {
+        return (slot & SEGMENT_MASK) * SLOT_SIZE;
+    }
+
+    private static int capacityFor(int maxAccounts) {
+        // Keep the table at most three quarters full, so that probes stay short
+        int capacity = MIN_CAPACITY;
+        while (3L * capacity < 4L * maxAccounts) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * A view of one slot, only valid for as long as the store needs it.
+     */
+    @NotThreadSafe
+    private final class Record extends AccountRecord {
+
+        private final UniqueId<Account> id;
+        private final ByteBuffer segment;
+        private final int offset;
+
+        private Record(UniqueId<Account> id, int slot) {
+            this.id = id;
+            this.segment = segment(slot);
+            this.offset = offset(slot);
+        }
+
+        @Override
+        UniqueId<Account> id() {
+            return id;
+        }
+
+        @Override
+        long balance() {
+            return segment.getLong(offset + BALANCE);
+        }
+
+        @Override
+        int scale() {
+            return segment.getInt(offset + SCALE);
+        }
+
+        @Override
+        long sequence() {
+            return segment.getLong(offset + SEQUENCE);
+        }
+
+        @Override
+        void setBalance(long newBalance, int amountScale, long newSequence) {
+            segment.putLong(offset + BALANCE, newBalance);
+            segment.putInt(offset + SCALE, Math.max(scale(), amountScale));
+            segment.putLong(offset + SEQUENCE, newSequence);
+        }
+
+        @Override
+        TransactionHistory history() {
+            TransactionHistory history = histories.get(id);
+            return history == null ? TransactionHistory.NONE : history;
+        }
+
+        @Override
+        void appendHistory(Transaction transaction) {
+            // Only ever called under the account's stripe, so there is no race to create it
+            TransactionHistory history = histories.get(id);
+            if (history == null) {
+                history = new TransactionHistory();
+                histories.put(id, history);
+            }
+            history.append(transaction);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Reservoir that records every value into an HdrHistogram {@link Recorder}, which writers update without
+ * locking or allocating, unlike the reservoirs that come with Dropwizard. Snapshots cover the values recorded
+ * over the last minute, so percentiles follow recent load instead of decaying.
+ *
+ * <p>Only snapshots take the values out of the recorder, and they fold them into time slices that every
+ * snapshot reads from. Any number of reporters can therefore take snapshots, as often as they like, without
+ * taking values away from each other. Values count towards the slice of the snapshot that collects them.
+ */
+@ThreadSafe
+final class RecorderReservoir implements Reservoir {
+
+    // Enough for the percentiles, and small enough to hand out as values
+    private static final int SAMPLES = 1028;
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final int SLICES = 4;
+    private static final long SLICE_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final LongSupplier clock;
+    private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+    @GuardedBy("this")
+    private final Histogram[] slices = new Histogram[SLICES];
+    @GuardedBy("this")
+    private int slice;
+    @GuardedBy("this")
+    private long sliceStart;
+    @GuardedBy("this")
+    private Histogram interval;
+    private volatile HistogramSnapshot lastSnapshot = new HistogramSnapshot(new Histogram(SIGNIFICANT_DIGITS));
+
+    RecorderReservoir() {
+        this(System::nanoTime);
+    }
+
+    RecorderReservoir(LongSupplier clock) {
+        this.clock = clock;
+        for (int i = 0; i < SLICES; i++) {
+            slices[i] = new Histogram(SIGNIFICANT_DIGITS);
+        }
+        this.sliceStart = clock.getAsLong();
+    }
+
+    @Override
+    public int size() {
+        return lastSnapshot.size();
+    }
+
+    @Override
+    public void update(long value) {
+        recorder.recordValue(value);
+    }
+
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        advance(clock.getAsLong());
+        // The only place that takes values out of the recorder; the interval is ours to recycle
+        interval = recorder.getIntervalHistogram(interval);
+        slices[slice].add(interval);
+
+        // Snapshots are not recycled, as earlier ones may still be in use
+        Histogram window = new Histogram(SIGNIFICANT_DIGITS);
+        for (Histogram histogram : slices) {
+            window.add(histogram);
+        }
+        lastSnapshot = new HistogramSnapshot(window);
+        return lastSnapshot;
+    }
+
+    /**
+     * Moves on to the slice the given time falls into, clearing the slices that have dropped out of the window.
+     */
+    @GuardedBy("this")
+    private void advance(long now) {
+        long elapsed = (now - sliceStart) / SLICE_NANOS;
+        for (long i = 0; i < Math.min(elapsed, SLICES); i++) {
+            slice = (slice + 1) % SLICES;
+            slices[slice].reset();
+        }
+        sliceStart += elapsed * SLICE_NANOS;
+    }
+
+    private static final class HistogramSnapshot extends Snapshot {
+
+        private final Histogram histogram;
+
+        private HistogramSnapshot(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            return histogram.getValueAtPercentile(quantile * 100);
+        }
+
+        @Override
+        public long[] getValues() {
+            // Evenly spaced percentiles, rather than every single value recorded
+            if (histogram.getTotalCount() == 0) {
+                return new long[0];
+            }
+            long[] values = new long[SAMPLES];
+            for (int i = 0; i < SAMPLES; i++) {
+                values[i] = histogram.getValueAtPercentile(100.0 * i / (SAMPLES - 1));
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+        }
+
+        @Override
+        public double getMean() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+        }
+
+        @Override
+        public long getMin() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+        }
+
+        @Override
+        public double getStdDev() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getStdDeviation();
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+                for (long value : getValues()) {
+                    out.printf("%d%n", value);
+                }
+            }
+        }
+    }
+}
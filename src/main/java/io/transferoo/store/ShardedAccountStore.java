@@ -0,0 +1,367 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Preconditions;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionAccountType;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Spreads accounts over several {@link AccountStore} shards by a hash of their id, so that each shard has its
+ * own account table, lock stripes and, with the {@link StoreConfiguration.Engine#SEQUENCED} engine, its own
+ * writer thread.
+ *
+ * <p>Transfers between accounts of the same shard are applied by that shard. A transfer to another shard is
+ * applied under the stripes of both accounts, taken from both shards, so it is never visible half done.
+ *
+ * <p>Whenever stripes of several shards are taken, they are taken in shard order and then in stripe order,
+ * which extends the order each shard locks its own stripes in, so that this stays deadlock free. Reads of
+ * accounts in several shards validate the stripes of all of them.
+ *
+ * <p>Transactions are kept by the shard of their source account, so looking one up by id asks each shard in
+ * turn. A sharded store keeps no journal, as a transfer across shards would have to be made durable in the
+ * journals of both at once, and a configuration asking for one fails validation.
+ *
+ * <p>Each side of a transfer with an account kept elsewhere is taken by the shard of the account concerned.
+ */
+@ThreadSafe
+public class ShardedAccountStore implements LocalLedger {
+
+    private final AccountStore[] shards;
+    private final int lockStripes;
+    private final IdGenerator ids;
+    private final StoreMetrics metrics;
+
+    public ShardedAccountStore(StoreConfiguration configuration, MetricRegistry registry) {
+        int shardCount = configuration.getShards();
+        Preconditions.checkArgument(shardCount > 0, "shards must be positive: %s", shardCount);
+        Preconditions.checkArgument(configuration.getJournal() == null, "A sharded store cannot keep a journal");
+        this.shards = new AccountStore[shardCount];
+        this.lockStripes = configuration.getLockStripes();
+        this.ids = IdGenerator.create(configuration);
+        // Shards record into the same metrics, so that they add up to those of a single store
+        StoreMetrics storeMetrics = new StoreMetrics(registry, this::accountCount, this::transactionCount);
+        this.metrics = storeMetrics;
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new AccountStore(configuration, shard -> storeMetrics);
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        for (AccountStore shard : shards) {
+            shard.start();
+        }
+    }
+
+    @Override
+    public void stop() throws InterruptedException, IOException {
+        for (AccountStore shard : shards) {
+            shard.stop();
+        }
+    }
+
+    @Override
+    public Account createAccount(AccountMetadata metadata) {
+        return createAccount(UniqueId.of(ids.next()), metadata);
+    }
+
+    @Override
+    public Account createAccount(UniqueId<Account> accountId, AccountMetadata metadata) {
+        return shardOf(accountId).createAccount(accountId, metadata);
+    }
+
+    @Override
+    public Optional<Account> getAccountById(UniqueId<Account> accountId) {
+        return shardOf(accountId).getAccountById(accountId);
+    }
+
+    @Override
+    public Map<UniqueId<Account>, Account> getAccountsById(Collection<UniqueId<Account>> accountIds) {
+        List<AccountRecord> records = new ArrayList<>(accountIds.size());
+        IntStream.Builder stripes = IntStream.builder();
+        for (UniqueId<Account> accountId : accountIds) {
+            AccountRecord account = shardOf(accountId).getAccountRecord(accountId);
+            if (account != null) {
+                records.add(account);
+                stripes.add(globalStripe(accountId));
+            }
+        }
+        // Any shard can read them, as they all render balances the same way
+        return shards[0].readAccounts(records, locks(stripes.build()));
+    }
+
+    @Override
+    public Transaction createTransaction(TransactionMetadata metadata) {
+        AccountStore sourceShard = shardOf(metadata.source());
+        AccountStore destinationShard = shardOf(metadata.destination());
+        if (sourceShard == destinationShard) {
+            return sourceShard.createTransaction(metadata);
+        }
+
+        try {
+            validateTransaction(metadata);
+            return lockAndApplyTransaction(metadata, sourceShard, destinationShard);
+        } catch (WebApplicationException e) {
+            metrics.rejected(e);
+            throw e;
+        }
+    }
+
+    private Transaction lockAndApplyTransaction(TransactionMetadata metadata,
+                                                AccountStore sourceShard,
+                                                AccountStore destinationShard) {
+        // The accounts are in different shards, so their stripes are never the same
+        int sourceStripe = globalStripe(metadata.source());
+        int destinationStripe = globalStripe(metadata.destination());
+        StampedLock first = lock(Math.min(sourceStripe, destinationStripe));
+        StampedLock second = lock(Math.max(sourceStripe, destinationStripe));
+
+        long waitStart = System.nanoTime();
+        long firstStamp = first.writeLock();
+        long secondStamp = second.writeLock();
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        try {
+            return sourceShard.applyTransaction(metadata, destinationShard);
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            second.unlockWrite(secondStamp);
+            first.unlockWrite(firstStamp);
+        }
+    }
+
+    /**
+     * Takes the stripes of every account involved once, in every shard, so that atomic batches stay atomic
+     * across shards.
+     */
+    @Override
+    public List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        try {
+            return applyBatch(batch, mode);
+        } catch (WebApplicationException e) {
+            // Only atomic batches throw; the failures of best effort ones are counted as they happen
+            metrics.rejected(e);
+            throw e;
+        }
+    }
+
+    private List<TransactionResult> applyBatch(List<TransactionMetadata> batch, BatchMode mode) {
+        boolean atomic = mode == BatchMode.ATOMIC;
+        TransactionResult[] results = new TransactionResult[batch.size()];
+        IntStream.Builder stripes = IntStream.builder();
+        for (int i = 0; i < batch.size(); i++) {
+            TransactionMetadata metadata = batch.get(i);
+            try {
+                validateTransaction(metadata);
+                stripes.add(globalStripe(metadata.source()));
+                stripes.add(globalStripe(metadata.destination()));
+            } catch (WebApplicationException e) {
+                if (atomic) {
+                    throw e;
+                }
+                results[i] = failed(e);
+            }
+        }
+
+        Supplier<List<TransactionResult>> apply = () -> {
+            if (atomic) {
+                shards[0].checkBatch(batch, this::shardOf);
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = applyBatched(batch.get(i));
+                }
+            }
+            return Arrays.asList(results);
+        };
+        return underWriteLocks(locks(stripes.build()), apply);
+    }
+
+    @Override
+    public Optional<Transaction> getTransactionById(UniqueId<Transaction> transactionId) {
+        for (AccountStore shard : shards) {
+            Optional<Transaction> transaction = shard.getTransactionById(transactionId);
+            if (transaction.isPresent()) {
+                return transaction;
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<TransactionPage> getTransactionsByAccountId(UniqueId<Account> accountId, long after, int limit) {
+        return shardOf(accountId).getTransactionsByAccountId(accountId, after, limit);
+    }
+
+    @Override
+    public Optional<AccountStatement> getStatement(UniqueId<Account> accountId) {
+        return shardOf(accountId).getStatement(accountId);
+    }
+
+    @Override
+    public Transaction reserve(TransactionMetadata metadata) {
+        return shardOf(metadata.source()).reserve(metadata);
+    }
+
+    @Override
+    public void release(Transaction transaction) {
+        shardOf(transaction.metadata().source()).release(transaction);
+    }
+
+    @Override
+    public Transaction debit(Transaction transaction) {
+        return shardOf(transaction.metadata().source()).debit(transaction);
+    }
+
+    @Override
+    public Transaction credit(Transaction transaction) {
+        return shardOf(transaction.metadata().destination()).credit(transaction);
+    }
+
+    @Override
+    public List<AccountStatement> getStatements(Predicate<UniqueId<Account>> accountIds) {
+        List<AccountStatement> statements = new ArrayList<>();
+        for (AccountStore shard : shards) {
+            statements.addAll(shard.getStatements(accountIds));
+        }
+        return statements;
+    }
+
+    @Override
+    public void restoreAccount(Account account, List<Transaction> history) {
+        shardOf(account.id()).restoreAccount(account, history);
+    }
+
+    private void validateTransaction(TransactionMetadata metadata) {
+        AccountStore sourceShard = shardOf(metadata.source());
+        sourceShard.validateTransfer(metadata);
+
+        // Accounts are never removed, so it is safe to check for their existence before locking
+        sourceShard.getAccountRecordStrict(metadata.source(), TransactionAccountType.SOURCE);
+        shardOf(metadata.destination()).getAccountRecordStrict(metadata.destination(),
+                                                               TransactionAccountType.DESTINATION);
+    }
+
+    private TransactionResult applyBatched(TransactionMetadata metadata) {
+        try {
+            AccountStore destinationShard = shardOf(metadata.destination());
+            return TransactionResult.succeeded(shardOf(metadata.source()).applyTransaction(metadata,
+                                                                                           destinationShard));
+        } catch (WebApplicationException e) {
+            // Nothing has been changed yet when a transfer is rejected
+            return failed(e);
+        }
+    }
+
+    private TransactionResult failed(WebApplicationException exception) {
+        TransferooError error = (TransferooError) exception.getResponse().getEntity();
+        metrics.rejected(error);
+        return TransactionResult.failed(error);
+    }
+
+    private <T> T underWriteLocks(StampedLock[] writeLocks, Supplier<T> action) {
+        long[] stamps = new long[writeLocks.length];
+        long waitStart = System.nanoTime();
+        for (int i = 0; i < writeLocks.length; i++) {
+            stamps[i] = writeLocks[i].writeLock();
+        }
+        long lockedAt = System.nanoTime();
+        metrics.lockWait(lockedAt - waitStart);
+        try {
+            return action.get();
+        } finally {
+            metrics.criticalSection(System.nanoTime() - lockedAt);
+            for (int i = writeLocks.length - 1; i >= 0; i--) {
+                writeLocks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the locks of the given stripes of the whole store, once each and in locking order.
+     */
+    private StampedLock[] locks(IntStream globalStripes) {
+        return globalStripes.distinct()
+                            .sorted()
+                            .mapToObj(this::lock)
+                            .toArray(StampedLock[]::new);
+    }
+
+    private StampedLock lock(int globalStripe) {
+        return shards[globalStripe / lockStripes].stripeLock(globalStripe % lockStripes);
+    }
+
+    /**
+     * Numbers the stripes of all shards one after the other, so that sorting them yields the locking order.
+     */
+    private int globalStripe(UniqueId<Account> accountId) {
+        int shard = shardIndex(accountId);
+        return shard * lockStripes + shards[shard].stripe(accountId);
+    }
+
+    private AccountStore shardOf(UniqueId<Account> accountId) {
+        return shards[shardIndex(accountId)];
+    }
+
+    int shardIndex(UniqueId<Account> accountId) {
+        // Use other bits than the stripes within a shard do, so that every shard gets to use all of its stripes
+        UUID id = accountId.id();
+        long hash = (id.getMostSignificantBits() ^ id.getLeastSignificantBits()) * 0x9E3779B97F4A7C15L;
+        return (int) (((hash >>> 32) * shards.length) >>> 32);
+    }
+
+    private int accountCount() {
+        return Arrays.stream(shards).mapToInt(AccountStore::accountCount).sum();
+    }
+
+    private int transactionCount() {
+        return Arrays.stream(shards).mapToInt(AccountStore::transactionCount).sum();
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.UniqueId;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Point-in-time snapshots of the store, kept next to the journal and named after the sequence number of
+ * the last journal record they cover.
+ *
+ * <p>Snapshots are written to a temporary file that is only renamed into place once complete, so a crash
+ * never leaves a partial snapshot behind. Records are grouped into checksummed chunks, which are loaded
+ * in parallel: all of the transactions first, and then the accounts, whose histories refer to them.
+ */
+@ThreadSafe
+final class SnapshotFiles {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotFiles.class);
+
+    private static final int MAGIC = 0x5452534e;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8;
+    // Length and checksum of the rest of the chunk, then its type and number of records
+    private static final int CHUNK_HEADER_SIZE = 4 + 4 + 1 + 4;
+    private static final int CHECKSUMMED_HEADER_SIZE = 1 + 4;
+    // Followed by the ids of the transactions in its history
+    private static final int ACCOUNT_SIZE = 16 + 8 + 4 + 8 + 4;
+    private static final int TRANSACTION_SIZE = 3 * 16 + 8 + 4;
+    private static final byte ACCOUNTS = 1;
+    private static final byte TRANSACTIONS = 2;
+    private static final byte END = 3;
+    private static final int CHUNK_RECORDS = 4096;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    SnapshotFiles(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Loads the latest snapshot, if any, and returns the sequence number of the last journal record it
+     * covers, or 0 if there is none. The loader is called concurrently from several threads.
+     */
+    long load(Loader loader) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> snapshots = files(SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX);
+        for (Path leftover : files(SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX + TEMPORARY_SUFFIX)) {
+            log.info("Deleting incomplete snapshot {}", leftover);
+            Files.delete(leftover);
+        }
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+
+        Path path = snapshots.get(snapshots.size() - 1);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            Preconditions.checkState(buffer.remaining() >= HEADER_SIZE
+                                     && buffer.getInt() == MAGIC
+                                     && buffer.getInt() == VERSION,
+                                     "Not a snapshot: %s", path);
+            long sequence = buffer.getLong();
+
+            List<ByteBuffer> chunks = chunks(buffer, path);
+            long start = System.nanoTime();
+            chunks.parallelStream()
+                  .filter(chunk -> chunk.get(8) == TRANSACTIONS)
+                  .forEach(chunk -> loadChunk(chunk, path, loader));
+            chunks.parallelStream()
+                  .filter(chunk -> chunk.get(8) != TRANSACTIONS)
+                  .forEach(chunk -> loadChunk(chunk, path, loader));
+            log.info("Loaded snapshot {} in {} chunks in {}ms",
+                     path, chunks.size(), (System.nanoTime() - start) / 1_000_000);
+            return sequence;
+        }
+    }
+
+    /**
+     * Starts writing a snapshot covering the journal up to and including the given sequence number. The
+     * snapshot only replaces the previous one once {@link Writer#commit()} is called.
+     */
+    Writer begin(long sequence) throws IOException {
+        Files.createDirectories(directory);
+        return new Writer(sequence);
+    }
+
+    private List<Path> files(String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        // Sequence numbers are zero padded, so the names sort in sequence order
+        Collections.sort(files);
+        return files;
+    }
+
+    private static List<ByteBuffer> chunks(ByteBuffer buffer, Path path) {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        while (buffer.remaining() >= CHUNK_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            Preconditions.checkState(length >= CHECKSUMMED_HEADER_SIZE && length <= buffer.remaining() - 8,
+                                     "Corrupt chunk at %s in snapshot %s", start, path);
+            if (buffer.get(start + 8) == END) {
+                return chunks;
+            }
+
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.limit(start + 8 + length);
+            chunks.add(chunk.slice());
+            buffer.position(start + 8 + length);
+        }
+        throw new IllegalStateException("Snapshot " + path + " is incomplete");
+    }
+
+    private static void loadChunk(ByteBuffer chunk, Path path, Loader loader) {
+        int length = chunk.getInt();
+        int expectedChecksum = chunk.getInt();
+        CRC32 checksum = new CRC32();
+        checksum.update(chunk.duplicate());
+        Preconditions.checkState((int) checksum.getValue() == expectedChecksum && length == chunk.remaining(),
+                                 "Corrupt chunk in snapshot %s", path);
+
+        byte type = chunk.get();
+        int count = chunk.getInt();
+        for (int i = 0; i < count; i++) {
+            if (type == ACCOUNTS) {
+                loader.account(getId(chunk), chunk.getLong(), chunk.getInt(), chunk.getLong(), getHistory(chunk));
+            } else if (type == TRANSACTIONS) {
+                loader.transaction(getId(chunk), getId(chunk), getId(chunk), chunk.getLong(), chunk.getInt());
+            } else {
+                throw new IllegalStateException("Unknown snapshot chunk type: " + type);
+            }
+        }
+    }
+
+    private static List<UniqueId<Transaction>> getHistory(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        List<UniqueId<Transaction>> history = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            history.add(getId(buffer));
+        }
+        return history;
+    }
+
+    private static <T> UniqueId<T> getId(ByteBuffer buffer) {
+        return UniqueId.of(new UUID(buffer.getLong(), buffer.getLong()));
+    }
+
+    private void forceDirectory() {
+        // Makes the rename itself durable; not every platform lets us open a directory, which is fine
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Could not fsync snapshot directory {}", directory, e);
+        }
+    }
+
+    @ThreadSafe
+    interface Loader {
+
+        void account(UniqueId<Account> accountId,
+                     long balance,
+                     int scale,
+                     long sequence,
+                     List<UniqueId<Transaction>> history);
+
+        void transaction(UniqueId<Transaction> transactionId,
+                         UniqueId<Account> source,
+                         UniqueId<Account> destination,
+                         long amount,
+                         int amountScale);
+    }
+
+    /**
+     * Writes a snapshot; accounts and transactions may be written in any order.
+     */
+    @NotThreadSafe
+    final class Writer implements Closeable {
+
+        private final long sequence;
+        private final Path path;
+        private final Path temporary;
+        private final FileChannel channel;
+        private ByteBuffer chunk =
+                ByteBuffer.allocate(CHUNK_HEADER_SIZE + CHUNK_RECORDS * Math.max(ACCOUNT_SIZE, TRANSACTION_SIZE));
+        private final CRC32 checksum = new CRC32();
+        private byte chunkType;
+        private int chunkRecords;
+        private boolean committed;
+
+        private Writer(long sequence) throws IOException {
+            this.sequence = sequence;
+            this.path = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+            this.temporary = path.resolveSibling(path.getFileName() + TEMPORARY_SUFFIX);
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(sequence);
+            header.flip();
+            write(header);
+        }
+
+        void account(UniqueId<Account> accountId,
+                     long balance,
+                     int scale,
+                     long accountSequence,
+                     List<Transaction> history) throws IOException {
+            startRecord(ACCOUNTS);
+            ensureCapacity(ACCOUNT_SIZE + history.size() * 16);
+            putId(accountId);
+            chunk.putLong(balance);
+            chunk.putInt(scale);
+            chunk.putLong(accountSequence);
+            chunk.putInt(history.size());
+            for (Transaction transaction : history) {
+                putId(transaction.id());
+            }
+        }
+
+        void transaction(UniqueId<Transaction> transactionId,
+                         UniqueId<Account> source,
+                         UniqueId<Account> destination,
+                         long amount,
+                         int amountScale) throws IOException {
+            startRecord(TRANSACTIONS);
+            putId(transactionId);
+            putId(source);
+            putId(destination);
+            chunk.putLong(amount);
+            chunk.putInt(amountScale);
+        }
+
+        /**
+         * Makes the snapshot durable, and deletes the snapshots it replaces.
+         */
+        void commit() throws IOException {
+            flushChunk();
+            chunkType = END;
+            flushChunk();
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE);
+            forceDirectory();
+            committed = true;
+
+            for (Path snapshot : files(SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+                if (!snapshot.equals(path)) {
+                    Files.delete(snapshot);
+                }
+            }
+            log.info("Wrote snapshot {} up to journal record {}", path, sequence);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                channel.close();
+                Files.deleteIfExists(temporary);
+            }
+        }
+
+        private void startRecord(byte type) throws IOException {
+            if (chunkType != type || chunkRecords == CHUNK_RECORDS) {
+                flushChunk();
+                chunkType = type;
+            }
+            if (chunkRecords == 0) {
+                chunk.position(CHUNK_HEADER_SIZE);
+            }
+            chunkRecords++;
+        }
+
+        private void flushChunk() throws IOException {
+            if (chunkRecords == 0 && chunkType != END) {
+                return;
+            }
+            if (chunkRecords == 0) {
+                chunk.position(CHUNK_HEADER_SIZE);
+            }
+            chunk.put(8, chunkType);
+            chunk.putInt(9, chunkRecords);
+            chunk.flip();
+            chunk.putInt(0, chunk.limit() - 8);
+            checksum.reset();
+            checksum.update(chunk.array(), chunk.arrayOffset() + 8, chunk.limit() - 8);
+            chunk.putInt(4, (int) checksum.getValue());
+            write(chunk);
+            chunk.clear();
+            chunkRecords = 0;
+        }
+
+        private void ensureCapacity(int size) {
+            if (chunk.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(chunk.capacity() * 2, chunk.position() + size));
+                chunk.flip();
+                grown.put(chunk);
+                chunk = grown;
+            }
+        }
+
+        private void putId(UniqueId<?> id) {
+            chunk.putLong(id.id().getMostSignificantBits());
+            chunk.putLong(id.id().getLeastSignificantBits());
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
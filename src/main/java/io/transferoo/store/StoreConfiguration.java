@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.validation.ValidationMethod;
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+public class StoreConfiguration {
+
+    public enum Engine {
+        /**
+         * Request threads apply transfers themselves, under the lock stripes of the accounts involved.
+         */
+        LOCKING,
+        /**
+         * Request threads publish transfers into a ring buffer, and a single writer thread applies them in order.
+         */
+        SEQUENCED
+    }
+
+    public enum AccountStorage {
+        /**
+         * Every account is an object on the heap.
+         */
+        HEAP,
+        /**
+         * Accounts are fixed-size records in direct buffers, allocated up front for {@code offHeapAccounts}
+         * accounts in each shard, so the heap barely grows with the number of accounts. Transaction histories
+         * stay on the heap.
+         */
+        OFF_HEAP
+    }
+
+    public enum IdGeneration {
+        /**
+         * Random ids, from the JVM's shared {@link java.security.SecureRandom}.
+         */
+        RANDOM,
+        /**
+         * Time-ordered ids, laid out like UUID version 7, generated without any state shared between threads.
+         */
+        TIME_ORDERED
+    }
+
+    @NotNull
+    private Engine engine = Engine.LOCKING;
+
+    // Each shard has its own accounts, lock stripes and, with the sequenced engine, writer thread
+    @Min(1)
+    private int shards = 1;
+
+    @Min(1)
+    private int lockStripes = 1024;
+
+    @Min(1)
+    private int ringBufferSize = 1024;
+
+    // An atomic batch is journaled as one record, and applied under the stripes of all of its accounts at once
+    @Min(1)
+    private int maxBatchSize = 1000;
+
+    @Min(0)
+    @Max(MinorUnits.MAX_SCALE)
+    private int balanceScale = 8;
+
+    @NotNull
+    private AccountStorage accountStorage = AccountStorage.HEAP;
+
+    @Min(1)
+    @Max(OffHeapAccountTable.MAX_ACCOUNTS)
+    private int offHeapAccounts = 1_000_000;
+
+    @NotNull
+    private IdGeneration idGeneration = IdGeneration.TIME_ORDERED;
+
+    // Without a journal, everything is lost on restart; only an unsharded store can keep one
+    @Valid
+    private JournalConfiguration journal;
+
+    @JsonProperty
+    public Engine getEngine() {
+        return engine;
+    }
+
+    @JsonProperty
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    @JsonProperty
+    public int getShards() {
+        return shards;
+    }
+
+    @JsonProperty
+    public void setShards(int shards) {
+        this.shards = shards;
+    }
+
+    @JsonProperty
+    public int getLockStripes() {
+        return lockStripes;
+    }
+
+    @JsonProperty
+    public void setLockStripes(int lockStripes) {
+        this.lockStripes = lockStripes;
+    }
+
+    @JsonProperty
+    public int getRingBufferSize() {
+        return ringBufferSize;
+    }
+
+    @JsonProperty
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    @JsonProperty
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @JsonProperty
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @JsonProperty
+    public int getBalanceScale() {
+        return balanceScale;
+    }
+
+    @JsonProperty
+    public void setBalanceScale(int balanceScale) {
+        this.balanceScale = balanceScale;
+    }
+
+    @JsonProperty
+    public AccountStorage getAccountStorage() {
+        return accountStorage;
+    }
+
+    @JsonProperty
+    public void setAccountStorage(AccountStorage accountStorage) {
+        this.accountStorage = accountStorage;
+    }
+
+    @JsonProperty
+    public int getOffHeapAccounts() {
+        return offHeapAccounts;
+    }
+
+    @JsonProperty
+    public void setOffHeapAccounts(int offHeapAccounts) {
+        this.offHeapAccounts = offHeapAccounts;
+    }
+
+    @JsonProperty
+    public IdGeneration getIdGeneration() {
+        return idGeneration;
+    }
+
+    @JsonProperty
+    public void setIdGeneration(IdGeneration idGeneration) {
+        this.idGeneration = idGeneration;
+    }
+
+    @JsonProperty
+    public JournalConfiguration getJournal() {
+        return journal;
+    }
+
+    @JsonProperty
+    public void setJournal(JournalConfiguration journal) {
+        this.journal = journal;
+    }
+
+    @JsonIgnore
+    @ValidationMethod(message = "store.journal cannot be kept by a store with store.shards above 1")
+    public boolean isJournalUnsharded() {
+        return journal == null || shards == 1;
+    }
+}
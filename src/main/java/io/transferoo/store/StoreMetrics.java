@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransferooError;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+
+/**
+ * Metrics recorded by the store itself, registered under {@code io.transferoo.store.AccountStore}:
+ * <ul>
+ *     <li>{@code lock-wait}: time spent waiting for the stripes of a change.</li>
+ *     <li>{@code queue-wait}: time transfers spend in the ring buffer of the sequenced engine.</li>
+ *     <li>{@code critical-section}: time spent applying a change while holding its stripes.</li>
+ *     <li>{@code transfers}: transfers applied.</li>
+ *     <li>{@code rejections.<ErrorCode>}: transfers rejected, by the error they were rejected with.</li>
+ *     <li>{@code accounts} and {@code transactions}: how many there are.</li>
+ * </ul>
+ *
+ * <p>Meters count into striped adders and timers record into {@link RecorderReservoir}s, so recording never
+ * locks and is cheap enough to leave on.
+ */
+@ThreadSafe
+final class StoreMetrics {
+
+    private final Timer lockWait;
+    private final Timer queueWait;
+    private final Timer criticalSection;
+    private final Meter transfers;
+    private final Map<ErrorCode, Meter> rejections = new EnumMap<>(ErrorCode.class);
+
+    StoreMetrics(MetricRegistry registry, IntSupplier accounts, IntSupplier transactions) {
+        this.lockWait = registry.register(name("lock-wait"), new Timer(new RecorderReservoir()));
+        this.queueWait = registry.register(name("queue-wait"), new Timer(new RecorderReservoir()));
+        this.criticalSection = registry.register(name("critical-section"), new Timer(new RecorderReservoir()));
+        this.transfers = registry.meter(name("transfers"));
+        for (ErrorCode errorCode : ErrorCode.values()) {
+            rejections.put(errorCode, registry.meter(name("rejections", errorCode.name())));
+        }
+        registry.register(name("accounts"), (Gauge<Integer>) accounts::getAsInt);
+        registry.register(name("transactions"), (Gauge<Integer>) transactions::getAsInt);
+    }
+
+    void lockWait(long nanos) {
+        lockWait.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void queueWait(long nanos) {
+        queueWait.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void criticalSection(long nanos) {
+        criticalSection.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    void transferred() {
+        transfers.mark();
+    }
+
+    void rejected(WebApplicationException exception) {
+        Object entity = exception.getResponse().getEntity();
+        if (entity instanceof TransferooError) {
+            rejected((TransferooError) entity);
+        }
+    }
+
+    void rejected(TransferooError error) {
+        rejections.get(error.errorCode()).mark();
+    }
+
+    private static String name(String... names) {
+        return MetricRegistry.name(AccountStore.class, names);
+    }
+}
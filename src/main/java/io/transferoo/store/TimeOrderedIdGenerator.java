@@ -0,0 +1,85 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Time-ordered ids in the layout of UUID version 7: the milliseconds since the epoch in the top 48 bits, then
+ * a 12 bit counter, then 62 random bits. Each thread keeps its own clock and counter and draws from its own
+ * {@link ThreadLocalRandom}, so generating an id never contends with other threads.
+ *
+ * <p>The ids of each thread are strictly increasing: the counter starts at a random value every millisecond
+ * and counts up, borrowing the next millisecond if it runs out or if the clock goes backwards. Ids of
+ * different threads, or of different runs, only share their top half within the same millisecond, and then
+ * still differ in their random bits.
+ */
+@ThreadSafe
+final class TimeOrderedIdGenerator implements IdGenerator {
+
+    private static final long VERSION = 0x7000L;
+    private static final long VARIANT = 0x8000000000000000L;
+    private static final long RANDOM_MASK = 0x3fffffffffffffffL;
+    private static final int MAX_COUNTER = 0xfff;
+    // Leave at least half of the counter for ids generated within the same millisecond
+    private static final int COUNTER_SEED = 1 << 11;
+
+    private final LongSupplier clock;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    TimeOrderedIdGenerator() {
+        this(System::currentTimeMillis);
+    }
+
+    TimeOrderedIdGenerator(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public UUID next() {
+        State current = state.get();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long now = clock.getAsLong();
+        if (now > current.millis) {
+            current.millis = now;
+            current.counter = random.nextInt(COUNTER_SEED);
+        } else if (current.counter < MAX_COUNTER) {
+            current.counter++;
+        } else {
+            current.millis++;
+            current.counter = 0;
+        }
+        return new UUID(current.millis << 16 | VERSION | current.counter, VARIANT | random.nextLong() & RANDOM_MASK);
+    }
+
+    private static final class State {
+
+        private long millis = Long.MIN_VALUE;
+        private int counter;
+    }
+}
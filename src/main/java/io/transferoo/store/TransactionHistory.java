@@ -0,0 +1,121 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import io.transferoo.api.Transaction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * The transactions of one account, in the order they were applied to it.
+ *
+ * <p>Entries are kept in fixed-size chunks, so that appending never copies more than a chunk and reading a
+ * page only touches the entries on it. The first chunk starts small and grows, as most accounts only ever
+ * see a handful of transactions. Appends must happen under the write lock of the account's stripe, but
+ * reads do not lock at all: the size is published only once the entry is in place.
+ */
+@ThreadSafe
+final class TransactionHistory {
+
+    private static final int FIRST_CHUNK_SIZE = 4;
+    private static final int CHUNK_SHIFT = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    // Never written to, as the first append grows it
+    private static final Transaction[][] EMPTY = {new Transaction[0]};
+
+    // Shared by accounts that have no transactions yet, so must never be appended to
+    static final TransactionHistory NONE = new TransactionHistory();
+
+    private volatile Transaction[][] chunks = EMPTY;
+    private volatile int size;
+
+    int size() {
+        return size;
+    }
+
+    void append(Transaction transaction) {
+        int index = size;
+        Transaction[][] current = chunks;
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunk == current.length) {
+            current = Arrays.copyOf(current, chunk + 1);
+            current[chunk] = new Transaction[CHUNK_SIZE];
+        } else if (index == current[chunk].length) {
+            // Only the first chunk is ever short; readers keep using the old copy until they see the new size
+            current = current.clone();
+            current[chunk] = Arrays.copyOf(current[chunk], Math.max(FIRST_CHUNK_SIZE, index * 2));
+        }
+
+        current[chunk][index & CHUNK_MASK] = transaction;
+        if (current != chunks) {
+            chunks = current;
+        }
+        size = index + 1;
+    }
+
+    /**
+     * Returns the entries from {@code from} up to {@code to}, which must be at most a size read before.
+     */
+    List<Transaction> get(int from, int to) {
+        // Read after the size, so the chunks are at least as new as the size was
+        Transaction[][] current = chunks;
+        List<Transaction> entries = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            entries.add(current[i >>> CHUNK_SHIFT][i & CHUNK_MASK]);
+        }
+        return entries;
+    }
+
+    /**
+     * Iterates over the entries up to {@code to}, which must be at most a size read before, without copying
+     * them.
+     */
+    Iterator<Transaction> iterator(int to) {
+        Transaction[][] current = chunks;
+        return new Iterator<Transaction>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Transaction next() {
+                if (next >= to) {
+                    throw new NoSuchElementException();
+                }
+                Transaction transaction = current[next >>> CHUNK_SHIFT][next & CHUNK_MASK];
+                next++;
+                return transaction;
+            }
+        };
+    }
+}
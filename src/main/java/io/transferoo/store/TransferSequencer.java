@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import javax.annotation.concurrent.ThreadSafe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Funnels transfers from any number of threads through a pre-allocated ring buffer into a single writer
+ * thread, which applies them in sequence. Producers claim a sequence number, wait for its slot to be
+ * drained and publish into it; the writer completes a future for each transfer it applies.
+ *
+ * <p>Stopping closes the sequence: a producer that claims a sequence number after that gets a failed future, and the
+ * writer drains every number claimed before it. The writer closes it too if applying a transfer throws anything
+ * but a {@link RuntimeException}, after which the sequencer fails every transfer rather than apply it to a store in
+ * an unknown state.
+ */
+@ThreadSafe
+final class TransferSequencer {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferSequencer.class);
+
+    // Set in the next sequence number once closed, which makes every number claimed after that negative
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 100;
+    private static final long PRODUCER_PARK_NANOS = 1_000;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final Function<TransactionMetadata, Transaction> applier;
+    private final LongConsumer queueWait;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong consumedSequence = new AtomicLong();
+    private final Thread writer;
+
+    // Written before running is cleared, and the writer drains up to it once it has seen running cleared
+    private volatile long closedAt = Long.MAX_VALUE;
+    private volatile boolean running = true;
+    private volatile boolean writerParked;
+    private volatile Throwable failure;
+
+    /**
+     * Transfers are applied with {@code applier}, and the nanoseconds each spent in the ring buffer are reported
+     * to {@code queueWait}, both on the writer thread.
+     */
+    TransferSequencer(int size, Function<TransactionMetadata, Transaction> applier, LongConsumer queueWait) {
+        Preconditions.checkArgument(Integer.bitCount(size) == 1, "Ring buffer size must be a power of two: %s", size);
+        this.ring = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.applier = applier;
+        this.queueWait = queueWait;
+        this.writer = new Thread(this::drain, "transferoo-sequencer");
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    void stop() throws InterruptedException {
+        close();
+        LockSupport.unpark(writer);
+        writer.join();
+    }
+
+    // Synchronized as both stop() and a failing writer may close, and only the first knows where to stop draining
+    private synchronized void close() {
+        long next = nextSequence.getAndUpdate(sequence -> sequence | CLOSED);
+        if (next >= 0) {
+            closedAt = next;
+        }
+        running = false;
+    }
+
+    CompletableFuture<Transaction> publish(TransactionMetadata metadata) {
+        long sequence = nextSequence.getAndIncrement();
+        if (sequence < 0) {
+            // Claimed after the writer was told to stop, so nothing would ever drain it
+            CompletableFuture<Transaction> stopped = new CompletableFuture<>();
+            stopped.completeExceptionally(new IllegalStateException("Sequencer has been stopped", failure));
+            return stopped;
+        }
+        while (sequence - consumedSequence.get() >= ring.length) {
+            // The writer is a whole ring behind: back off until it frees our slot
+            LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+        }
+
+        CompletableFuture<Transaction> completion = new CompletableFuture<>();
+        Slot slot = ring[(int) sequence & mask];
+        slot.metadata = metadata;
+        slot.completion = completion;
+        slot.publishedNanos = System.nanoTime();
+        slot.published = sequence;
+
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return completion;
+    }
+
+    private void drain() {
+        long sequence = 0;
+        int idle = 0;
+        while (running || sequence < closedAt) {
+            Slot slot = ring[(int) sequence & mask];
+            if (slot.published != sequence) {
+                idle = idle(slot, sequence, idle);
+                continue;
+            }
+            idle = 0;
+
+            TransactionMetadata metadata = slot.metadata;
+            CompletableFuture<Transaction> completion = slot.completion;
+            long publishedNanos = slot.publishedNanos;
+            slot.metadata = null;
+            slot.completion = null;
+            consumedSequence.lazySet(++sequence);
+            apply(metadata, completion, publishedNanos);
+        }
+    }
+
+    private void apply(TransactionMetadata metadata, CompletableFuture<Transaction> completion, long publishedNanos) {
+        if (failure != null) {
+            completion.completeExceptionally(new IllegalStateException("Sequencer has failed", failure));
+            return;
+        }
+        try {
+            queueWait.accept(System.nanoTime() - publishedNanos);
+            completion.complete(applier.apply(metadata));
+        } catch (RuntimeException e) {
+            completion.completeExceptionally(e);
+        } catch (Throwable e) {
+            log.error("Sequencer failed, no more transfers will be applied", e);
+            failure = e;
+            close();
+            completion.completeExceptionally(e);
+        }
+    }
+
+    private int idle(Slot slot, long sequence, int idle) {
+        if (idle < SPIN_TRIES) {
+            return idle + 1;
+        }
+        if (idle < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+            return idle + 1;
+        }
+        // Producers check the flag after publishing, so re-checking the slot after raising it
+        // guarantees that either we see their transfer or they see us parked
+        writerParked = true;
+        if (running && slot.published != sequence) {
+            LockSupport.park(this);
+        }
+        writerParked = false;
+        return idle;
+    }
+
+    private static final class Slot {
+        private volatile long published = -1;
+        private TransactionMetadata metadata;
+        private CompletableFuture<Transaction> completion;
+        private long publishedNanos;
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package io.transferoo.store;
+
+import com.google.common.base.Preconditions;
+import io.transferoo.api.UniqueId;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Map keyed by {@link UniqueId}s that stores the two halves of each id straight in a flat array, instead
+ * of a node, a {@link UniqueId} and a {@link java.util.UUID} per entry, and probes it linearly. Lookups do
+ * not allocate or lock, and never touch a value that does not match.
+ *
+ * <p>Entries can be added or replaced but never removed. Writers do not lock either: they claim an empty
+ * slot with a CAS before writing its key, and readers see a value as soon as it is published into its slot,
+ * which happens after the key is written.
+ *
+ * <p>Growing does not stop anyone. The writer that fills the table past its load factor links a table twice
+ * its size behind it and moves the entries over one slot at a time, freezing each slot as it goes. Everyone
+ * else carries on in the old table, and follows the link to the new one for the slots already frozen.
+ *
+ * @param <V> type of the values
+ */
+@ThreadSafe
+final class UuidMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+    // Two keys per slot have to fit in an array
+    private static final int MAX_CAPACITY = 1 << 29;
+
+    // A writer has claimed the slot, but is yet to write the key and publish the value
+    private static final Object RESERVED = new Object();
+    // The slot was empty when the table grew; anything that would go there is in the next table instead
+    private static final Object TOMBSTONE = new Object();
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<UuidMap, Table> TABLE =
+            AtomicReferenceFieldUpdater.newUpdater(UuidMap.class, Table.class, "table");
+
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table table;
+
+    UuidMap() {
+        this(MIN_CAPACITY);
+    }
+
+    UuidMap(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+    }
+
+    V get(UniqueId<?> id) {
+        return get(id.id().getMostSignificantBits(), id.id().getLeastSignificantBits());
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long mostSignificantBits, long leastSignificantBits) {
+        Table current = table;
+        int slot = current.find(mostSignificantBits, leastSignificantBits);
+        int probes = 0;
+        while (true) {
+            // Read the value first: if it is there, so is its key
+            Object value = current.values.get(slot);
+            if (value == null || value == RESERVED) {
+                return null;
+            }
+            boolean matches = current.holds(slot, value, mostSignificantBits, leastSignificantBits);
+            if (matches && !(value instanceof Moved)) {
+                return (V) value;
+            }
+            slot = current.probe(slot);
+            // The entry lives on in the next table if its slot was moved, or was not there to be moved
+            boolean moved = matches || value == TOMBSTONE || ++probes == current.values.length();
+            if (moved) {
+                current = current.next;
+                if (current == null) {
+                    return null;
+                }
+                slot = current.find(mostSignificantBits, leastSignificantBits);
+                probes = 0;
+            }
+        }
+    }
+
+    /**
+     * Returns the value already mapped to the id, or null if there was none and the given value was added.
+     */
+    V putIfAbsent(UniqueId<?> id, V value) {
+        return insert(table, id.id().getMostSignificantBits(), id.id().getLeastSignificantBits(), value,
+                      Insert.ADD);
+    }
+
+    void put(UniqueId<?> id, V value) {
+        insert(table, id.id().getMostSignificantBits(), id.id().getLeastSignificantBits(), value, Insert.REPLACE);
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    /**
+     * Iterates over the values, following the tables a growing map links to, so that every value in the map
+     * when this is called is seen exactly once, and so are most of those added while iterating. An entry in a
+     * later table is skipped if its key is in an earlier one, as it was seen there, frozen or not.
+     */
+    Iterable<V> values() {
+        Table first = table;
+        return () -> new Iterator<V>() {
+            private Table current = first;
+            private int slot = -1;
+            private Object next = advance();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public V next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Object value = next;
+                next = advance();
+                return (V) (value instanceof Moved ? ((Moved) value).value : value);
+            }
+
+            private Object advance() {
+                while (current != null) {
+                    while (++slot < current.values.length()) {
+                        Object value = current.values.get(slot);
+                        if (holdsValue(value) && !seenBefore(first, current, slot)) {
+                            return value;
+                        }
+                    }
+                    current = current.next;
+                    slot = -1;
+                }
+                return null;
+            }
+        };
+    }
+
+    private static boolean holdsValue(Object value) {
+        return value != null && value != RESERVED && value != TOMBSTONE;
+    }
+
+    /**
+     * Returns whether the key in the slot of a table is in any of the tables from the first up to that one.
+     */
+    private static boolean seenBefore(Table first, Table current, int slot) {
+        long mostSignificantBits = current.keys[2 * slot];
+        long leastSignificantBits = current.keys[2 * slot + 1];
+        for (Table earlier = first; earlier != current; earlier = earlier.next) {
+            if (earlier.contains(mostSignificantBits, leastSignificantBits)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V insert(Table start, long mostSignificantBits, long leastSignificantBits, V value, Insert mode) {
+        Preconditions.checkNotNull(value, "value");
+        Table current = start;
+        int slot = current.find(mostSignificantBits, leastSignificantBits);
+        int probes = 0;
+        while (true) {
+            Object existing = current.values.get(slot);
+            if (existing == null) {
+                if (claim(current, slot, mostSignificantBits, leastSignificantBits, value, mode)) {
+                    return null;
+                }
+                // Lost the slot to another writer, or the table started growing under us
+            } else if (existing == RESERVED) {
+                // The key is about to be written, and may be ours
+                Thread.yield();
+            } else if (existing == TOMBSTONE) {
+                current = current.next;
+                slot = current.find(mostSignificantBits, leastSignificantBits);
+                probes = 0;
+            } else if (!current.holds(slot, existing, mostSignificantBits, leastSignificantBits)) {
+                slot = current.probe(slot);
+                if (++probes == current.values.length()) {
+                    // Writers that raced the load factor check filled the table up
+                    grow(current);
+                    current = current.next;
+                    slot = current.find(mostSignificantBits, leastSignificantBits);
+                    probes = 0;
+                }
+            } else if (existing instanceof Moved) {
+                // Make sure the entry has made it to the next table before changing it there
+                current = current.next;
+                insert(current, mostSignificantBits, leastSignificantBits, (V) ((Moved) existing).value, Insert.COPY);
+                slot = current.find(mostSignificantBits, leastSignificantBits);
+                probes = 0;
+            } else if (update(current, slot, existing, value, mode)) {
+                return (V) existing;
+            }
+        }
+    }
+
+    /**
+     * Replaces the value in the slot if asked to, and returns whether the slot still held the value it was
+     * replacing.
+     */
+    private static boolean update(Table current, int slot, Object existing, Object value, Insert mode) {
+        return mode != Insert.REPLACE || current.values.compareAndSet(slot, existing, value);
+    }
+
+    /**
+     * Claims the empty slot for the key, and publishes the value in it unless the table has started growing,
+     * in which case the slot is frozen empty and the caller has to go on in the next table.
+     */
+    private boolean claim(Table current, int slot, long mostSignificantBits, long leastSignificantBits, V value,
+                          Insert mode) {
+        if (!current.values.compareAndSet(slot, null, RESERVED)) {
+            return false;
+        }
+        // Growing links the next table before it freezes any slot, so either it sees our claim and waits for
+        // the value, or we see the next table and leave the slot to it
+        if (current.next != null) {
+            current.values.set(slot, TOMBSTONE);
+            return false;
+        }
+        current.keys[2 * slot] = mostSignificantBits;
+        current.keys[2 * slot + 1] = leastSignificantBits;
+        // Publishes the key along with the value
+        current.values.set(slot, value);
+        if (mode != Insert.COPY && 4L * size.incrementAndGet() > 3L * current.values.length()) {
+            grow(current);
+        }
+        return true;
+    }
+
+    /**
+     * Links a table twice the size behind the given one and moves every entry over to it, unless someone else
+     * already has. Nobody waits for it: whoever needs a slot that was moved follows the link.
+     */
+    @SuppressWarnings("unchecked")
+    private void grow(Table current) {
+        if (current.next != null) {
+            return;
+        }
+        Preconditions.checkState(current.values.length() < MAX_CAPACITY, "Map is full: %s entries", size.get());
+        if (!Table.NEXT.compareAndSet(current, null, new Table(current.values.length() * 2))) {
+            return;
+        }
+        for (int slot = 0; slot < current.values.length(); slot++) {
+            Object value = freeze(current, slot);
+            if (value != null) {
+                insert(current.next, current.keys[2 * slot], current.keys[2 * slot + 1], (V) value, Insert.COPY);
+            }
+        }
+        current.moved = true;
+
+        // Readers and writers start from the first table that has not been moved on from
+        Table latest = table;
+        while (latest.moved) {
+            TABLE.compareAndSet(this, latest, latest.next);
+            latest = table;
+        }
+    }
+
+    /**
+     * Freezes the slot so that nobody changes it in this table any more, and returns the value it froze.
+     */
+    private static Object freeze(Table current, int slot) {
+        while (true) {
+            Object value = current.values.get(slot);
+            if (value == RESERVED) {
+                Thread.yield();
+            } else if (value == null) {
+                if (current.values.compareAndSet(slot, null, TOMBSTONE)) {
+                    return null;
+                }
+            } else if (value == TOMBSTONE) {
+                return null;
+            } else if (current.values.compareAndSet(slot, value, new Moved(value))) {
+                return value;
+            }
+        }
+    }
+
+    static int hash(long mostSignificantBits, long leastSignificantBits) {
+        // Random UUIDs are well spread already, but time-ordered ones are not
+        long hash = (mostSignificantBits * 0x9e3779b97f4a7c15L ^ leastSignificantBits) * 0xbf58476d1ce4e5b9L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < MAX_CAPACITY && 3L * capacity < 4L * expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private enum Insert {
+        ADD,
+        REPLACE,
+        // Moving an entry to the next table: whatever is there already is newer
+        COPY
+    }
+
+    /**
+     * A frozen slot, whose entry lives on in the next table.
+     */
+    private static final class Moved {
+
+        private final Object value;
+
+        private Moved(Object value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Table {
+
+        private static final AtomicReferenceFieldUpdater<Table, Table> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Table.class, Table.class, "next");
+
+        private final long[] keys;
+        private final AtomicReferenceArray<Object> values;
+        private volatile Table next;
+        private volatile boolean moved;
+
+        private Table(int capacity) {
+            this.keys = new long[2 * capacity];
+            this.values = new AtomicReferenceArray<>(capacity);
+        }
+
+        private int find(long mostSignificantBits, long leastSignificantBits) {
+            return hash(mostSignificantBits, leastSignificantBits) & (values.length() - 1);
+        }
+
+        private int probe(int slot) {
+            return (slot + 1) & (values.length() - 1);
+        }
+
+        /**
+         * Returns whether any slot holds the key, frozen or not. Probes past frozen empty slots, as the key may
+         * have been added beyond one before it was frozen.
+         */
+        private boolean contains(long mostSignificantBits, long leastSignificantBits) {
+            int slot = find(mostSignificantBits, leastSignificantBits);
+            for (int probes = 0; probes < values.length(); probes++) {
+                Object value = values.get(slot);
+                if (value == null) {
+                    return false;
+                }
+                if (value != RESERVED && holds(slot, value, mostSignificantBits, leastSignificantBits)) {
+                    return true;
+                }
+                slot = probe(slot);
+            }
+            return false;
+        }
+
+        /**
+         * Returns whether the slot, which was found to hold the given value, holds the key.
+         */
+        private boolean holds(int slot, Object value, long mostSignificantBits, long leastSignificantBits) {
+            return value != TOMBSTONE
+                   && keys[2 * slot] == mostSignificantBits
+                   && keys[2 * slot + 1] == leastSignificantBits;
+        }
+    }
+}
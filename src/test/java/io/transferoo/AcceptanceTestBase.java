@@ -34,15 +34,21 @@ import io.dropwizard.testing.junit.DropwizardAppRule;
 import io.dropwizard.util.Duration;
 import io.transferoo.api.Account;
 import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
 import io.transferoo.api.ErrorCode;
 import io.transferoo.api.Transaction;
 import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
 import io.transferoo.api.TransferooError;
 import io.transferoo.api.UniqueId;
 import io.transferoo.resource.TransferooEndpoints;
+import java.util.List;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import org.eclipse.jetty.http.HttpStatus;
@@ -90,10 +96,43 @@ public abstract class AcceptanceTestBase {
                        .get();
     }
 
+    protected Response getAccountResponse(UniqueId<Account> accountId, EntityTag ifNoneMatch) {
+        return target().path(TransferooEndpoints.ACCOUNT_RESOURCE + "/{id}")
+                       .resolveTemplate("id", accountId.id().toString())
+                       .request(MediaType.APPLICATION_JSON_TYPE)
+                       .header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch)
+                       .get();
+    }
+
     protected Account getAccount(UniqueId<Account> accountId) {
         return getAccountResponse(accountId).readEntity(Account.class);
     }
 
+    protected Response getAccountsResponse(List<UniqueId<Account>> accountIds) {
+        WebTarget target = target().path(TransferooEndpoints.ACCOUNT_RESOURCE);
+        for (UniqueId<Account> accountId : accountIds) {
+            target = target.queryParam("id", accountId.id().toString());
+        }
+        return target.request(MediaType.APPLICATION_JSON_TYPE)
+                     .get();
+    }
+
+    protected Response getTransactionsResponse(UniqueId<Account> accountId, long after, int limit) {
+        return target().path(TransferooEndpoints.ACCOUNT_RESOURCE + "/{id}/" + TransferooEndpoints.TRANSACTION_RESOURCE)
+                       .resolveTemplate("id", accountId.id().toString())
+                       .queryParam("after", after)
+                       .queryParam("limit", limit)
+                       .request(MediaType.APPLICATION_JSON_TYPE)
+                       .get();
+    }
+
+    protected Response getStatementResponse(UniqueId<Account> accountId, String mediaType) {
+        return target().path(TransferooEndpoints.ACCOUNT_RESOURCE + "/{id}/" + TransferooEndpoints.STATEMENT_PATH)
+                       .resolveTemplate("id", accountId.id().toString())
+                       .request(mediaType)
+                       .get();
+    }
+
     protected Response getTransactionResponse(UniqueId<Transaction> transactionId) {
         return target().path(TransferooEndpoints.TRANSACTION_RESOURCE + "/{id}")
                        .resolveTemplate("id", transactionId.id().toString())
@@ -118,6 +157,27 @@ public abstract class AcceptanceTestBase {
                        .post(Entity.entity(metadata, MediaType.APPLICATION_JSON_TYPE));
     }
 
+    protected Response tryCreateTransaction(TransactionMetadata metadata, String idempotencyKey) {
+        return target().path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                       .request()
+                       .header(TransferooEndpoints.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                       .post(Entity.entity(metadata, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    protected Response tryCreateTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        return target().path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                       .path(TransferooEndpoints.BATCH_PATH)
+                       .queryParam("mode", mode)
+                       .request()
+                       .post(Entity.entity(batch, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    protected List<TransactionResult> createTransactions(List<TransactionMetadata> batch, BatchMode mode) {
+        Response response = tryCreateTransactions(batch, mode);
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK_200);
+        return response.readEntity(new GenericType<List<TransactionResult>>() {});
+    }
+
     protected void expectError(ErrorCode errorCode, String message, Response response) {
         assertThat(response.getStatusInfo().getStatusCode()).isEqualTo(errorCode.getStatus().getStatusCode());
         TransferooError expectedError = TransferooError.of(message, errorCode);
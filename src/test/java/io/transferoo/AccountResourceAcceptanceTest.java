@@ -26,18 +26,31 @@ package io.transferoo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.jackson.Jackson;
 import io.transferoo.api.Account;
 import io.transferoo.api.AccountMetadata;
 import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
 import io.transferoo.api.UniqueId;
 import io.transferoo.resource.TransferooEndpoints;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import org.junit.Test;
 
 public class AccountResourceAcceptanceTest extends AcceptanceTestBase {
 
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
     private final AccountMetadata accountMetadata = AccountMetadata.builder()
                                                                    .balance(new BigDecimal(10.50))
                                                                    .build();
@@ -61,6 +74,24 @@ public class AccountResourceAcceptanceTest extends AcceptanceTestBase {
         assertThat(actualAccount).isEqualTo(createAccount);
     }
 
+    @Test
+    public void getAccount_should_answer_unchanged_version_with_not_modified() {
+        Account source = createAccount(accountMetadata);
+        Response first = getAccountResponse(source.id());
+        EntityTag tag = first.getEntityTag();
+        assertThat(first.readEntity(Account.class).version()).isZero();
+
+        Response unchanged = getAccountResponse(source.id(), tag);
+        assertThat(unchanged.getStatus()).isEqualTo(Response.Status.NOT_MODIFIED.getStatusCode());
+        assertThat(unchanged.hasEntity()).isFalse();
+
+        createTransactions(source, 2);
+        Response changed = getAccountResponse(source.id(), tag);
+        assertThat(changed.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        assertThat(changed.getEntityTag()).isNotEqualTo(tag);
+        assertThat(changed.readEntity(Account.class).version()).isEqualTo(2);
+    }
+
     @Test
     public void getAccount_should_fail_for_unknown_id() {
         UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
@@ -69,6 +100,83 @@ public class AccountResourceAcceptanceTest extends AcceptanceTestBase {
                     getAccountResponse(accountId));
     }
 
+    @Test
+    public void getAccounts_should_lookup_all_accounts_in_order() {
+        Account first = createAccount(accountMetadata);
+        Account second = createAccount(accountMetadata);
+        List<Account> actualAccounts = getAccountsResponse(ImmutableList.of(second.id(), first.id()))
+                .readEntity(new GenericType<List<Account>>() {});
+        assertThat(actualAccounts).containsExactly(second, first);
+    }
+
+    @Test
+    public void getAccounts_should_fail_if_any_id_is_unknown() {
+        Account account = createAccount(accountMetadata);
+        UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
+        expectError(ErrorCode.AccountNotFound,
+                    "Account not found: " + accountId.id().toString(),
+                    getAccountsResponse(ImmutableList.of(account.id(), accountId)));
+    }
+
+    @Test
+    public void getTransactions_should_page_through_account_transactions() {
+        Account source = createAccount(accountMetadata);
+        List<Transaction> transactions = createTransactions(source, 3);
+        UniqueId<Account> destination = transactions.get(0).metadata().destination();
+
+        TransactionPage first = getTransactionsResponse(source.id(), 0, 2).readEntity(TransactionPage.class);
+        assertThat(first.transactions()).isEqualTo(transactions.subList(0, 2));
+        TransactionPage second = getTransactionsResponse(destination, first.next(), 2)
+                .readEntity(TransactionPage.class);
+        assertThat(second.transactions()).isEqualTo(transactions.subList(2, 3));
+        assertThat(second.next()).isEqualTo(3);
+    }
+
+    @Test
+    public void getTransactions_should_fail_for_unknown_id() {
+        UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
+        expectError(ErrorCode.AccountNotFound,
+                    "Account not found: " + accountId.id().toString(),
+                    getTransactionsResponse(accountId, 0, 10));
+    }
+
+    @Test
+    public void getStatement_should_stream_transactions_as_json_lines() throws Exception {
+        Account source = createAccount(accountMetadata);
+        List<Transaction> transactions = createTransactions(source, 3);
+
+        Response response = getStatementResponse(source.id(), TransferooEndpoints.JSON_LINES);
+
+        assertThat(response.getHeaderString(TransferooEndpoints.BALANCE_HEADER)).isEqualTo("7.5");
+        List<Transaction> actual = new ArrayList<>();
+        for (String line : response.readEntity(String.class).split("\n")) {
+            actual.add(MAPPER.readValue(line, Transaction.class));
+        }
+        assertThat(actual).isEqualTo(transactions);
+    }
+
+    @Test
+    public void getStatement_should_stream_transactions_as_csv() {
+        Account source = createAccount(accountMetadata);
+        List<Transaction> transactions = createTransactions(source, 2);
+
+        Response response = getStatementResponse(source.id(), TransferooEndpoints.CSV);
+
+        assertThat(response.getHeaderString(TransferooEndpoints.BALANCE_HEADER)).isEqualTo("8.5");
+        assertThat(response.readEntity(String.class).split("\n")).containsExactly(
+                "id,sourceAccount,destinationAccount,amount",
+                csv(transactions.get(0)),
+                csv(transactions.get(1)));
+    }
+
+    @Test
+    public void getStatement_should_fail_for_unknown_id() {
+        UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
+        expectError(ErrorCode.AccountNotFound,
+                    "Account not found: " + accountId.id().toString(),
+                    getStatementResponse(accountId, TransferooEndpoints.CSV));
+    }
+
     @Test
     public void getAccount_should_fail_for_incorrectly_formed_uuid() {
         String wrongId = "asd";
@@ -79,4 +187,22 @@ public class AccountResourceAcceptanceTest extends AcceptanceTestBase {
                             .request(MediaType.APPLICATION_JSON_TYPE)
                             .get());
     }
+
+    private List<Transaction> createTransactions(Account source, int count) {
+        Account destination = createAccount(accountMetadata);
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            transactions.add(createTransaction(TransactionMetadata.builder()
+                                                                  .source(source.id())
+                                                                  .destination(destination.id())
+                                                                  .amount(BigDecimal.ONE)
+                                                                  .build()));
+        }
+        return transactions;
+    }
+
+    private static String csv(Transaction transaction) {
+        return transaction.id().id() + "," + transaction.metadata().source().id() + ","
+             + transaction.metadata().destination().id() + "," + transaction.metadata().amount();
+    }
 }
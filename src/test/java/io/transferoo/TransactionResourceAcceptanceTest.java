@@ -26,17 +26,32 @@ package io.transferoo;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import io.transferoo.api.Account;
 import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
 import io.transferoo.api.ErrorCode;
 import io.transferoo.api.Transaction;
 import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
 import io.transferoo.api.UniqueId;
 import io.transferoo.resource.TransferooEndpoints;
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.eclipse.jetty.http.HttpStatus;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -102,6 +117,15 @@ public class TransactionResourceAcceptanceTest extends AcceptanceTestBase {
         checkAmountNonPositive(metadata);
     }
 
+    @Test
+    public void createTransaction_should_fail_if_transaction_amount_is_too_precise() {
+        TransactionMetadata metadata = transaction().amount(new BigDecimal("0.000000001"))
+                                                    .build();
+        expectError(ErrorCode.AmountOutOfRange,
+                    "Amount must have at most 8 decimal places and be within range: amount=" + metadata.amount(),
+                    tryCreateTransaction(metadata));
+    }
+
     @Test
     public void createTransaction_should_fail_for_unknown_source_transaction() {
         UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
@@ -129,6 +153,34 @@ public class TransactionResourceAcceptanceTest extends AcceptanceTestBase {
                     tryCreateTransaction(transactionMetadata));
     }
 
+    @Test
+    public void createTransaction_should_fail_if_source_version_is_stale() {
+        long version = getAccount(sourceAccount.id()).version();
+        createTransaction(transaction().amount(BigDecimal.ONE).build());
+
+        expectError(ErrorCode.AccountVersionConflict,
+                    "Expected source account at version " + version + " but it is at version " + (version + 1)
+                  + ": " + sourceAccount.id().id().toString(),
+                    tryCreateTransaction(transaction().amount(BigDecimal.ONE).expectedSourceVersion(version).build()));
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(BigDecimal.ONE));
+    }
+
+    @Test
+    public void createTransaction_should_succeed_if_expected_versions_match() {
+        TransactionMetadata unconditional = transaction().amount(BigDecimal.ONE).build();
+        TransactionMetadata metadata = transaction().from(unconditional)
+                                                    .expectedSourceVersion(getAccount(sourceAccount.id()).version())
+                                                    .expectedDestinationVersion(
+                                                            getAccount(destinationAccount.id()).version())
+                                                    .build();
+
+        Transaction transaction = createTransaction(metadata);
+
+        assertThat(transaction.metadata()).isEqualTo(unconditional);
+        assertThat(getTransaction(transaction.id())).isEqualTo(transaction);
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(BigDecimal.ONE));
+    }
+
     @Test
     public void createTransaction_should_succeed_if_source_has_enough_balance() {
         checkTransaction(sourceAccountBalance.subtract(BigDecimal.ONE));
@@ -139,6 +191,129 @@ public class TransactionResourceAcceptanceTest extends AcceptanceTestBase {
         checkTransaction(sourceAccountBalance);
     }
 
+    @Test
+    public void createTransactions_should_apply_atomic_batch() {
+        BigDecimal amount = sourceAccountBalance.subtract(BigDecimal.ONE);
+        List<TransactionMetadata> batch = ImmutableList.of(transaction().amount(BigDecimal.ONE).build(),
+                                                           transaction().amount(amount).build());
+
+        List<TransactionResult> results = createTransactions(batch, BatchMode.ATOMIC);
+
+        assertThat(results).extracting(result -> result.transaction().metadata()).isEqualTo(batch);
+        for (TransactionResult result : results) {
+            assertThat(getTransaction(result.transaction().id())).isEqualTo(result.transaction());
+        }
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(sourceAccountBalance));
+        checkBalance(destinationAccount, (originalBalance) -> originalBalance.add(sourceAccountBalance));
+    }
+
+    @Test
+    public void createTransactions_should_fail_atomic_batch_if_any_transaction_fails() {
+        TransactionMetadata tooMuch = transaction().amount(BigDecimal.ONE).build();
+        expectError(ErrorCode.InsufficientBalance,
+                    "Unsufficient balance: amount=" + tooMuch.amount() + ", balance=0.0",
+                    tryCreateTransactions(ImmutableList.of(transaction().build(), tooMuch), BatchMode.ATOMIC));
+
+        checkBalance(sourceAccount, Function.identity());
+        checkBalance(destinationAccount, Function.identity());
+    }
+
+    @Test
+    public void createTransactions_should_reject_batch_above_maximum_size() {
+        List<TransactionMetadata> batch = Collections.nCopies(1001, transaction().amount(BigDecimal.ONE).build());
+        expectError(ErrorCode.BatchTooLarge, "Batches must have at most 1000 transfers: size=1001",
+                    tryCreateTransactions(batch, BatchMode.BEST_EFFORT));
+
+        checkBalance(sourceAccount, Function.identity());
+    }
+
+    @Test
+    public void createTransactions_should_report_each_result_of_best_effort_batch() {
+        TransactionMetadata tooMuch = transaction().amount(sourceAccountBalance.add(BigDecimal.ONE)).build();
+        List<TransactionResult> results = createTransactions(ImmutableList.of(tooMuch, transaction().build()),
+                                                             BatchMode.BEST_EFFORT);
+
+        assertThat(results.get(0).error()).isEqualTo(TransferooError.of("Unsufficient balance: amount="
+                                                                        + tooMuch.amount()
+                                                                        + ", balance=" + sourceAccountBalance,
+                                                                        ErrorCode.InsufficientBalance));
+        assertThat(results.get(1).transaction().metadata()).isEqualTo(transaction().build());
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(sourceAccountBalance));
+    }
+
+    @Test
+    public void createTransaction_should_replay_transaction_for_same_idempotency_key() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        TransactionMetadata metadata = transaction().amount(BigDecimal.ONE).build();
+
+        Response first = tryCreateTransaction(metadata, idempotencyKey);
+        Response retry = tryCreateTransaction(metadata, idempotencyKey);
+
+        assertThat(first.getStatus()).isEqualTo(HttpStatus.CREATED_201);
+        assertThat(retry.getStatus()).isEqualTo(HttpStatus.CREATED_201);
+        assertThat(retry.getLocation()).isEqualTo(first.getLocation());
+        assertThat(retry.readEntity(Transaction.class)).isEqualTo(first.readEntity(Transaction.class));
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(BigDecimal.ONE));
+    }
+
+    @Test
+    public void createTransaction_should_replay_error_for_same_idempotency_key() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        TransactionMetadata metadata = transaction().amount(sourceAccountBalance.add(BigDecimal.ONE)).build();
+        String message = "Unsufficient balance: amount=" + metadata.amount() + ", balance=" + sourceAccountBalance;
+        expectError(ErrorCode.InsufficientBalance, message, tryCreateTransaction(metadata, idempotencyKey));
+
+        // Enough balance now, but the retry still gets the original outcome
+        createTransaction(TransactionMetadata.builder()
+                                             .source(destinationAccount.id())
+                                             .destination(sourceAccount.id())
+                                             .amount(BigDecimal.TEN)
+                                             .build());
+
+        expectError(ErrorCode.InsufficientBalance, message, tryCreateTransaction(metadata, idempotencyKey));
+    }
+
+    @Test
+    public void createTransaction_should_fail_if_idempotency_key_is_reused_for_another_transfer() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        tryCreateTransaction(transaction().amount(BigDecimal.ONE).build(), idempotencyKey);
+
+        expectError(ErrorCode.IdempotencyKeyReused,
+                    "Idempotency key was already used for a different request: " + idempotencyKey,
+                    tryCreateTransaction(transaction().amount(BigDecimal.TEN).build(), idempotencyKey));
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(BigDecimal.ONE));
+    }
+
+    @Test
+    public void createTransaction_should_fail_for_too_long_idempotency_key() {
+        expectError(ErrorCode.InvalidIdempotencyKey,
+                    "Idempotency key must be between 1 and 255 characters long",
+                    tryCreateTransaction(transaction().build(), Strings.repeat("k", 256)));
+        checkBalance(sourceAccount, Function.identity());
+    }
+
+    @Test
+    public void createTransaction_should_apply_concurrent_duplicates_once() throws Exception {
+        String idempotencyKey = UUID.randomUUID().toString();
+        TransactionMetadata metadata = transaction().amount(BigDecimal.ONE).build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Transaction>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> tryCreateTransaction(metadata, idempotencyKey)
+                        .readEntity(Transaction.class)));
+            }
+            Set<Transaction> transactions = new HashSet<>();
+            for (Future<Transaction> future : futures) {
+                transactions.add(future.get());
+            }
+            assertThat(transactions).hasSize(1);
+        } finally {
+            executor.shutdown();
+        }
+        checkBalance(sourceAccount, (originalBalance) -> originalBalance.subtract(BigDecimal.ONE));
+    }
+
     private void checkAmountNonPositive(TransactionMetadata metadata) {
         expectError(ErrorCode.TransactionAmountNonPositive,
                     "Amount must be greater than zero: amount=" + metadata.amount(),
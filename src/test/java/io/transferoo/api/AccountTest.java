@@ -41,6 +41,7 @@ public class AccountTest {
             .metadata(AccountMetadata.builder()
                                      .balance(new BigDecimal("10.23"))
                                      .build())
+            .version(3)
             .build();
     private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
     private static final String FIXTURE = "fixtures/Account.json";
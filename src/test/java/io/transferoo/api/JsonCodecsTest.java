@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.exc.UnrecognizedPropertyException;
+import io.dropwizard.jackson.Jackson;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.UUID;
+import org.junit.Test;
+
+public class JsonCodecsTest {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final String ID = "d3c02886-2c36-450c-86cf-e199b3ecd333";
+
+    @Test
+    public void should_write_ids_and_decimals_as_their_string_forms() throws Exception {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            UUID id = new UUID(random.nextLong(), random.nextLong());
+            BigDecimal balance = new BigDecimal(BigInteger.valueOf(random.nextLong() >> random.nextInt(64)),
+                                                random.nextInt(40) - 10);
+
+            String json = MAPPER.writeValueAsString(account(id, balance, i));
+
+            assertThat(json).isEqualTo("{\"id\":\"" + id + "\",\"balance\":" + balance + ",\"version\":" + i + "}");
+            assertThat(MAPPER.readValue(json, Account.class)).isEqualTo(account(id, balance, i));
+        }
+    }
+
+    @Test
+    public void should_write_plain_decimals_when_configured() throws Exception {
+        String json = MAPPER.writer()
+                            .with(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN)
+                            .writeValueAsString(AccountMetadata.builder().balance(new BigDecimal("1E-8")).build());
+
+        assertThat(json).isEqualTo("{\"balance\":0.00000001}");
+    }
+
+    @Test
+    public void should_read_decimals_exactly() throws Exception {
+        String amount = "0.1000000000000000055511151231257827";
+
+        Account account = MAPPER.readValue("{\"id\":\"" + ID + "\",\"balance\":" + amount + "}", Account.class);
+
+        assertThat(account.metadata().balance()).isEqualTo(new BigDecimal(amount));
+    }
+
+    @Test
+    public void should_write_expected_versions_only_when_set() throws Exception {
+        TransactionMetadata unconditional = TransactionMetadata.builder()
+                                                               .source(UniqueId.valueOf(ID))
+                                                               .destination(UniqueId.valueOf(ID))
+                                                               .amount(BigDecimal.ONE)
+                                                               .build();
+        TransactionMetadata conditional = TransactionMetadata.builder()
+                                                             .from(unconditional)
+                                                             .expectedDestinationVersion(7L)
+                                                             .build();
+
+        String json = MAPPER.writeValueAsString(conditional);
+
+        assertThat(MAPPER.writeValueAsString(unconditional)).doesNotContain("expected");
+        assertThat(json).endsWith(",\"expectedDestinationVersion\":7}");
+        assertThat(MAPPER.readValue(json, TransactionMetadata.class)).isEqualTo(conditional);
+    }
+
+    @Test
+    public void should_read_ids_in_any_form_uuid_accepts() throws Exception {
+        Account account = MAPPER.readValue("{\"id\":\"1-1-1-1-1\",\"balance\":\"1\"}", Account.class);
+
+        assertThat(account.id()).isEqualTo(UniqueId.valueOf("00000001-0001-0001-0001-000000000001"));
+        assertThat(MAPPER.readValue("\"" + ID.toUpperCase() + "\"", UniqueId.class)).isEqualTo(UniqueId.valueOf(ID));
+    }
+
+    @Test
+    public void should_reject_invalid_unknown_and_missing_properties() {
+        assertThatThrownBy(() -> MAPPER.readValue("{\"id\":\"zz\",\"balance\":1}", Account.class))
+                .isInstanceOf(JsonMappingException.class);
+        assertThatThrownBy(() -> MAPPER.readValue("{\"id\":\"" + ID + "\",\"balance\":1,\"x\":1}", Account.class))
+                .isInstanceOf(UnrecognizedPropertyException.class);
+        assertThatThrownBy(() -> MAPPER.readValue("{\"id\":\"" + ID + "\",\"amount\":1}", Transaction.class))
+                .isInstanceOf(JsonMappingException.class)
+                .hasMessageContaining("sourceAccount");
+        assertThatThrownBy(() -> MAPPER.readValue("[]", TransactionMetadata.class))
+                .isInstanceOf(JsonMappingException.class);
+    }
+
+    private static Account account(UUID id, BigDecimal balance, long version) {
+        return Account.builder()
+                      .id(UniqueId.of(id))
+                      .metadata(AccountMetadata.builder().balance(balance).build())
+                      .version(version)
+                      .build();
+    }
+}
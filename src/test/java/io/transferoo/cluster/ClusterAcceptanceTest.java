@@ -0,0 +1,254 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import io.transferoo.TransferooConfiguration;
+import io.transferoo.api.Account;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.UniqueId;
+import io.transferoo.resource.TransferooEndpoints;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClusterAcceptanceTest extends ClusterTestBase {
+
+    private Account onNode1;
+    private Account onNode2;
+
+    @Before
+    public void before() {
+        onNode1 = createAccountOn("node-1", NODE_2, new BigDecimal("10"));
+        onNode2 = createAccountOn("node-2", NODE_1, new BigDecimal("100"));
+    }
+
+    @Test
+    public void accounts_should_be_readable_through_every_node() {
+        for (DropwizardAppRule<TransferooConfiguration> node : NODES) {
+            Account account = createAccount(node, BigDecimal.ONE);
+            for (DropwizardAppRule<TransferooConfiguration> other : NODES) {
+                assertThat(getAccount(other, account.id())).isEqualTo(account);
+            }
+        }
+    }
+
+    @Test
+    public void getAccount_should_fail_for_unknown_id_on_every_node() {
+        UniqueId<Account> accountId = UniqueId.of(UUID.randomUUID());
+        for (DropwizardAppRule<TransferooConfiguration> node : NODES) {
+            expectError(ErrorCode.AccountNotFound, getAccountResponse(node, accountId));
+        }
+    }
+
+    @Test
+    public void transfer_across_nodes_should_change_both_accounts() {
+        Transaction transaction = createTransaction(NODE_3, transfer(onNode1, onNode2, "4"));
+
+        for (DropwizardAppRule<TransferooConfiguration> node : NODES) {
+            Account source = getAccount(node, onNode1.id());
+            assertThat(source.metadata().balance()).isEqualByComparingTo("6");
+            assertThat(source.version()).isEqualTo(1);
+            Account destination = getAccount(node, onNode2.id());
+            assertThat(destination.metadata().balance()).isEqualByComparingTo("104");
+            assertThat(destination.version()).isEqualTo(1);
+
+            Response response = getTransactionResponse(node, transaction.id());
+            assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+            assertThat(response.readEntity(Transaction.class)).isEqualTo(transaction);
+        }
+    }
+
+    @Test
+    public void transfer_across_nodes_should_go_both_ways() {
+        createTransaction(NODE_1, transfer(onNode2, onNode1, "90"));
+        createTransaction(NODE_2, transfer(onNode1, onNode2, "100"));
+
+        assertThat(getAccount(NODE_1, onNode1.id()).metadata().balance()).isEqualByComparingTo("0");
+        assertThat(getAccount(NODE_2, onNode2.id()).metadata().balance()).isEqualByComparingTo("110");
+    }
+
+    @Test
+    public void rejected_transfer_across_nodes_should_leave_accounts_as_they_were() {
+        expectError(ErrorCode.InsufficientBalance, tryCreateTransaction(NODE_2, transfer(onNode1, onNode2, "11")));
+
+        TransactionMetadata conditional = TransactionMetadata.builder()
+                                                             .from(transfer(onNode1, onNode2, "10"))
+                                                             .expectedDestinationVersion(5L)
+                                                             .build();
+        expectError(ErrorCode.AccountVersionConflict, tryCreateTransaction(NODE_1, conditional));
+
+        // Nothing stays reserved
+        createTransaction(NODE_1, transfer(onNode1, onNode2, "10"));
+        assertThat(getAccount(NODE_3, onNode1.id()).metadata().balance()).isEqualByComparingTo("0");
+        assertThat(getAccount(NODE_3, onNode2.id()).metadata().balance()).isEqualByComparingTo("110");
+    }
+
+    @Test
+    public void idempotency_key_should_be_remembered_by_the_node_making_the_transfer() {
+        String idempotencyKey = UUID.randomUUID().toString();
+        TransactionMetadata metadata = transfer(onNode1, onNode2, "4");
+
+        Response first = tryCreateTransaction(NODE_2, metadata, idempotencyKey);
+        Response retry = tryCreateTransaction(NODE_3, metadata, idempotencyKey);
+
+        assertThat(first.getStatus()).isEqualTo(Response.Status.CREATED.getStatusCode());
+        assertThat(retry.getStatus()).isEqualTo(Response.Status.CREATED.getStatusCode());
+        assertThat(retry.readEntity(Transaction.class)).isEqualTo(first.readEntity(Transaction.class));
+        assertThat(getAccount(NODE_1, onNode1.id()).metadata().balance()).isEqualByComparingTo("6");
+    }
+
+    @Test
+    public void atomic_batch_across_nodes_should_be_rejected() {
+        List<TransactionMetadata> batch = ImmutableList.of(transfer(onNode1, onNode2, "1"));
+        expectError(ErrorCode.BatchAcrossNodes, tryCreateTransactions(NODE_3, batch, BatchMode.ATOMIC));
+
+        assertThat(getAccount(NODE_1, onNode1.id()).version()).isEqualTo(0);
+    }
+
+    @Test
+    public void atomic_batch_within_node_should_be_applied_through_any_node() {
+        Account other = createAccountOn("node-2", NODE_1, BigDecimal.ZERO);
+        List<TransactionMetadata> batch = ImmutableList.of(transfer(onNode2, other, "30"),
+                                                           transfer(other, onNode2, "10"));
+
+        Response response = tryCreateTransactions(NODE_1, batch, BatchMode.ATOMIC);
+        assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        assertThat(getAccount(NODE_3, other.id()).metadata().balance()).isEqualByComparingTo("20");
+    }
+
+    @Test
+    public void best_effort_batch_across_nodes_should_report_each_transfer() {
+        List<TransactionMetadata> batch = ImmutableList.of(transfer(onNode1, onNode2, "6"),
+                                                           transfer(onNode1, onNode2, "6"),
+                                                           transfer(onNode2, onNode1, "1"));
+
+        Response response = tryCreateTransactions(NODE_3, batch, BatchMode.BEST_EFFORT);
+        assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        List<TransactionResult> results = response.readEntity(new GenericType<List<TransactionResult>>() {});
+        assertThat(results).hasSize(3);
+        assertThat(results.get(0).transaction()).isNotNull();
+        assertThat(results.get(1).error().errorCode()).isEqualTo(ErrorCode.InsufficientBalance);
+        assertThat(results.get(2).transaction()).isNotNull();
+        assertThat(getAccount(NODE_1, onNode1.id()).metadata().balance()).isEqualByComparingTo("5");
+    }
+
+    @Test
+    public void cluster_endpoints_should_not_be_served_on_the_public_port() {
+        for (DropwizardAppRule<TransferooConfiguration> node : NODES) {
+            WebTarget publicPort = target(node).path("..");
+            for (String context : ImmutableList.of("api", "admin")) {
+                Response response = publicPort.path(context)
+                                              .path(TransferooEndpoints.CLUSTER_RESOURCE)
+                                              .path(TransferooEndpoints.CREDITS_PATH)
+                                              .request()
+                                              .post(Entity.json("{}"));
+                assertThat(response.getStatus()).isEqualTo(Response.Status.NOT_FOUND.getStatusCode());
+                response.close();
+            }
+        }
+    }
+
+    @Test
+    public void cluster_endpoints_should_refuse_callers_without_the_secret() {
+        WebTarget accounts = admin(NODE_1).path(TransferooEndpoints.CLUSTER_RESOURCE)
+                                          .path(TransferooEndpoints.ACCOUNT_RESOURCE)
+                                          .queryParam("id", onNode1.id().id().toString());
+        String secret = NODE_1.getConfiguration().getCluster().getSecret();
+
+        assertThat(accounts.request().get().getStatus()).isEqualTo(Response.Status.UNAUTHORIZED.getStatusCode());
+        Response wrongSecret = accounts.request()
+                                       .header(HttpHeaders.AUTHORIZATION, "Bearer not-" + secret)
+                                       .get();
+        assertThat(wrongSecret.getStatus()).isEqualTo(Response.Status.UNAUTHORIZED.getStatusCode());
+        List<Account> found = accounts.request()
+                                      .header(HttpHeaders.AUTHORIZATION, "Bearer " + secret)
+                                      .get(new GenericType<List<Account>>() {});
+        assertThat(found).containsExactly(onNode1);
+    }
+
+    @Test
+    public void concurrent_transfers_across_nodes_should_conserve_money() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            accounts.add(createAccountOn("node-1", NODE_1, new BigDecimal("100")));
+            accounts.add(createAccountOn("node-2", NODE_2, new BigDecimal("100")));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < 50; i++) {
+                        Account source = accounts.get(random.nextInt(accounts.size()));
+                        Account destination = accounts.get(random.nextInt(accounts.size()));
+                        if (!source.equals(destination)) {
+                            Response response = tryCreateTransaction(NODES.get(random.nextInt(NODES.size())),
+                                                                     transfer(source, destination, "7"));
+                            assertThat(response.getStatus()).isIn(Response.Status.CREATED.getStatusCode(),
+                                                                  ErrorCode.InsufficientBalance.getStatus()
+                                                                                               .getStatusCode());
+                            response.close();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            BigDecimal balance = getAccount(NODE_3, account.id()).metadata().balance();
+            assertThat(balance.signum()).isNotNegative();
+            total = total.add(balance);
+        }
+        assertThat(total).isEqualByComparingTo("800");
+    }
+}
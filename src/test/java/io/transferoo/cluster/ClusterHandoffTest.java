@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.resource.TransferooEndpoints;
+import javax.ws.rs.core.Response;
+import org.junit.Test;
+
+/**
+ * Partitions handed over from node-1 to node-3, as node-3 joins the cluster, while the answers of node-3 get lost.
+ */
+public class ClusterHandoffTest extends ClusterTestBase {
+
+    @Test
+    public void handoff_whose_answer_is_lost_should_keep_partitions_closed_until_it_is_known() throws Exception {
+        Account moving = createAccountOn("node-1", NODE_1, "node-3");
+        Account staying = createAccountOn("node-1", NODE_1, "node-1");
+
+        try (LossyProxy proxy = new LossyProxy(NODE_3.getAdminPort())) {
+            ClusterMember node3 = member(NODE_3);
+            ClusterMember lossyNode3 = ClusterMember.of(node3.id(), node3.url(),
+                                                        "http://localhost:" + proxy.getLocalPort() + "/admin");
+            proxy.loseAnswersTo(TransferooEndpoints.CLUSTER_RESOURCE + "/" + TransferooEndpoints.PARTITIONS_PATH);
+            expectError(ErrorCode.HandoffInDoubt, handOff(NODE_1, lossyNode3));
+
+            // node-3 has taken the accounts over, so node-1 must not go on serving them
+            assertThat(getAccount(NODE_3, moving.id())).isEqualTo(moving);
+            expectError(ErrorCode.PartitionsBusy, tryCreateTransaction(NODE_1, transfer(moving, staying, "1")));
+            expectError(ErrorCode.PartitionsBusy, tryCreateTransaction(NODE_2, transfer(moving, staying, "1")));
+
+            // Sent again, the handoff changes nothing on node-3
+            expectError(ErrorCode.HandoffInDoubt, handOff(NODE_1, lossyNode3));
+
+            proxy.loseAnswersTo(null);
+            Response handoff = handOff(NODE_1, lossyNode3);
+            assertThat(handoff.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        }
+
+        // Once known to be handed over, the accounts are forwarded to node-3, and only node-3 changes them
+        createTransaction(NODE_1, transfer(moving, staying, "1"));
+        Account moved = getAccount(NODE_3, moving.id());
+        assertThat(moved.metadata().balance()).isEqualByComparingTo("999");
+        assertThat(moved.version()).isEqualTo(1);
+        assertThat(getAccount(NODE_2, moving.id())).isEqualTo(moved);
+        assertThat(getAccount(NODE_1, staying.id()).metadata().balance()).isEqualByComparingTo("1001");
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.Response;
+import org.junit.Test;
+
+/**
+ * Transfers to accounts of node-2 while node-2 cannot be reached, and once it can again.
+ */
+public class ClusterInDoubtTest extends ClusterTestBase {
+
+    private static final long SETTLE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    @Test
+    public void transfer_to_unreachable_node_should_hold_amount_until_settled() throws Exception {
+        Account source = createAccountOn("node-1", NODE_1, new BigDecimal("10"));
+        Account other = createAccountOn("node-1", NODE_1, BigDecimal.ZERO);
+        Account destination = createAccountOn("node-2", NODE_1, BigDecimal.ZERO);
+
+        UniqueId<Transaction> transactionId;
+        disconnect(NODE_2);
+        try {
+            transactionId = expectInDoubt(tryCreateTransaction(NODE_1, transfer(source, destination, "4")));
+
+            // Nothing is applied yet, but the amount is held
+            assertThat(getAccount(NODE_1, source.id())).isEqualTo(source);
+            expectError(ErrorCode.InsufficientBalance, tryCreateTransaction(NODE_3, transfer(source, other, "7")));
+            createTransaction(NODE_3, transfer(source, other, "6"));
+        } finally {
+            reconnect(NODE_2);
+        }
+
+        awaitVersion(destination.id(), 1);
+        assertThat(getAccount(NODE_3, destination.id()).metadata().balance()).isEqualByComparingTo("4");
+        Account settled = getAccount(NODE_3, source.id());
+        assertThat(settled.metadata().balance()).isEqualByComparingTo("0");
+        assertThat(settled.version()).isEqualTo(2);
+        Response transaction = getTransactionResponse(NODE_3, transactionId);
+        assertThat(transaction.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        assertThat(transaction.readEntity(Transaction.class).metadata())
+                .isEqualTo(transfer(source, destination, "4"));
+    }
+
+    @Test
+    public void handoff_should_time_out_while_transfer_from_moving_partition_is_in_doubt() throws Exception {
+        Account source = createAccountOn("node-1", NODE_1, "node-3");
+        Account destination = createAccountOn("node-2", NODE_1, BigDecimal.ZERO);
+
+        disconnect(NODE_2);
+        try {
+            expectInDoubt(tryCreateTransaction(NODE_1, transfer(source, destination, "4")));
+
+            expectError(ErrorCode.PartitionsBusy, handOff(NODE_1, member(NODE_3)));
+        } finally {
+            reconnect(NODE_2);
+        }
+
+        // The partitions stay with node-1, which settles the transfer and goes on serving them
+        awaitVersion(destination.id(), 1);
+        createTransaction(NODE_3, transfer(source, destination, "1"));
+        assertThat(getAccount(NODE_1, source.id()).metadata().balance()).isEqualByComparingTo("995");
+        assertThat(getAccount(NODE_3, destination.id()).metadata().balance()).isEqualByComparingTo("5");
+    }
+
+    /**
+     * Checks that the transfer was reported in doubt, and returns the id of its transaction.
+     */
+    private static UniqueId<Transaction> expectInDoubt(Response response) {
+        assertThat(response.getStatus()).isEqualTo(ErrorCode.TransferInDoubt.getStatus().getStatusCode());
+        TransferooError error = response.readEntity(TransferooError.class);
+        assertThat(error.errorCode()).isEqualTo(ErrorCode.TransferInDoubt);
+        return UniqueId.valueOf(error.message().substring(error.message().lastIndexOf(' ') + 1));
+    }
+
+    private static void awaitVersion(UniqueId<Account> accountId, long version) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SETTLE_TIMEOUT_MILLIS;
+        while (getAccount(NODE_3, accountId).version() < version && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertThat(getAccount(NODE_3, accountId).version()).isEqualTo(version);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.Gauge;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import io.transferoo.TransferooConfiguration;
+import io.transferoo.api.Account;
+import io.transferoo.store.AccountStore;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+import org.junit.Test;
+
+public class ClusterJoinTest extends ClusterTestBase {
+
+    private static final int ACCOUNTS = 32;
+
+    @Test
+    public void join_should_hand_partitions_over_without_stopping_transfers() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts.add(createAccount(NODES.get(i % 2), new BigDecimal("1000")));
+        }
+        // Make sure that some of the accounts move
+        accounts.add(createAccountOn("node-1", NODE_1, "node-3"));
+        accounts.add(createAccountOn("node-2", NODE_2, "node-3"));
+        assertThat(accountsOf(NODE_3)).isEqualTo(0);
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger transfers = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int thread = 0; thread < 2; thread++) {
+                DropwizardAppRule<TransferooConfiguration> node = NODES.get(thread);
+                futures.add(executor.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!done.get() || transfers.get() < 50) {
+                        Account source = accounts.get(random.nextInt(accounts.size()));
+                        Account destination = accounts.get(random.nextInt(accounts.size()));
+                        if (!source.equals(destination)) {
+                            createTransaction(node, transfer(source, destination, "1"));
+                            transfers.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+
+            Response response = admin(NODE_3).path("tasks/join-cluster")
+                                             .request()
+                                             .post(Entity.text(""));
+            assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+            assertThat(response.readEntity(String.class)).contains("from node-1", "from node-2")
+                                                         .doesNotContain("Failed");
+            done.set(true);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+
+        assertThat(accountsOf(NODE_3)).isGreaterThanOrEqualTo(2);
+        BigDecimal total = BigDecimal.ZERO;
+        long versions = 0;
+        for (Account account : accounts) {
+            Account current = getAccount(NODE_1, account.id());
+            for (DropwizardAppRule<TransferooConfiguration> node : NODES) {
+                assertThat(getAccount(node, account.id())).isEqualTo(current);
+            }
+            total = total.add(current.metadata().balance());
+            versions += current.version();
+        }
+        assertThat(total).isEqualByComparingTo(new BigDecimal(1000 * accounts.size()));
+        assertThat(versions).isEqualTo(2L * transfers.get());
+
+        // The new member takes transfers of its own
+        Account source = createAccount(NODE_3, BigDecimal.ONE);
+        while (!ownerOf(source.id(), "node-1", "node-2", "node-3").equals("node-3")) {
+            source = createAccount(NODE_3, BigDecimal.ONE);
+        }
+        createTransaction(NODE_1, transfer(source, accounts.get(0), "1"));
+        assertThat(getAccount(NODE_2, source.id()).version()).isEqualTo(1);
+    }
+
+    private static int accountsOf(DropwizardAppRule<TransferooConfiguration> node) {
+        Gauge<?> accounts = node.getEnvironment()
+                                .metrics()
+                                .getGauges()
+                                .get(AccountStore.class.getName() + ".accounts");
+        return (Integer) accounts.getValue();
+    }
+}
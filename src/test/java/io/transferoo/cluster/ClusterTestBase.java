@@ -0,0 +1,265 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.ResourceHelpers;
+import io.dropwizard.testing.junit.DropwizardAppRule;
+import io.dropwizard.util.Duration;
+import io.transferoo.TransferooConfiguration;
+import io.transferoo.TransferooServer;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import io.transferoo.resource.TransferooEndpoints;
+import java.math.BigDecimal;
+import java.util.List;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+
+/**
+ * Runs a cluster of two nodes, and a third one that starts outside of it, each on its own ports: the API on one,
+ * and the admin context ten above it.
+ */
+public abstract class ClusterTestBase {
+
+    protected static final int PARTITIONS = 64;
+    protected static final int VIRTUAL_NODES = 64;
+
+    @ClassRule
+    public static final DropwizardAppRule<TransferooConfiguration> NODE_1 = node("node-1", 8371);
+
+    @ClassRule
+    public static final DropwizardAppRule<TransferooConfiguration> NODE_2 = node("node-2", 8372);
+
+    @ClassRule
+    public static final DropwizardAppRule<TransferooConfiguration> NODE_3 = node("node-3", 8373);
+
+    protected static final List<DropwizardAppRule<TransferooConfiguration>> NODES = ImmutableList.of(NODE_1, NODE_2,
+                                                                                                      NODE_3);
+
+    private static Client c;
+
+    // The rules share the overrides, so every node has to override all of them
+    private static DropwizardAppRule<TransferooConfiguration> node(String nodeId, int port) {
+        int adminPort = port + 10;
+        return new DropwizardAppRule<>(TransferooServer.class,
+                                       ResourceHelpers.resourceFilePath("cluster.yml"),
+                                       ConfigOverride.config("server.applicationConnectors[0].port",
+                                                             Integer.toString(port)),
+                                       ConfigOverride.config("server.adminConnectors[0].port",
+                                                             Integer.toString(adminPort)),
+                                       ConfigOverride.config("cluster.nodeId", nodeId),
+                                       ConfigOverride.config("cluster.url", "http://localhost:" + port + "/api"),
+                                       ConfigOverride.config("cluster.adminUrl",
+                                                             "http://localhost:" + adminPort + "/admin"));
+    }
+
+    @BeforeClass
+    public static void beforeClass() {
+        JerseyClientConfiguration configuration = new JerseyClientConfiguration();
+        configuration.setTimeout(Duration.seconds(10));
+        c = new JerseyClientBuilder(NODE_1.getEnvironment()).using(configuration)
+                                                            .build("client");
+    }
+
+    protected static WebTarget target(DropwizardAppRule<TransferooConfiguration> node) {
+        return c.target(String.format("http://localhost:%d/api", node.getLocalPort()));
+    }
+
+    protected static WebTarget admin(DropwizardAppRule<TransferooConfiguration> node) {
+        return c.target(String.format("http://localhost:%d/admin", node.getAdminPort()));
+    }
+
+    /**
+     * Stops the node answering on any of its ports, as if it were down, while it keeps its accounts.
+     */
+    protected static void disconnect(DropwizardAppRule<TransferooConfiguration> node) throws Exception {
+        for (Connector connector : server(node).getConnectors()) {
+            connector.stop();
+        }
+    }
+
+    protected static void reconnect(DropwizardAppRule<TransferooConfiguration> node) throws Exception {
+        for (Connector connector : server(node).getConnectors()) {
+            connector.start();
+        }
+    }
+
+    private static Server server(DropwizardAppRule<TransferooConfiguration> node) {
+        return node.getEnvironment().getApplicationContext().getServer();
+    }
+
+    protected static ClusterMember member(DropwizardAppRule<TransferooConfiguration> node) {
+        ClusterConfiguration cluster = node.getConfiguration().getCluster();
+        return ClusterMember.of(cluster.getNodeId(), cluster.getUrl(), cluster.getAdminUrl());
+    }
+
+    /**
+     * Asks a node to hand the partitions another would own over to it, as the other does when it joins.
+     */
+    protected static Response handOff(DropwizardAppRule<TransferooConfiguration> node, ClusterMember joining) {
+        return admin(node).path(TransferooEndpoints.CLUSTER_RESOURCE)
+                          .path(TransferooEndpoints.HANDOFFS_PATH)
+                          .request()
+                          .header(HttpHeaders.AUTHORIZATION,
+                                  "Bearer " + node.getConfiguration().getCluster().getSecret())
+                          .post(Entity.json(joining));
+    }
+
+    /**
+     * Returns the node the given members of the cluster give an account to.
+     */
+    protected static String ownerOf(UniqueId<Account> accountId, String... nodeIds) {
+        PartitionRing ring = new PartitionRing(ImmutableList.copyOf(nodeIds), PARTITIONS, VIRTUAL_NODES);
+        return ring.ownerOf(PartitionRing.partitionOf(accountId, PARTITIONS));
+    }
+
+    /**
+     * Creates accounts through the given node until one is owned by the given node of the first two.
+     */
+    protected static Account createAccountOn(String owner,
+                                             DropwizardAppRule<TransferooConfiguration> node,
+                                             BigDecimal balance) {
+        while (true) {
+            Account account = createAccount(node, balance);
+            if (ownerOf(account.id(), "node-1", "node-2").equals(owner)) {
+                return account;
+            }
+        }
+    }
+
+    /**
+     * Creates accounts through the given node until one is owned by the given node, and goes to the given node
+     * once the third one joins.
+     */
+    protected static Account createAccountOn(String owner,
+                                             DropwizardAppRule<TransferooConfiguration> node,
+                                             String ownerAfterJoin) {
+        while (true) {
+            Account account = createAccount(node, new BigDecimal("1000"));
+            boolean ownedBefore = ownerOf(account.id(), "node-1", "node-2").equals(owner);
+            if (ownedBefore && ownerOf(account.id(), "node-1", "node-2", "node-3").equals(ownerAfterJoin)) {
+                return account;
+            }
+        }
+    }
+
+    protected static Account createAccount(DropwizardAppRule<TransferooConfiguration> node, BigDecimal balance) {
+        AccountMetadata metadata = AccountMetadata.builder()
+                                                  .balance(balance)
+                                                  .build();
+        Response response = target(node).path(TransferooEndpoints.ACCOUNT_RESOURCE)
+                                        .request()
+                                        .post(Entity.entity(metadata, MediaType.APPLICATION_JSON_TYPE));
+        assertThat(response.getStatus()).isEqualTo(Response.Status.CREATED.getStatusCode());
+        return response.readEntity(Account.class);
+    }
+
+    protected static Response getAccountResponse(DropwizardAppRule<TransferooConfiguration> node,
+                                                 UniqueId<Account> accountId) {
+        return target(node).path(TransferooEndpoints.ACCOUNT_RESOURCE + "/{id}")
+                           .resolveTemplate("id", accountId.id().toString())
+                           .request(MediaType.APPLICATION_JSON_TYPE)
+                           .get();
+    }
+
+    protected static Account getAccount(DropwizardAppRule<TransferooConfiguration> node,
+                                        UniqueId<Account> accountId) {
+        Response response = getAccountResponse(node, accountId);
+        assertThat(response.getStatus()).isEqualTo(Response.Status.OK.getStatusCode());
+        return response.readEntity(Account.class);
+    }
+
+    protected static Response getTransactionResponse(DropwizardAppRule<TransferooConfiguration> node,
+                                                     UniqueId<Transaction> transactionId) {
+        return target(node).path(TransferooEndpoints.TRANSACTION_RESOURCE + "/{id}")
+                           .resolveTemplate("id", transactionId.id().toString())
+                           .request(MediaType.APPLICATION_JSON_TYPE)
+                           .get();
+    }
+
+    protected static Response tryCreateTransaction(DropwizardAppRule<TransferooConfiguration> node,
+                                                   TransactionMetadata metadata) {
+        return tryCreateTransaction(node, metadata, null);
+    }
+
+    protected static Response tryCreateTransaction(DropwizardAppRule<TransferooConfiguration> node,
+                                                   TransactionMetadata metadata,
+                                                   String idempotencyKey) {
+        return target(node).path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                           .request()
+                           .header(TransferooEndpoints.IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+                           .post(Entity.entity(metadata, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    protected static Transaction createTransaction(DropwizardAppRule<TransferooConfiguration> node,
+                                                   TransactionMetadata metadata) {
+        Response response = tryCreateTransaction(node, metadata);
+        assertThat(response.getStatus()).isEqualTo(Response.Status.CREATED.getStatusCode());
+        return response.readEntity(Transaction.class);
+    }
+
+    protected static Response tryCreateTransactions(DropwizardAppRule<TransferooConfiguration> node,
+                                                    List<TransactionMetadata> batch,
+                                                    BatchMode mode) {
+        return target(node).path(TransferooEndpoints.TRANSACTION_RESOURCE)
+                           .path(TransferooEndpoints.BATCH_PATH)
+                           .queryParam("mode", mode)
+                           .request()
+                           .post(Entity.entity(batch, MediaType.APPLICATION_JSON_TYPE));
+    }
+
+    protected static void expectError(ErrorCode errorCode, Response response) {
+        assertThat(response.getStatus()).isEqualTo(errorCode.getStatus().getStatusCode());
+        assertThat(response.readEntity(TransferooError.class).errorCode()).isEqualTo(errorCode);
+    }
+
+    protected static TransactionMetadata transfer(Account source, Account destination, String amount) {
+        return TransactionMetadata.builder()
+                                  .source(source.id())
+                                  .destination(destination.id())
+                                  .amount(new BigDecimal(amount))
+                                  .build();
+    }
+}
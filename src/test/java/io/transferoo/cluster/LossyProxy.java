@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Passes connections on to a port, and can be made to lose the answers to some requests: once the request has
+ * been passed on, it hangs up instead of passing the answer back, as if the network failed right then.
+ */
+final class LossyProxy implements Closeable {
+
+    private final ServerSocket server;
+    private final int port;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private volatile String losing;
+
+    LossyProxy(int port) throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.port = port;
+        executor.submit(this::accept);
+    }
+
+    int getLocalPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Loses the answers to requests whose request line contains the given text, or to none if it is null.
+     */
+    void loseAnswersTo(String requestLine) {
+        losing = requestLine;
+    }
+
+    private Void accept() throws IOException {
+        while (!server.isClosed()) {
+            Socket client = server.accept();
+            executor.submit(() -> pass(client));
+        }
+        return null;
+    }
+
+    private Void pass(Socket client) throws IOException {
+        try (Socket socket = client; Socket upstream = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            AtomicBoolean lost = new AtomicBoolean();
+            executor.submit(() -> copyRequests(socket.getInputStream(), upstream.getOutputStream(), lost));
+            InputStream answers = upstream.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = answers.read(buffer); read > 0 && !lost.get(); read = answers.read(buffer)) {
+                out.write(buffer, 0, read);
+                out.flush();
+            }
+        }
+        return null;
+    }
+
+    private Void copyRequests(InputStream in, OutputStream upstream, AtomicBoolean lost) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (int read = in.read(buffer); read > 0; read = in.read(buffer)) {
+            String requestLine = losing;
+            if (requestLine != null && new String(buffer, 0, read, StandardCharsets.ISO_8859_1).contains(requestLine)) {
+                lost.set(true);
+            }
+            upstream.write(buffer, 0, read);
+            upstream.flush();
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.jackson.Jackson;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import org.junit.After;
+import org.junit.Test;
+
+public class NodeClientTest {
+
+    private static final TransactionMetadata METADATA =
+            TransactionMetadata.builder()
+                               .source(UniqueId.valueOf("d3c02886-2c36-450c-86cf-e199b3ecd333"))
+                               .destination(UniqueId.valueOf("d3c02886-2c36-450c-86cf-e199b3ecd331"))
+                               .amount(new BigDecimal("10.23"))
+                               .build();
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Client client = new JerseyClientBuilder(new MetricRegistry()).using(executor,
+                                                                                      Jackson.newObjectMapper())
+                                                                               .build("test");
+
+    @After
+    public void after() {
+        client.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void createTransaction_should_report_node_that_cannot_be_connected_to_as_unavailable() throws Exception {
+        int port;
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = server.getLocalPort();
+        }
+
+        assertThat(createTransaction(port)).isEqualTo(ErrorCode.NodeUnavailable);
+    }
+
+    @Test
+    public void createTransaction_should_report_transfer_whose_answer_is_lost_as_in_doubt() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Future<String> request = executor.submit(() -> readHeadersAndHangUp(server));
+
+            assertThat(createTransaction(server.getLocalPort())).isEqualTo(ErrorCode.TransferInDoubt);
+            assertThat(request.get()).contains("Idempotency-Key: key\n");
+        }
+    }
+
+    private ErrorCode createTransaction(int port) {
+        String url = "http://localhost:" + port;
+        NodeClient node = new NodeClient(ClusterMember.of("node-2", url + "/api", url + "/admin"), client, "secret");
+        try {
+            node.createTransaction(METADATA, "key");
+            return null;
+        } catch (WebApplicationException e) {
+            return ((TransferooError) e.getResponse().getEntity()).errorCode();
+        }
+    }
+
+    private static String readHeadersAndHangUp(ServerSocket server) throws Exception {
+        try (Socket socket = server.accept()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                                             StandardCharsets.US_ASCII));
+            StringBuilder headers = new StringBuilder();
+            for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                headers.append(line).append('\n');
+            }
+            return headers.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import io.transferoo.api.UniqueId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.Test;
+
+public class PartitionRingTest {
+
+    private static final int PARTITIONS = 1024;
+    private static final int VIRTUAL_NODES = 64;
+
+    @Test
+    public void ring_should_only_move_partitions_to_joining_node() {
+        PartitionRing before = new PartitionRing(ImmutableList.of("node-1", "node-2", "node-3"), PARTITIONS,
+                                                 VIRTUAL_NODES);
+        PartitionRing after = new PartitionRing(ImmutableList.of("node-1", "node-2", "node-3", "node-4"), PARTITIONS,
+                                                VIRTUAL_NODES);
+
+        int moved = 0;
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            if (!before.ownerOf(partition).equals(after.ownerOf(partition))) {
+                assertThat(after.ownerOf(partition)).isEqualTo("node-4");
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(PARTITIONS / 8, PARTITIONS * 3 / 8);
+    }
+
+    @Test
+    public void ring_should_spread_partitions_over_nodes() {
+        List<String> nodeIds = ImmutableList.of("node-1", "node-2", "node-3", "node-4");
+        PartitionRing ring = new PartitionRing(nodeIds, PARTITIONS, VIRTUAL_NODES);
+
+        Map<String, Integer> counts = new HashMap<>();
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            counts.merge(ring.ownerOf(partition), 1, Integer::sum);
+        }
+        assertThat(counts.keySet()).containsOnlyElementsOf(nodeIds);
+        for (int count : counts.values()) {
+            assertThat(count).isBetween(PARTITIONS / 8, PARTITIONS * 3 / 8);
+        }
+    }
+
+    @Test
+    public void ring_should_not_depend_on_order_of_nodes() {
+        PartitionRing ring = new PartitionRing(ImmutableList.of("node-1", "node-2", "node-3"), PARTITIONS,
+                                               VIRTUAL_NODES);
+        PartitionRing reordered = new PartitionRing(ImmutableList.of("node-3", "node-1", "node-2"), PARTITIONS,
+                                                    VIRTUAL_NODES);
+
+        for (int partition = 0; partition < PARTITIONS; partition++) {
+            assertThat(reordered.ownerOf(partition)).isEqualTo(ring.ownerOf(partition));
+        }
+    }
+
+    @Test
+    public void partitionOf_should_spread_ids_over_partitions() {
+        int partitions = 16;
+        int[] counts = new int[partitions];
+        for (int i = 0; i < 16_000; i++) {
+            int partition = PartitionRing.partitionOf(UniqueId.of(UUID.randomUUID()), partitions);
+            assertThat(partition).isBetween(0, partitions - 1);
+            counts[partition]++;
+        }
+        for (int count : counts) {
+            assertThat(count).isBetween(800, 1200);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.gateway;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import io.transferoo.store.AccountStore;
+import io.transferoo.store.Ledger;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransferGatewayTest {
+
+    private final AccountStore store = new AccountStore();
+    private TransferGateway gateway;
+    private GatewayClient client;
+
+    @Before
+    public void before() throws IOException {
+        store.start();
+        GatewayConfiguration configuration = new GatewayConfiguration();
+        configuration.setBindHost("localhost");
+        configuration.setPort(0);
+        configuration.setIoThreads(2);
+        gateway = new TransferGateway(store, configuration);
+        gateway.start();
+        client = GatewayClient.connect("localhost", gateway.getLocalPort());
+    }
+
+    @After
+    public void after() throws Exception {
+        client.close();
+        gateway.stop();
+        store.stop();
+    }
+
+    @Test
+    public void createTransaction_should_move_amount_between_accounts() {
+        Account source = createAccount(new BigDecimal("10.0"));
+        Account destination = createAccount(new BigDecimal("1.5"));
+
+        Transaction transaction = client.createTransaction(transfer(source, destination, new BigDecimal("2.5"))).join();
+
+        assertThat(store.getTransactionById(transaction.id()).get()).isEqualTo(transaction);
+        assertThat(balance(source)).isEqualTo(new BigDecimal("7.5"));
+        assertThat(balance(destination)).isEqualTo(new BigDecimal("4.0"));
+    }
+
+    @Test
+    public void getAccount_should_return_balance() {
+        Account account = createAccount(new BigDecimal("12.34"));
+
+        assertThat(client.getAccount(account.id()).join()).isEqualTo(store.getAccountById(account.id()).get());
+    }
+
+    @Test
+    public void requests_should_fail_with_error_code_of_store() {
+        Account source = createAccount(new BigDecimal("1"));
+        Account destination = createAccount(new BigDecimal("0"));
+        UniqueId<Account> unknown = UniqueId.of(UUID.randomUUID());
+
+        assertThat(errorCode(client.createTransaction(transfer(source, destination, new BigDecimal("2")))))
+                .isEqualTo(ErrorCode.InsufficientBalance);
+        assertThat(errorCode(client.createTransaction(transfer(source, source, BigDecimal.ONE))))
+                .isEqualTo(ErrorCode.SourceSameAsDestination);
+        assertThat(errorCode(client.getAccount(unknown))).isEqualTo(ErrorCode.AccountNotFound);
+        assertThat(balance(source)).isEqualTo(new BigDecimal("1"));
+    }
+
+    @Test
+    public void createTransaction_should_reject_amounts_that_cannot_be_encoded() {
+        Account source = createAccount(new BigDecimal("1"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        assertThatThrownBy(() -> client.createTransaction(transfer(source, destination, new BigDecimal("1E+200"))))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void pipelined_transfers_should_preserve_total_balance() {
+        Account first = createAccount(new BigDecimal("1000000"));
+        Account second = createAccount(new BigDecimal("1000000"));
+        int transfers = 200_000;
+
+        List<CompletableFuture<Transaction>> results = new ArrayList<>();
+        for (int i = 0; i < transfers; i++) {
+            results.add(i % 2 == 0
+                    ? client.createTransaction(transfer(first, second, new BigDecimal("0.01")))
+                    : client.createTransaction(transfer(second, first, new BigDecimal("0.02"))));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+
+        assertThat(balance(first).add(balance(second))).isEqualByComparingTo(new BigDecimal("2000000"));
+        assertThat(balance(first)).isEqualByComparingTo(new BigDecimal("1001000"));
+    }
+
+    @Test
+    public void pipelined_getAccount_should_see_transfers_sent_before_it() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        List<CompletableFuture<Transaction>> transfers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            transfers.add(client.createTransaction(transfer(source, destination, BigDecimal.ONE)));
+        }
+        CompletableFuture<Account> account = client.getAccount(destination.id());
+        CompletableFuture<Transaction> rejected = client.createTransaction(transfer(source, destination,
+                                                                                    BigDecimal.ONE));
+
+        assertThat(account.join().metadata().balance()).isEqualByComparingTo(new BigDecimal("10"));
+        transfers.forEach(CompletableFuture::join);
+        assertThat(errorCode(rejected)).isEqualTo(ErrorCode.InsufficientBalance);
+    }
+
+    @Test
+    public void store_call_waiting_on_one_connection_should_not_hold_up_others() throws Exception {
+        Account account = createAccount(new BigDecimal("1"));
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Ledger ledger = mock(Ledger.class);
+        when(ledger.createTransaction(any())).thenAnswer(invocation -> {
+            waiting.countDown();
+            release.await();
+            return store.createTransaction(invocation.getArgumentAt(0, TransactionMetadata.class));
+        });
+        when(ledger.getAccountById(account.id())).thenReturn(store.getAccountById(account.id()));
+
+        GatewayConfiguration configuration = new GatewayConfiguration();
+        configuration.setBindHost("localhost");
+        configuration.setPort(0);
+        configuration.setIoThreads(1);
+        TransferGateway slow = new TransferGateway(ledger, configuration);
+        slow.start();
+        try (GatewayClient waiter = GatewayClient.connect("localhost", slow.getLocalPort());
+             GatewayClient other = GatewayClient.connect("localhost", slow.getLocalPort())) {
+            CompletableFuture<Transaction> transfer = waiter.createTransaction(
+                    transfer(account, createAccount(BigDecimal.ZERO), BigDecimal.ONE));
+            waiting.await();
+
+            assertThat(other.getAccount(account.id()).get(5, TimeUnit.SECONDS).id()).isEqualTo(account.id());
+            assertThat(transfer.isDone()).isFalse();
+            release.countDown();
+            assertThat(transfer.get(5, TimeUnit.SECONDS).metadata().amount()).isEqualTo(BigDecimal.ONE);
+        } finally {
+            release.countDown();
+            slow.stop();
+        }
+    }
+
+    @Test
+    public void connection_should_be_closed_once_header_holds_invalid_length() throws IOException {
+        ByteBuffer request = ByteBuffer.allocate(GatewayProtocol.HEADER_SIZE);
+        request.putInt(128 * 1024);
+
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(request.array());
+
+            assertThat(readAll(socket)).isEmpty();
+        }
+    }
+
+    @Test
+    public void unknown_opcode_should_not_leave_transfers_applied_without_response() throws IOException {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+        ByteBuffer requests = ByteBuffer.allocate(2 * (GatewayProtocol.HEADER_SIZE + GatewayProtocol.MAX_REQUEST_SIZE));
+        requests.putInt(GatewayProtocol.CREATE_TRANSACTION_SIZE);
+        requests.put(GatewayProtocol.CREATE_TRANSACTION);
+        GatewayProtocol.putId(requests, source.id().id());
+        GatewayProtocol.putId(requests, destination.id().id());
+        GatewayProtocol.putAmount(requests, BigDecimal.ONE);
+        requests.putInt(GatewayProtocol.GET_ACCOUNT_SIZE);
+        requests.put((byte) 99);
+        GatewayProtocol.putId(requests, source.id().id());
+
+        try (Socket socket = connect()) {
+            socket.getOutputStream().write(requests.array(), 0, requests.position());
+            byte[] responses = readAll(socket);
+
+            // Both requests normally arrive in one read and neither is applied, but the transfer may be answered alone
+            int answered = responses.length == 0 ? 0 : 1;
+            assertThat(balance(destination)).isEqualByComparingTo(new BigDecimal(answered));
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", gateway.getLocalPort());
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(5));
+        return socket;
+    }
+
+    /**
+     * Reads until the gateway closes the connection, failing if it does not within the socket timeout.
+     */
+    private static byte[] readAll(Socket socket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[1024];
+        try {
+            for (int read = socket.getInputStream().read(chunk); read >= 0;
+                    read = socket.getInputStream().read(chunk)) {
+                bytes.write(chunk, 0, read);
+            }
+        } catch (SocketException e) {
+            // Reset by the gateway closing with unread requests, which is closed all the same
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ErrorCode errorCode(CompletableFuture<?> result) {
+        try {
+            result.join();
+        } catch (CompletionException e) {
+            return ((GatewayException) e.getCause()).errorCode();
+        }
+        throw new AssertionError("Request did not fail");
+    }
+
+    private Account createAccount(BigDecimal balance) {
+        return store.createAccount(AccountMetadata.builder().balance(balance).build());
+    }
+
+    private BigDecimal balance(Account account) {
+        return store.getAccountById(account.id()).get().metadata().balance();
+    }
+
+    private static TransactionMetadata transfer(Account source, Account destination, BigDecimal amount) {
+        return TransactionMetadata.builder()
+                                  .source(source.id())
+                                  .destination(destination.id())
+                                  .amount(amount)
+                                  .build();
+    }
+}
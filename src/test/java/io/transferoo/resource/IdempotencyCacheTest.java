@@ -0,0 +1,101 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.ws.rs.WebApplicationException;
+import org.junit.Test;
+
+public class IdempotencyCacheTest {
+
+    private static final TransactionMetadata METADATA =
+            TransactionMetadata.builder()
+                               .source(UniqueId.valueOf("d3c02886-2c36-450c-86cf-e199b3ecd333"))
+                               .destination(UniqueId.valueOf("d3c02886-2c36-450c-86cf-e199b3ecd331"))
+                               .amount(new BigDecimal("10.23"))
+                               .build();
+    private static final Transaction TRANSACTION = Transaction.builder()
+                                                              .id(UniqueId.valueOf(
+                                                                      "d3c02886-2c36-450c-86cf-e199b3ecd330"))
+                                                              .metadata(METADATA)
+                                                              .build();
+
+    private final IdempotencyCache cache = new IdempotencyCache(new IdempotencyConfiguration());
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    @Test
+    public void createTransaction_should_replay_client_errors() {
+        Supplier<Transaction> rejected = () -> {
+            attempts.incrementAndGet();
+            throw ErrorCode.sourceSameAsDestinationException(METADATA);
+        };
+
+        expectError(ErrorCode.SourceSameAsDestination, rejected);
+        expectError(ErrorCode.SourceSameAsDestination, this::transfer);
+        assertThat(attempts.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void createTransaction_should_try_again_after_server_errors() {
+        Supplier<Transaction> unavailable = () -> {
+            attempts.incrementAndGet();
+            throw ErrorCode.nodeUnavailable("node-2").get();
+        };
+        Supplier<Transaction> inDoubt = () -> {
+            attempts.incrementAndGet();
+            throw ErrorCode.transferInDoubtException(TRANSACTION.id(), "node-2");
+        };
+
+        expectError(ErrorCode.NodeUnavailable, unavailable);
+        expectError(ErrorCode.TransferInDoubt, inDoubt);
+        assertThat(cache.createTransaction("key", METADATA, this::transfer)).isEqualTo(TRANSACTION);
+        assertThat(cache.createTransaction("key", METADATA, this::transfer)).isEqualTo(TRANSACTION);
+        assertThat(attempts.get()).isEqualTo(3);
+    }
+
+    private Transaction transfer() {
+        attempts.incrementAndGet();
+        return TRANSACTION;
+    }
+
+    private void expectError(ErrorCode errorCode, Supplier<Transaction> transfer) {
+        try {
+            cache.createTransaction("key", METADATA, transfer);
+            fail("Expected " + errorCode);
+        } catch (WebApplicationException e) {
+            assertThat(((TransferooError) e.getResponse().getEntity()).errorCode()).isEqualTo(errorCode);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.TransferooError;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class StoreExecutorTest {
+
+    private final ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+    private final StoreExecutor executor = new StoreExecutor(pool);
+
+    @After
+    public void after() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void submit_should_resume_with_result_of_call() {
+        AsyncResponse response = mock(AsyncResponse.class);
+
+        executor.submit(response, () -> "result");
+
+        verify(response, timeout(1000)).resume("result");
+    }
+
+    @Test
+    public void submit_should_resume_with_exception_thrown_by_call() {
+        AsyncResponse response = mock(AsyncResponse.class);
+        WebApplicationException exception = ErrorCode.storeUnavailable().get();
+
+        executor.submit(response, () -> {
+            throw exception;
+        });
+
+        verify(response, timeout(1000)).resume(exception);
+    }
+
+    @Test
+    public void submit_should_reject_calls_once_queue_is_full() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(mock(AsyncResponse.class), () -> {
+            running.countDown();
+            awaitUninterruptibly(release);
+            return "running";
+        });
+        running.await();
+        executor.submit(mock(AsyncResponse.class), () -> "queued");
+
+        AsyncResponse rejected = mock(AsyncResponse.class);
+        executor.submit(rejected, () -> "rejected");
+        release.countDown();
+
+        ArgumentCaptor<WebApplicationException> exception = ArgumentCaptor.forClass(WebApplicationException.class);
+        verify(rejected).resume(exception.capture());
+        TransferooError error = (TransferooError) exception.getValue().getResponse().getEntity();
+        assertThat(error.errorCode()).isEqualTo(ErrorCode.StoreUnavailable);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
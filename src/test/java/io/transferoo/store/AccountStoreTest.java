@@ -0,0 +1,556 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionPage;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.ws.rs.WebApplicationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class AccountStoreTest {
+
+    private static final int TRANSFERS = 200_000;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000");
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final AccountStore store;
+
+    public AccountStoreTest(StoreConfiguration.Engine engine, StoreConfiguration.AccountStorage accountStorage) {
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setEngine(engine);
+        configuration.setAccountStorage(accountStorage);
+        configuration.setOffHeapAccounts(100_000);
+        this.store = new AccountStore(configuration, registry);
+    }
+
+    @Parameterized.Parameters(name = "{0}/{1}")
+    public static List<Object[]> setups() {
+        List<Object[]> setups = new ArrayList<>();
+        for (StoreConfiguration.Engine engine : StoreConfiguration.Engine.values()) {
+            for (StoreConfiguration.AccountStorage accountStorage : StoreConfiguration.AccountStorage.values()) {
+                setups.add(new Object[] {engine, accountStorage});
+            }
+        }
+        return setups;
+    }
+
+    @Before
+    public void before() throws IOException {
+        store.start();
+    }
+
+    @After
+    public void after() throws InterruptedException, IOException {
+        store.stop();
+    }
+
+    @Test
+    public void createTransaction_should_move_amount_between_accounts() {
+        Account source = createAccount(new BigDecimal("10.0"));
+        Account destination = createAccount(new BigDecimal("1.5"));
+
+        store.createTransaction(transfer(source, destination, new BigDecimal("2.5")));
+
+        assertThat(balance(source)).isEqualTo(new BigDecimal("7.5"));
+        assertThat(balance(destination)).isEqualTo(new BigDecimal("4.0"));
+    }
+
+    @Test
+    public void createTransaction_should_keep_balance_scale_of_decimal_arithmetic() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("1.50"));
+
+        store.createTransaction(transfer(source, destination, new BigDecimal("0.125")));
+
+        assertThat(balance(source)).isEqualTo(new BigDecimal("9.875"));
+        assertThat(balance(destination)).isEqualTo(new BigDecimal("1.625"));
+    }
+
+    @Test
+    public void createTransaction_should_reject_transfers_overflowing_destination_balance() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal(Long.MAX_VALUE).movePointLeft(8));
+
+        assertThatThrownBy(() -> store.createTransaction(transfer(source, destination, BigDecimal.ONE)))
+                .isInstanceOf(WebApplicationException.class);
+        assertThat(balance(source)).isEqualTo(new BigDecimal("10"));
+    }
+
+    @Test
+    public void createTransaction_should_preserve_total_balance_under_concurrent_random_transfers() throws Exception {
+        List<Account> accounts = createAccounts(100);
+
+        runTransfers(accounts, Runtime.getRuntime().availableProcessors() * 2, TRANSFERS / 4);
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (Account account : accounts) {
+            BigDecimal balance = balance(account);
+            assertThat(balance.signum()).isGreaterThanOrEqualTo(0);
+            total = total.add(balance);
+        }
+        assertThat(total).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(accounts.size())));
+    }
+
+    @Test
+    public void createTransactions_should_apply_atomic_batch_in_order() {
+        Account first = createAccount(new BigDecimal("10"));
+        Account second = createAccount(new BigDecimal("0"));
+        Account third = createAccount(new BigDecimal("0"));
+
+        List<TransactionResult> results = store.createTransactions(
+                ImmutableList.of(transfer(first, second, new BigDecimal("10")),
+                                 transfer(second, third, new BigDecimal("10"))),
+                BatchMode.ATOMIC);
+
+        assertThat(results).extracting(TransactionResult::error).containsExactly(null, null);
+        assertThat(balance(first)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(second)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(third)).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void createTransactions_should_apply_nothing_if_any_transfer_in_atomic_batch_fails() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        assertThatThrownBy(() -> store.createTransactions(
+                ImmutableList.of(transfer(source, destination, new BigDecimal("6")),
+                                 transfer(source, destination, new BigDecimal("6"))),
+                BatchMode.ATOMIC)).isInstanceOf(WebApplicationException.class);
+
+        assertThat(balance(source)).isEqualTo(new BigDecimal("10"));
+        assertThat(balance(destination)).isEqualTo(new BigDecimal("0"));
+    }
+
+    @Test
+    public void createTransactions_should_report_each_failure_in_best_effort_batch() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        List<TransactionResult> results = store.createTransactions(
+                ImmutableList.of(transfer(source, destination, new BigDecimal("6")),
+                                 transfer(source, source, new BigDecimal("1")),
+                                 transfer(source, destination, new BigDecimal("6")),
+                                 transfer(source, destination, new BigDecimal("4"))),
+                BatchMode.BEST_EFFORT);
+
+        assertThat(results.get(0).transaction()).isNotNull();
+        assertThat(results.get(1).error().errorCode()).isEqualTo(ErrorCode.SourceSameAsDestination);
+        assertThat(results.get(2).error().errorCode()).isEqualTo(ErrorCode.InsufficientBalance);
+        assertThat(results.get(3).transaction()).isNotNull();
+        assertThat(store.getTransactionById(results.get(3).transaction().id()).isPresent()).isTrue();
+        assertThat(balance(source)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(destination)).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void createTransaction_should_bump_versions_of_both_accounts() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+        Account other = createAccount(new BigDecimal("0"));
+        assertThat(source.version()).isZero();
+
+        store.createTransaction(transfer(source, destination, BigDecimal.ONE));
+        store.createTransaction(transfer(source, other, BigDecimal.ONE));
+        assertThatThrownBy(() -> store.createTransaction(transfer(source, other, BigDecimal.TEN)))
+                .isInstanceOf(WebApplicationException.class);
+
+        assertThat(store.getAccountById(source.id()).get().version()).isEqualTo(2);
+        assertThat(store.getAccountById(destination.id()).get().version()).isEqualTo(1);
+        assertThat(store.getAccountsById(ids(source, other)).get(other.id()).version()).isEqualTo(1);
+        assertThat(store.getStatement(source.id()).get().account().version()).isEqualTo(2);
+    }
+
+    @Test
+    public void createTransaction_should_apply_only_at_expected_versions() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+        TransactionMetadata unconditional = transfer(source, destination, BigDecimal.ONE);
+        TransactionMetadata conditional = TransactionMetadata.builder()
+                                                             .from(unconditional)
+                                                             .expectedSourceVersion(0L)
+                                                             .expectedDestinationVersion(0L)
+                                                             .build();
+
+        Transaction transaction = store.createTransaction(conditional);
+
+        assertThat(transaction.metadata()).isEqualTo(unconditional);
+        assertThat(errorCode(() -> store.createTransaction(conditional)))
+                .isEqualTo(ErrorCode.AccountVersionConflict);
+        assertThat(errorCode(() -> store.createTransaction(TransactionMetadata.builder()
+                                                                              .from(unconditional)
+                                                                              .expectedSourceVersion(1L)
+                                                                              .expectedDestinationVersion(0L)
+                                                                              .build())))
+                .isEqualTo(ErrorCode.AccountVersionConflict);
+        store.createTransaction(TransactionMetadata.builder().from(unconditional).expectedSourceVersion(1L).build());
+        assertThat(balance(source)).isEqualByComparingTo(new BigDecimal("8"));
+        assertThat(registry.meter(metric("rejections", "AccountVersionConflict")).getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void createTransactions_should_check_expected_versions_after_earlier_transfers_of_atomic_batch() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+        TransactionMetadata unconditional = transfer(source, destination, BigDecimal.ONE);
+        TransactionMetadata afterFirst = TransactionMetadata.builder()
+                                                            .from(unconditional)
+                                                            .expectedSourceVersion(1L)
+                                                            .build();
+
+        store.createTransactions(ImmutableList.of(unconditional, afterFirst), BatchMode.ATOMIC);
+        assertThatThrownBy(() -> store.createTransactions(ImmutableList.of(unconditional, afterFirst),
+                                                          BatchMode.ATOMIC))
+                .isInstanceOf(WebApplicationException.class);
+
+        assertThat(balance(source)).isEqualByComparingTo(new BigDecimal("8"));
+        assertThat(store.getAccountById(source.id()).get().version()).isEqualTo(2);
+    }
+
+    @Test
+    public void createTransaction_should_apply_each_expected_version_once_under_contention() throws Exception {
+        Account source = createAccount(new BigDecimal("1000"));
+        Account destination = createAccount(new BigDecimal("0"));
+        int threads = 8;
+        int attempts = 500;
+        AtomicInteger applied = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            Runnable transfers = () -> {
+                for (int i = 0; i < attempts; i++) {
+                    long version = store.getAccountById(source.id()).get().version();
+                    TransactionMetadata metadata = TransactionMetadata.builder()
+                                                                      .from(transfer(source, destination,
+                                                                                     BigDecimal.ONE))
+                                                                      .expectedSourceVersion(version)
+                                                                      .build();
+                    if (errorCode(() -> store.createTransaction(metadata)) == null) {
+                        applied.incrementAndGet();
+                    }
+                }
+            };
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(transfers));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(applied.get()).isPositive();
+        assertThat(store.getAccountById(source.id()).get().version()).isEqualTo(applied.get());
+        assertThat(balance(destination)).isEqualByComparingTo(new BigDecimal(applied.get()));
+    }
+
+    @Test
+    public void reserve_should_settle_by_credit_and_debit_once_even_within_one_store() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        Transaction reserved = store.reserve(transfer(source, destination, new BigDecimal("6")));
+        assertThat(errorCode(() -> store.reserve(transfer(source, destination, new BigDecimal("6")))))
+                .isEqualTo(ErrorCode.InsufficientBalance);
+        Transaction credited = store.credit(reserved);
+        assertThat(store.credit(reserved)).isEqualTo(credited);
+        Transaction debited = store.debit(reserved);
+
+        assertThat(debited).isEqualTo(credited);
+        assertThat(store.getTransactionById(reserved.id()).get()).isEqualTo(debited);
+        assertThat(balance(source)).isEqualByComparingTo("4");
+        assertThat(balance(destination)).isEqualByComparingTo("6");
+        assertThat(store.getAccountById(source.id()).get().version()).isEqualTo(1);
+        assertThat(store.getAccountById(destination.id()).get().version()).isEqualTo(1);
+    }
+
+    @Test
+    public void release_should_give_reserved_amount_back() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        Transaction reserved = store.reserve(transfer(source, destination, new BigDecimal("6")));
+        TransactionMetadata conditional = TransactionMetadata.builder()
+                                                             .from(transfer(source, destination, BigDecimal.ONE))
+                                                             .expectedSourceVersion(0L)
+                                                             .build();
+        // The source is at that version, but may not be by the time the reservation is settled
+        assertThat(errorCode(() -> store.createTransaction(conditional))).isEqualTo(ErrorCode.AccountVersionConflict);
+        store.release(reserved);
+
+        store.createTransaction(transfer(source, destination, BigDecimal.TEN));
+        assertThat(balance(source)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(store.getTransactionById(reserved.id()).isPresent()).isFalse();
+    }
+
+    @Test
+    public void store_should_record_transfers_rejections_and_lock_waits() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+
+        store.createTransaction(transfer(source, destination, new BigDecimal("6")));
+        assertThatThrownBy(() -> store.createTransaction(transfer(source, destination, new BigDecimal("6"))))
+                .isInstanceOf(WebApplicationException.class);
+        store.createTransactions(ImmutableList.of(transfer(source, destination, new BigDecimal("1")),
+                                                  transfer(source, destination, new BigDecimal("6"))),
+                                 BatchMode.BEST_EFFORT);
+
+        assertThat(registry.meter(metric("transfers")).getCount()).isEqualTo(2);
+        assertThat(registry.meter(metric("rejections", "InsufficientBalance")).getCount()).isEqualTo(2);
+        assertThat(registry.meter(metric("rejections", "AccountNotFound")).getCount()).isZero();
+        assertThat(registry.timer(metric("lock-wait")).getCount()).isGreaterThanOrEqualTo(4);
+        assertThat(registry.timer(metric("critical-section")).getSnapshot().size()).isPositive();
+        assertThat(registry.getGauges().get(metric("accounts")).getValue()).isEqualTo(2);
+        assertThat(registry.getGauges().get(metric("transactions")).getValue()).isEqualTo(2);
+    }
+
+    @Test
+    public void getTransactionsByAccountId_should_page_through_account_transactions_in_order() {
+        Account account = createAccount(new BigDecimal("10000"));
+        List<Account> others = createAccounts(2);
+        List<Transaction> expected = new ArrayList<>();
+        for (int i = 0; i < 2_500; i++) {
+            expected.add(store.createTransaction(transfer(account, others.get(i % 2), BigDecimal.ONE)));
+        }
+
+        List<Transaction> actual = new ArrayList<>();
+        long cursor = 0;
+        TransactionPage page;
+        do {
+            page = store.getTransactionsByAccountId(account.id(), cursor, 100).get();
+            actual.addAll(page.transactions());
+            cursor = page.next();
+        } while (!page.transactions().isEmpty());
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(cursor).isEqualTo(expected.size());
+        UniqueId<Account> other = others.get(0).id();
+        assertThat(store.getTransactionsByAccountId(other, 1_000, 1_000).get().transactions())
+                .isEqualTo(expected.stream()
+                                   .filter(transaction -> transaction.metadata().destination().equals(other))
+                                   .skip(1_000)
+                                   .collect(Collectors.toList()));
+        assertThat(store.getTransactionsByAccountId(UniqueId.of(UUID.randomUUID()), 0, 100).isPresent()).isFalse();
+    }
+
+    @Test
+    public void getTransactionsByAccountId_should_see_every_transaction_while_transfers_are_applied() throws Exception {
+        List<Account> accounts = createAccounts(2);
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> transfers = startTransfers(accounts, done);
+        try {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (int i = 0; i < 10_000; i++) {
+                Account account = accounts.get(random.nextInt(accounts.size()));
+                long after = random.nextInt(1_000);
+                TransactionPage page = store.getTransactionsByAccountId(account.id(), after, 100).get();
+                assertThat(page.transactions()).doesNotContainNull();
+                if (!page.transactions().isEmpty()) {
+                    assertThat(page.next()).isEqualTo(after + page.transactions().size());
+                }
+            }
+        } finally {
+            done.set(true);
+            transfers.get();
+        }
+    }
+
+    @Test
+    public void getStatement_should_only_include_transactions_up_to_when_it_was_taken() {
+        Account source = createAccount(new BigDecimal("10"));
+        Account destination = createAccount(new BigDecimal("0"));
+        Transaction first = store.createTransaction(transfer(source, destination, BigDecimal.ONE));
+        Transaction second = store.createTransaction(transfer(source, destination, BigDecimal.ONE));
+
+        AccountStatement statement = store.getStatement(source.id()).get();
+        store.createTransaction(transfer(source, destination, BigDecimal.ONE));
+
+        assertThat(statement.account().metadata().balance()).isEqualTo(new BigDecimal("8"));
+        assertThat(statement).containsExactly(first, second);
+        assertThat(store.getStatement(UniqueId.of(UUID.randomUUID())).isPresent()).isFalse();
+    }
+
+    @Test
+    public void getAccountsById_should_never_observe_half_applied_transfers() throws Exception {
+        List<Account> accounts = createAccounts(2);
+        List<UniqueId<Account>> accountIds = ids(accounts);
+        BigDecimal total = INITIAL_BALANCE.multiply(BigDecimal.valueOf(accounts.size()));
+
+        AtomicBoolean done = new AtomicBoolean();
+        Future<?> writer = startTransfers(accounts, done);
+        try {
+            for (int i = 0; i < TRANSFERS / 4; i++) {
+                BigDecimal sum = store.getAccountsById(accountIds)
+                                      .values()
+                                      .stream()
+                                      .map(account -> account.metadata().balance())
+                                      .reduce(BigDecimal.ZERO, BigDecimal::add);
+                assertThat(sum).isEqualByComparingTo(total);
+            }
+        } finally {
+            done.set(true);
+            writer.get();
+        }
+    }
+
+    private Future<?> startTransfers(List<Account> accounts, AtomicBoolean done) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(() -> {
+                while (!done.get()) {
+                    randomTransfers(accounts, 1_000);
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void runTransfers(List<Account> accounts, int threads, int transfers) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    randomTransfers(accounts, transfers / threads);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void randomTransfers(List<Account> accounts, int transfers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            Account source = accounts.get(random.nextInt(accounts.size()));
+            Account destination = accounts.get(random.nextInt(accounts.size()));
+            if (source == destination) {
+                continue;
+            }
+            try {
+                store.createTransaction(transfer(source, destination, BigDecimal.valueOf(random.nextInt(1, 100))));
+            } catch (WebApplicationException e) {
+                // Insufficient balance is expected every now and then
+            }
+        }
+    }
+
+    private static List<UniqueId<Account>> ids(Account... accounts) {
+        List<UniqueId<Account>> ids = new ArrayList<>(accounts.length);
+        for (Account account : accounts) {
+            ids.add(account.id());
+        }
+        return ids;
+    }
+
+    private static List<UniqueId<Account>> ids(List<Account> accounts) {
+        return accounts.stream()
+                       .map(Account::id)
+                       .collect(Collectors.toList());
+    }
+
+    private List<Account> createAccounts(int count) {
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(createAccount(INITIAL_BALANCE));
+        }
+        return accounts;
+    }
+
+    private Account createAccount(BigDecimal balance) {
+        return store.createAccount(AccountMetadata.builder()
+                                                  .balance(balance)
+                                                  .build());
+    }
+
+    private BigDecimal balance(Account account) {
+        return store.getAccountById(account.id()).get().metadata().balance();
+    }
+
+    /**
+     * Returns the error code the action fails with, or null if it succeeds.
+     */
+    private static ErrorCode errorCode(Runnable action) {
+        try {
+            action.run();
+            return null;
+        } catch (WebApplicationException e) {
+            return ((TransferooError) e.getResponse().getEntity()).errorCode();
+        }
+    }
+
+    private static String metric(String... names) {
+        return MetricRegistry.name(AccountStore.class, names);
+    }
+
+    private static TransactionMetadata transfer(Account source, Account destination, BigDecimal amount) {
+        return TransactionMetadata.builder()
+                                  .source(source.id())
+                                  .destination(destination.id())
+                                  .amount(amount)
+                                  .build();
+    }
+}
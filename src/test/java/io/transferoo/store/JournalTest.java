@@ -0,0 +1,420 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.ws.rs.WebApplicationException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class JournalTest {
+
+    private static final int ACCOUNTS = 100;
+    private static final int TRANSFERS = 5_000;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final JournalConfiguration.Durability durability;
+    private StoreConfiguration.AccountStorage accountStorage = StoreConfiguration.AccountStorage.HEAP;
+    private Duration flushInterval = new JournalConfiguration().getFlushInterval();
+    private AccountStore store;
+
+    public JournalTest(JournalConfiguration.Durability durability) {
+        this.durability = durability;
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Object[] durabilities() {
+        return JournalConfiguration.Durability.values();
+    }
+
+    @After
+    public void after() throws Exception {
+        if (store != null) {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void store_should_recover_accounts_and_transactions_after_restart() throws Exception {
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(2);
+        Account precise = createAccount(new BigDecimal("0.125"));
+        Transaction transaction = store.createTransaction(transfer(accounts.get(0), accounts.get(1),
+                                                                   new BigDecimal("10.50")));
+        store.createTransaction(transfer(precise, accounts.get(0), new BigDecimal("0.1")));
+
+        restart(Size.megabytes(64));
+
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("989.60"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1010.50"));
+        assertThat(balance(precise)).isEqualTo(new BigDecimal("0.025"));
+        assertThat(store.getTransactionById(transaction.id()).get()).isEqualTo(transaction);
+    }
+
+    @Test
+    public void store_should_recover_from_many_segments() throws Exception {
+        restart(Size.kilobytes(1));
+        List<Account> accounts = createAccounts(ACCOUNTS);
+        randomTransfers(accounts, TRANSFERS / 10);
+        List<BigDecimal> balances = balances(accounts);
+
+        restart(Size.kilobytes(1));
+
+        assertThat(segments().size()).isGreaterThan(1);
+        assertThat(balances(accounts)).isEqualTo(balances);
+    }
+
+    @Test
+    public void store_should_truncate_torn_record_at_end_of_journal() throws Exception {
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(2);
+        store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+        store.stop();
+        store = null;
+
+        // As if we crashed half way through writing a record
+        Path last = segments().get(segments().size() - 1);
+        long size = Files.size(last);
+        Files.write(last, new byte[] {0, 0, 0, 57, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        restart(Size.megabytes(64));
+        assertThat(Files.size(last)).isEqualTo(size);
+        store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("998"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1002"));
+    }
+
+    @Test
+    public void store_should_replay_atomic_batch_whole_or_not_at_all() throws Exception {
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(3);
+        List<TransactionMetadata> batch = ImmutableList.of(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE),
+                                                           transfer(accounts.get(1), accounts.get(2), BigDecimal.ONE),
+                                                           transfer(accounts.get(2), accounts.get(0), BigDecimal.TEN));
+        store.createTransactions(batch, BatchMode.ATOMIC);
+        store.stop();
+        store = null;
+
+        // As if we crashed with only the start of the batch written
+        Path last = segments().get(segments().size() - 1);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(last) - 10);
+        }
+
+        restart(Size.megabytes(64));
+        assertThat(balances(accounts)).containsOnly(INITIAL_BALANCE);
+        store.createTransactions(batch, BatchMode.ATOMIC);
+
+        restart(Size.megabytes(64));
+        assertThat(balances(accounts)).containsExactly(new BigDecimal("1009"), new BigDecimal("1000"),
+                                                       new BigDecimal("991"));
+    }
+
+    @Test
+    public void store_should_recover_from_snapshot_and_journal_after_it() throws Exception {
+        restart(Size.kilobytes(1));
+        List<Account> accounts = createAccounts(ACCOUNTS);
+        randomTransfers(accounts, TRANSFERS / 10);
+        store.snapshot();
+        randomTransfers(accounts, TRANSFERS / 10);
+        List<BigDecimal> balances = balances(accounts);
+        List<List<Transaction>> histories = histories(accounts);
+
+        restart(Size.kilobytes(1));
+
+        assertThat(balances(accounts)).isEqualTo(balances);
+        assertThat(histories(accounts)).isEqualTo(histories);
+    }
+
+    @Test
+    public void store_should_recover_off_heap_accounts_from_snapshot_and_journal_after_it() throws Exception {
+        accountStorage = StoreConfiguration.AccountStorage.OFF_HEAP;
+        restart(Size.kilobytes(1));
+        List<Account> accounts = createAccounts(ACCOUNTS);
+        randomTransfers(accounts, TRANSFERS / 10);
+        store.snapshot();
+        randomTransfers(accounts, TRANSFERS / 10);
+        List<BigDecimal> balances = balances(accounts);
+        List<List<Transaction>> histories = histories(accounts);
+
+        restart(Size.kilobytes(1));
+
+        assertThat(balances(accounts)).isEqualTo(balances);
+        assertThat(histories(accounts)).isEqualTo(histories);
+    }
+
+    @Test
+    public void store_should_recover_from_crash_after_snapshot() throws Exception {
+        // Nothing is flushed in the background, so an asynchronous journal loses whatever the store does not flush
+        flushInterval = Duration.days(1);
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(2);
+        restart(Size.megabytes(64));
+        Transaction first = store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+        store.snapshot();
+
+        crash();
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("999"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1001"));
+        Transaction second = store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("998"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1002"));
+        assertThat(store.getTransactionById(first.id()).get()).isEqualTo(first);
+        assertThat(store.getTransactionById(second.id()).get()).isEqualTo(second);
+    }
+
+    @Test
+    public void snapshot_should_only_hold_changes_journal_has_made_durable() throws Exception {
+        flushInterval = Duration.days(1);
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(2);
+        restart(Size.megabytes(64));
+        store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+        store.snapshot();
+        crash();
+
+        // The journal alone has to be able to replay whatever a fuzzy snapshot holds of the changes after it
+        for (Path snapshot : files(folder.getRoot().toPath().resolve("journal"))) {
+            if (snapshot.getFileName().toString().startsWith("snapshot-")) {
+                Files.delete(snapshot);
+            }
+        }
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("999"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1001"));
+    }
+
+    @Test
+    public void store_should_carry_on_from_snapshot_ahead_of_journal() throws Exception {
+        restart(Size.megabytes(64));
+        List<Account> accounts = createAccounts(2);
+        restart(Size.megabytes(64));
+        Path last = segments().get(segments().size() - 1);
+        long size = Files.size(last);
+        store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+        store.snapshot();
+        store.stop();
+        store = null;
+
+        // As if the journal had lost its last record, which the snapshot has
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("999"));
+        store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+
+        restart(Size.megabytes(64));
+        assertThat(balance(accounts.get(0))).isEqualTo(new BigDecimal("998"));
+        assertThat(balance(accounts.get(1))).isEqualTo(new BigDecimal("1002"));
+    }
+
+    @Test
+    public void snapshot_should_drop_journal_it_covers() throws Exception {
+        restart(Size.kilobytes(1));
+        List<Account> accounts = createAccounts(ACCOUNTS);
+        Transaction transaction = store.createTransaction(transfer(accounts.get(0), accounts.get(1), BigDecimal.ONE));
+        randomTransfers(accounts, TRANSFERS / 10);
+        // Makes sure everything is written out, even in the background
+        restart(Size.kilobytes(1));
+        int segments = segments().size();
+
+        store.snapshot();
+
+        assertThat(segments().size()).isLessThan(segments);
+        restart(Size.kilobytes(1));
+        assertThat(store.getTransactionById(transaction.id()).get()).isEqualTo(transaction);
+    }
+
+    @Test
+    public void snapshot_should_not_lose_transfers_applied_while_it_is_taken() throws Exception {
+        restart(Size.kilobytes(64));
+        List<Account> accounts = createAccounts(ACCOUNTS);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> transfers = executor.submit(() -> randomTransfers(accounts, TRANSFERS));
+            while (!transfers.isDone()) {
+                store.snapshot();
+            }
+            transfers.get();
+        } finally {
+            executor.shutdown();
+        }
+        List<BigDecimal> balances = balances(accounts);
+        List<List<Transaction>> histories = histories(accounts);
+
+        restart(Size.kilobytes(64));
+
+        assertThat(balances(accounts)).isEqualTo(balances);
+        assertThat(histories(accounts)).isEqualTo(histories);
+        assertThat(balances.stream().reduce(BigDecimal.ZERO, BigDecimal::add))
+                .isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(ACCOUNTS)));
+    }
+
+    private void restart(Size segmentSize) throws Exception {
+        if (store != null) {
+            store.stop();
+        }
+        JournalConfiguration journal = new JournalConfiguration();
+        journal.setDirectory(new File(folder.getRoot(), "journal").getPath());
+        journal.setDurability(durability);
+        journal.setSegmentSize(segmentSize);
+        journal.setFlushInterval(flushInterval);
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setAccountStorage(accountStorage);
+        configuration.setOffHeapAccounts(ACCOUNTS);
+        configuration.setJournal(journal);
+        store = new AccountStore(configuration);
+        store.start();
+    }
+
+    /**
+     * Stops the store as if the process had crashed: whatever the journal had not made durable is lost.
+     */
+    private void crash() throws Exception {
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        Path disk = folder.newFolder().toPath();
+        copyFiles(directory, disk);
+        store.stop();
+        store = null;
+        for (Path file : files(directory)) {
+            Files.delete(file);
+        }
+        copyFiles(disk, directory);
+    }
+
+    private static void copyFiles(Path from, Path to) throws IOException {
+        for (Path file : files(from)) {
+            Files.copy(file, to.resolve(file.getFileName()));
+        }
+    }
+
+    private static List<Path> files(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("journal"))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("journal-"))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private void randomTransfers(List<Account> accounts, int transfers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            Account source = accounts.get(random.nextInt(accounts.size()));
+            Account destination = accounts.get(random.nextInt(accounts.size()));
+            if (source == destination) {
+                continue;
+            }
+            try {
+                store.createTransaction(transfer(source, destination, BigDecimal.valueOf(random.nextInt(1, 100))));
+            } catch (WebApplicationException e) {
+                // Insufficient balance is expected every now and then
+            }
+        }
+    }
+
+    private List<Account> createAccounts(int count) {
+        List<Account> accounts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            accounts.add(createAccount(INITIAL_BALANCE));
+        }
+        return accounts;
+    }
+
+    private Account createAccount(BigDecimal balance) {
+        return store.createAccount(AccountMetadata.builder()
+                                                  .balance(balance)
+                                                  .build());
+    }
+
+    private List<BigDecimal> balances(List<Account> accounts) {
+        return accounts.stream()
+                       .map(this::balance)
+                       .collect(Collectors.toList());
+    }
+
+    private List<List<Transaction>> histories(List<Account> accounts) {
+        return accounts.stream()
+                       .map(account -> store.getTransactionsByAccountId(account.id(), 0, Integer.MAX_VALUE)
+                                            .get()
+                                            .transactions())
+                       .collect(Collectors.toList());
+    }
+
+    private BigDecimal balance(Account account) {
+        return store.getAccountById(account.id()).get().metadata().balance();
+    }
+
+    private static TransactionMetadata transfer(Account source, Account destination, BigDecimal amount) {
+        return TransactionMetadata.builder()
+                                  .source(source.id())
+                                  .destination(destination.id())
+                                  .amount(amount)
+                                  .build();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+
+public class OffHeapAccountTableTest {
+
+    private static final int ACCOUNTS = 500_000;
+
+    @Test
+    public void get_should_find_every_created_account() {
+        OffHeapAccountTable table = new OffHeapAccountTable(10_000);
+        List<UniqueId<Account>> ids = ids(10_000);
+        for (int i = 0; i < ids.size(); i++) {
+            assertThat(table.create(ids.get(i), i, 2, i + 1)).isNotNull();
+        }
+
+        for (int i = 0; i < ids.size(); i++) {
+            AccountRecord record = table.get(UniqueId.of(new UUID(ids.get(i).id().getMostSignificantBits(),
+                                                                  ids.get(i).id().getLeastSignificantBits())));
+            assertThat(record.balance()).isEqualTo(i);
+            assertThat(record.scale()).isEqualTo(2);
+            assertThat(record.sequence()).isEqualTo(i + 1);
+        }
+        assertThat(table.get(UniqueId.of(UUID.randomUUID()))).isNull();
+
+        Set<UniqueId<Account>> iterated = new HashSet<>();
+        for (AccountRecord record : table.records()) {
+            iterated.add(record.id());
+        }
+        assertThat(iterated).containsOnlyElementsOf(ids).hasSize(ids.size());
+    }
+
+    @Test
+    public void create_should_keep_existing_account() {
+        OffHeapAccountTable table = new OffHeapAccountTable(1);
+        UniqueId<Account> id = UniqueId.of(UUID.randomUUID());
+
+        assertThat(table.create(id, 10, 0, 1)).isNotNull();
+        assertThat(table.create(id, 20, 0, 2)).isNull();
+
+        assertThat(table.get(id).balance()).isEqualTo(10);
+    }
+
+    @Test
+    public void create_should_throw_once_full() {
+        OffHeapAccountTable table = new OffHeapAccountTable(2);
+        table.create(UniqueId.of(UUID.randomUUID()), 0, 0, 1);
+        table.create(UniqueId.of(UUID.randomUUID()), 0, 0, 2);
+
+        assertThatThrownBy(() -> table.create(UniqueId.of(UUID.randomUUID()), 0, 0, 3))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Account table is full: 2 accounts");
+    }
+
+    @Test
+    public void setBalance_should_update_record_in_place() {
+        OffHeapAccountTable table = new OffHeapAccountTable(16);
+        UniqueId<Account> id = UniqueId.of(UUID.randomUUID());
+        table.create(id, 100, 2, 1);
+
+        table.get(id).setBalance(75, 3, 5);
+        table.get(id).setBalance(70, 1, 6);
+
+        AccountRecord record = table.get(id);
+        assertThat(record.balance()).isEqualTo(70);
+        assertThat(record.scale()).isEqualTo(3);
+        assertThat(record.sequence()).isEqualTo(6);
+    }
+
+    @Test
+    public void history_should_only_be_created_by_first_transaction() {
+        OffHeapAccountTable table = new OffHeapAccountTable(16);
+        UniqueId<Account> id = UniqueId.of(UUID.randomUUID());
+        UniqueId<Account> other = UniqueId.of(UUID.randomUUID());
+        table.create(id, 100, 0, 1);
+        table.create(other, 100, 0, 2);
+        Transaction transaction = Transaction.builder()
+                                             .id(UniqueId.of(UUID.randomUUID()))
+                                             .metadata(TransactionMetadata.builder()
+                                                                          .source(id)
+                                                                          .destination(other)
+                                                                          .amount(BigDecimal.ONE)
+                                                                          .build())
+                                             .build();
+
+        assertThat(table.get(id).history()).isSameAs(TransactionHistory.NONE);
+        table.get(id).appendHistory(transaction);
+
+        assertThat(table.get(id).history().get(0, 1)).containsExactly(transaction);
+        assertThat(table.get(other).history()).isSameAs(TransactionHistory.NONE);
+    }
+
+    @Test
+    public void off_heap_table_should_use_a_fraction_of_the_heap_of_a_heap_table() {
+        List<UniqueId<Account>> ids = ids(ACCOUNTS);
+
+        long before = usedHeap();
+        AccountTable heap = new HeapAccountTable();
+        for (UniqueId<Account> id : ids) {
+            heap.create(id, 0, 0, 0);
+        }
+        long heapTable = usedHeap() - before;
+        assertThat(heap.get(ids.get(0))).isNotNull();
+        heap = null;
+
+        before = usedHeap();
+        AccountTable offHeap = new OffHeapAccountTable(ACCOUNTS);
+        for (UniqueId<Account> id : ids) {
+            offHeap.create(id, 0, 0, 0);
+        }
+        long offHeapTable = usedHeap() - before;
+        assertThat(offHeap.get(ids.get(0))).isNotNull();
+
+        // Only the transaction histories stay on the heap, and the accounts do not have any yet
+        assertThat(offHeapTable).isLessThan(heapTable / 4);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static List<UniqueId<Account>> ids(int count) {
+        List<UniqueId<Account>> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UniqueId.of(UUID.randomUUID()));
+        }
+        return ids;
+    }
+}
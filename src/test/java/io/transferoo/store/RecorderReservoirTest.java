@@ -0,0 +1,69 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RecorderReservoirTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final RecorderReservoir reservoir = new RecorderReservoir(clock::get);
+
+    @Test
+    public void getSnapshot_should_not_take_values_away_from_other_snapshots() {
+        reservoir.update(10);
+        reservoir.update(20);
+
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+
+        reservoir.update(30);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(3);
+        assertThat(reservoir.getSnapshot().getMax()).isEqualTo(30);
+        assertThat(reservoir.size()).isEqualTo(3);
+    }
+
+    @Test
+    public void getSnapshot_should_drop_values_older_than_a_minute() {
+        reservoir.update(10);
+        reservoir.getSnapshot();
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        reservoir.update(20);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(1);
+        assertThat(reservoir.getSnapshot().getMin()).isEqualTo(20);
+
+        clock.addAndGet(TimeUnit.MINUTES.toNanos(5));
+        assertThat(reservoir.getSnapshot().size()).isZero();
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.jersey.validation.Validators;
+import io.transferoo.api.Account;
+import io.transferoo.api.AccountMetadata;
+import io.transferoo.api.BatchMode;
+import io.transferoo.api.ErrorCode;
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.TransactionResult;
+import io.transferoo.api.TransferooError;
+import io.transferoo.api.UniqueId;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import javax.validation.ConstraintViolation;
+import javax.ws.rs.WebApplicationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+@RunWith(Parameterized.class)
+public class ShardedAccountStoreTest {
+
+    private static final int SHARDS = 4;
+    private static final int TRANSFERS = 200_000;
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000");
+
+    private final StoreConfiguration.Engine engine;
+    private final MetricRegistry registry = new MetricRegistry();
+    private final ShardedAccountStore store;
+
+    public ShardedAccountStoreTest(StoreConfiguration.Engine engine) {
+        this.engine = engine;
+        this.store = new ShardedAccountStore(configuration(engine, SHARDS), registry);
+    }
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> engines() {
+        List<Object[]> engines = new ArrayList<>();
+        for (StoreConfiguration.Engine engine : StoreConfiguration.Engine.values()) {
+            engines.add(new Object[] {engine});
+        }
+        return engines;
+    }
+
+    @Before
+    public void before() throws IOException {
+        store.start();
+    }
+
+    @After
+    public void after() throws InterruptedException, IOException {
+        store.stop();
+    }
+
+    @Test
+    public void createTransaction_should_move_amount_across_shards() {
+        Account source = createAccount(new BigDecimal("10.0"), 0);
+        Account destination = createAccount(new BigDecimal("1.5"), 1);
+
+        Transaction transaction = store.createTransaction(transfer(source, destination, new BigDecimal("2.5")));
+
+        assertThat(balance(source)).isEqualTo(new BigDecimal("7.5"));
+        assertThat(balance(destination)).isEqualTo(new BigDecimal("4.0"));
+        assertThat(store.getAccountById(destination.id()).get().version()).isEqualTo(1);
+        assertThat(store.getTransactionById(transaction.id()).get()).isEqualTo(transaction);
+        assertThat(store.getTransactionsByAccountId(source.id(), 0, 10).get().transactions())
+                .containsExactly(transaction);
+        assertThat(store.getStatement(destination.id()).get()).containsExactly(transaction);
+    }
+
+    @Test
+    public void createTransaction_should_give_reservation_back_if_destination_rejects_transfer() {
+        Account source = createAccount(new BigDecimal("10"), 0);
+        Account full = createAccount(new BigDecimal(Long.MAX_VALUE).movePointLeft(8), 1);
+        Account destination = createAccount(BigDecimal.ZERO, 2);
+        TransactionMetadata stale = TransactionMetadata.builder()
+                                                       .from(transfer(source, destination, BigDecimal.TEN))
+                                                       .expectedDestinationVersion(1L)
+                                                       .build();
+
+        assertThat(errorCode(() -> store.createTransaction(transfer(source, full, BigDecimal.TEN))))
+                .isEqualTo(ErrorCode.AmountOutOfRange);
+        assertThat(errorCode(() -> store.createTransaction(stale))).isEqualTo(ErrorCode.AccountVersionConflict);
+        assertThat(balance(source)).isEqualTo(new BigDecimal("10"));
+
+        store.createTransaction(transfer(source, destination, BigDecimal.TEN));
+        assertThat(balance(source)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(destination)).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    public void createTransaction_should_not_overdraw_source_with_concurrent_transfers_within_and_across_shards()
+            throws Exception {
+        Account source = createAccount(new BigDecimal("100"), 0);
+        List<Account> destinations = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            destinations.add(createAccount(BigDecimal.ZERO, shard));
+        }
+        AtomicInteger applied = new AtomicInteger();
+        Runnable transfers = () -> {
+            for (int i = 0; i < 100; i++) {
+                Account destination = destinations.get(i % destinations.size());
+                if (errorCode(() -> store.createTransaction(transfer(source, destination, BigDecimal.ONE))) == null) {
+                    applied.incrementAndGet();
+                }
+            }
+        };
+
+        run(8, transfers);
+
+        assertThat(applied.get()).isEqualTo(100);
+        assertThat(balance(source)).isEqualByComparingTo(BigDecimal.ZERO);
+        BigDecimal received = destinations.stream()
+                                          .map(this::balance)
+                                          .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(received).isEqualByComparingTo(new BigDecimal("100"));
+    }
+
+    @Test
+    public void createTransactions_should_apply_atomic_batch_across_shards_in_order() {
+        Account first = createAccount(new BigDecimal("10"), 0);
+        Account second = createAccount(BigDecimal.ZERO, 1);
+        Account third = createAccount(BigDecimal.ZERO, 0);
+
+        List<TransactionResult> results = store.createTransactions(
+                ImmutableList.of(transfer(first, second, BigDecimal.TEN),
+                                 transfer(second, third, BigDecimal.TEN)),
+                BatchMode.ATOMIC);
+
+        assertThat(results).extracting(TransactionResult::error).containsExactly(null, null);
+        assertThat(balance(first)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(second)).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(balance(third)).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(store.getTransactionById(results.get(1).transaction().id()).isPresent()).isTrue();
+    }
+
+    @Test
+    public void createTransactions_should_apply_nothing_if_any_transfer_across_shards_fails() {
+        Account source = createAccount(new BigDecimal("10"), 0);
+        Account destination = createAccount(BigDecimal.ZERO, 1);
+
+        assertThatThrownBy(() -> store.createTransactions(
+                ImmutableList.of(transfer(source, destination, new BigDecimal("6")),
+                                 transfer(source, destination, new BigDecimal("6"))),
+                BatchMode.ATOMIC)).isInstanceOf(WebApplicationException.class);
+        List<TransactionResult> results = store.createTransactions(
+                ImmutableList.of(transfer(source, destination, new BigDecimal("6")),
+                                 transfer(source, destination, new BigDecimal("6"))),
+                BatchMode.BEST_EFFORT);
+
+        assertThat(results.get(1).error().errorCode()).isEqualTo(ErrorCode.InsufficientBalance);
+        assertThat(balance(source)).isEqualByComparingTo(new BigDecimal("4"));
+        assertThat(balance(destination)).isEqualByComparingTo(new BigDecimal("6"));
+    }
+
+    @Test
+    public void getAccountsById_should_never_observe_half_applied_transfers_across_shards() throws Exception {
+        List<Account> accounts = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            accounts.add(createAccount(INITIAL_BALANCE, shard));
+        }
+        List<UniqueId<Account>> accountIds = accounts.stream().map(Account::id).collect(Collectors.toList());
+        BigDecimal total = INITIAL_BALANCE.multiply(BigDecimal.valueOf(accounts.size()));
+
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> {
+                while (!done.get()) {
+                    randomTransfers(store, accounts, 1_000);
+                }
+            });
+            try {
+                for (int i = 0; i < TRANSFERS / 4; i++) {
+                    BigDecimal sum = store.getAccountsById(accountIds)
+                                          .values()
+                                          .stream()
+                                          .map(account -> account.metadata().balance())
+                                          .reduce(BigDecimal.ZERO, BigDecimal::add);
+                    assertThat(sum).isEqualByComparingTo(total);
+                }
+            } finally {
+                done.set(true);
+                writer.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void store_should_add_up_metrics_of_all_shards() {
+        Account first = createAccount(new BigDecimal("10"), 0);
+        Account second = createAccount(BigDecimal.ZERO, 1);
+        Account third = createAccount(BigDecimal.ZERO, 0);
+        int accounts = store.getAccountsById(ImmutableList.of(first.id(), second.id(), third.id())).size();
+
+        store.createTransaction(transfer(first, second, BigDecimal.ONE));
+        store.createTransaction(transfer(first, third, BigDecimal.ONE));
+        assertThat(errorCode(() -> store.createTransaction(transfer(first, second, BigDecimal.TEN))))
+                .isEqualTo(ErrorCode.InsufficientBalance);
+
+        assertThat(accounts).isEqualTo(3);
+        assertThat(registry.meter(metric("transfers")).getCount()).isEqualTo(2);
+        assertThat(registry.meter(metric("rejections", "InsufficientBalance")).getCount()).isEqualTo(1);
+        assertThat(registry.getGauges().get(metric("transactions")).getValue()).isEqualTo(2);
+        assertThat((Integer) registry.getGauges().get(metric("accounts")).getValue()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    public void store_should_refuse_to_keep_a_journal() {
+        StoreConfiguration configuration = configuration(engine, SHARDS);
+        configuration.setJournal(new JournalConfiguration());
+
+        assertThatThrownBy(() -> new ShardedAccountStore(configuration, new MetricRegistry()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void configuration_with_a_journal_should_fail_validation() {
+        StoreConfiguration configuration = configuration(engine, SHARDS);
+        configuration.setJournal(new JournalConfiguration());
+
+        assertThat(Validators.newValidator().validate(configuration))
+                .extracting(ConstraintViolation::getMessage)
+                .contains("store.journal cannot be kept by a store with store.shards above 1");
+    }
+
+    private static void run(int threads, Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void randomTransfers(Ledger ledger, List<Account> accounts, int transfers) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < transfers; i++) {
+            Account source = accounts.get(random.nextInt(accounts.size()));
+            Account destination = accounts.get(random.nextInt(accounts.size()));
+            if (source == destination) {
+                continue;
+            }
+            try {
+                ledger.createTransaction(transfer(source, destination, BigDecimal.valueOf(random.nextInt(1, 100))));
+            } catch (WebApplicationException e) {
+                // Insufficient balance is expected every now and then
+            }
+        }
+    }
+
+    /**
+     * Creates accounts until one lands in the given shard.
+     */
+    private Account createAccount(BigDecimal balance, int shard) {
+        while (true) {
+            Account account = store.createAccount(AccountMetadata.builder().balance(balance).build());
+            if (store.shardIndex(account.id()) == shard) {
+                return account;
+            }
+        }
+    }
+
+    private BigDecimal balance(Account account) {
+        return store.getAccountById(account.id()).get().metadata().balance();
+    }
+
+    /**
+     * Returns the error code the action fails with, or null if it succeeds.
+     */
+    private static ErrorCode errorCode(Runnable action) {
+        try {
+            action.run();
+            return null;
+        } catch (WebApplicationException e) {
+            return ((TransferooError) e.getResponse().getEntity()).errorCode();
+        }
+    }
+
+    private static StoreConfiguration configuration(StoreConfiguration.Engine engine, int shards) {
+        StoreConfiguration configuration = new StoreConfiguration();
+        configuration.setEngine(engine);
+        configuration.setShards(shards);
+        return configuration;
+    }
+
+    private static String metric(String... names) {
+        return MetricRegistry.name(AccountStore.class, names);
+    }
+
+    private static TransactionMetadata transfer(Account source, Account destination, BigDecimal amount) {
+        return TransactionMetadata.builder()
+                                  .source(source.id())
+                                  .destination(destination.id())
+                                  .amount(amount)
+                                  .build();
+    }
+}
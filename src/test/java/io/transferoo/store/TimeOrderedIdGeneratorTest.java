@@ -0,0 +1,106 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class TimeOrderedIdGeneratorTest {
+
+    private static final int IDS = 100_000;
+
+    @Test
+    public void next_should_lay_out_ids_like_uuid_version_7() {
+        UUID id = new TimeOrderedIdGenerator(() -> 0x0123456789abL).next();
+
+        assertThat(id.version()).isEqualTo(7);
+        assertThat(id.variant()).isEqualTo(2);
+        assertThat(id.getMostSignificantBits() >>> 16).isEqualTo(0x0123456789abL);
+    }
+
+    @Test
+    public void next_should_keep_increasing_within_a_millisecond_and_when_clock_goes_back() {
+        AtomicLong clock = new AtomicLong(1_000);
+        IdGenerator generator = new TimeOrderedIdGenerator(clock::get);
+
+        UUID previous = generator.next();
+        for (int i = 0; i < 10_000; i++) {
+            if (i == 5_000) {
+                clock.set(500);
+            }
+            UUID next = generator.next();
+            assertThat(Long.compareUnsigned(next.getMostSignificantBits(), previous.getMostSignificantBits()))
+                    .isPositive();
+            previous = next;
+        }
+    }
+
+    @Test
+    public void next_should_not_repeat_across_threads() throws Exception {
+        IdGenerator generator = new TimeOrderedIdGenerator();
+        List<List<UUID>> generated = generate(generator, 8, IDS);
+
+        Set<UUID> unique = new HashSet<>();
+        generated.forEach(unique::addAll);
+        assertThat(unique).hasSize(8 * IDS);
+    }
+
+    private static List<List<UUID>> generate(IdGenerator generator, int threads, int count) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<List<UUID>>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    List<UUID> ids = new ArrayList<>(count);
+                    start.await();
+                    for (int j = 0; j < count; j++) {
+                        ids.add(generator.next());
+                    }
+                    return ids;
+                }));
+            }
+            start.countDown();
+            List<List<UUID>> generated = new ArrayList<>();
+            for (Future<List<UUID>> future : futures) {
+                generated.add(future.get());
+            }
+            return generated;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.transferoo.api.Transaction;
+import io.transferoo.api.TransactionMetadata;
+import io.transferoo.api.UniqueId;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import org.junit.Test;
+
+public class TransferSequencerTest {
+
+    private static final int PRODUCERS = 4;
+    private static final LongConsumer NO_WAIT = wait -> { };
+
+    @Test
+    public void publish_should_fail_future_once_stopped() throws InterruptedException {
+        TransferSequencer sequencer = new TransferSequencer(16, TransferSequencerTest::transaction, NO_WAIT);
+        sequencer.start();
+        sequencer.stop();
+
+        assertThatThrownBy(() -> sequencer.publish(transfer(BigDecimal.ONE)).join())
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void every_transfer_published_while_stopping_should_complete() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            for (int round = 0; round < 50; round++) {
+                TransferSequencer sequencer = new TransferSequencer(16, TransferSequencerTest::transaction, NO_WAIT);
+                sequencer.start();
+                List<Future<List<CompletableFuture<Transaction>>>> producers = new ArrayList<>();
+                for (int i = 0; i < PRODUCERS; i++) {
+                    producers.add(executor.submit(() -> publishUntilStopped(sequencer)));
+                }
+                Thread.sleep(1);
+                sequencer.stop();
+
+                for (Future<List<CompletableFuture<Transaction>>> producer : producers) {
+                    for (CompletableFuture<Transaction> result : producer.get(5, TimeUnit.SECONDS)) {
+                        assertThat(result.handle((transaction, thrown) -> true).get(5, TimeUnit.SECONDS)).isTrue();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void error_in_writer_should_fail_transfers_and_stop_sequencer() throws Exception {
+        BigDecimal fatal = new BigDecimal("13");
+        TransferSequencer sequencer = new TransferSequencer(16, metadata -> {
+            if (metadata.amount().equals(fatal)) {
+                throw new AssertionError("Store is broken");
+            }
+            return transaction(metadata);
+        }, NO_WAIT);
+        sequencer.start();
+
+        assertThat(sequencer.publish(transfer(BigDecimal.ONE)).get(5, TimeUnit.SECONDS).metadata().amount())
+                .isEqualTo(BigDecimal.ONE);
+        CompletableFuture<Transaction> failed = sequencer.publish(transfer(fatal));
+        assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+        assertThatThrownBy(() -> sequencer.publish(transfer(BigDecimal.ONE)).get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        sequencer.stop();
+    }
+
+    private static List<CompletableFuture<Transaction>> publishUntilStopped(TransferSequencer sequencer) {
+        List<CompletableFuture<Transaction>> results = new ArrayList<>();
+        CompletableFuture<Transaction> result;
+        do {
+            result = sequencer.publish(transfer(BigDecimal.ONE));
+            results.add(result);
+        } while (!result.isCompletedExceptionally());
+        return results;
+    }
+
+    private static TransactionMetadata transfer(BigDecimal amount) {
+        return TransactionMetadata.builder()
+                                  .source(UniqueId.of(UUID.randomUUID()))
+                                  .destination(UniqueId.of(UUID.randomUUID()))
+                                  .amount(amount)
+                                  .build();
+    }
+
+    private static Transaction transaction(TransactionMetadata metadata) {
+        return Transaction.builder().id(UniqueId.of(UUID.randomUUID())).metadata(metadata).build();
+    }
+}
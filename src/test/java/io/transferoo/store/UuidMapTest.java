@@ -0,0 +1,183 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jakub Dominik Kozlowski
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.transferoo.store;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.transferoo.api.Account;
+import io.transferoo.api.UniqueId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+public class UuidMapTest {
+
+    private static final int WRITERS = 4;
+
+    @Test
+    public void get_should_find_every_entry_after_growing() {
+        UuidMap<String> map = new UuidMap<>();
+        List<UniqueId<Account>> ids = ids(10_000);
+        for (UniqueId<Account> id : ids) {
+            assertThat(map.putIfAbsent(id, id.toString())).isNull();
+        }
+
+        assertThat(map.size()).isEqualTo(ids.size());
+        for (UniqueId<Account> id : ids) {
+            assertThat(map.get(UniqueId.of(new UUID(id.id().getMostSignificantBits(),
+                                                     id.id().getLeastSignificantBits()))))
+                    .isEqualTo(id.toString());
+        }
+        assertThat(map.get(UniqueId.of(UUID.randomUUID()))).isNull();
+        assertThat(map.values()).hasSize(ids.size());
+    }
+
+    @Test
+    public void putIfAbsent_should_keep_existing_value_and_put_should_replace_it() {
+        UuidMap<String> map = new UuidMap<>();
+        UniqueId<Account> id = UniqueId.of(UUID.randomUUID());
+
+        assertThat(map.putIfAbsent(id, "first")).isNull();
+        assertThat(map.putIfAbsent(id, "second")).isEqualTo("first");
+        map.put(id, "third");
+
+        assertThat(map.get(id)).isEqualTo("third");
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_should_see_every_completed_put_while_map_grows() throws Exception {
+        UuidMap<UniqueId<Account>> map = new UuidMap<>();
+        List<UniqueId<Account>> ids = ids(200_000);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> ids.forEach(id -> map.putIfAbsent(id, id)));
+            while (!writer.isDone()) {
+                int size = map.size();
+                for (int i = 0; i < size; i += 97) {
+                    assertThat(map.get(ids.get(i))).isEqualTo(ids.get(i));
+                }
+            }
+            writer.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void values_should_see_entries_added_while_map_grows() throws Exception {
+        // Large enough for growing to take a while, and filled up to just short of growing
+        int entries = 3 << 17;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            boolean caughtGrowing = false;
+            for (int attempt = 0; attempt < 10 && !caughtGrowing; attempt++) {
+                UuidMap<UniqueId<Account>> map = new UuidMap<>(entries);
+                ids(entries).forEach(id -> map.putIfAbsent(id, id));
+                UniqueId<Account> grows = UniqueId.of(UUID.randomUUID());
+                UniqueId<Account> added = UniqueId.of(UUID.randomUUID());
+
+                Future<?> growing = executor.submit(() -> map.putIfAbsent(grows, grows));
+                Thread.sleep(5);
+                map.putIfAbsent(added, added);
+                List<UniqueId<Account>> values = new ArrayList<>();
+                map.values().forEach(values::add);
+                caughtGrowing = !growing.isDone();
+                growing.get();
+
+                assertThat(values).contains(added)
+                                  .doesNotHaveDuplicates();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void putIfAbsent_should_add_each_id_once_from_concurrent_writers_while_map_grows() throws Exception {
+        UuidMap<Integer> map = new UuidMap<>();
+        List<UniqueId<Account>> ids = ids(200_000);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS);
+        try {
+            List<Future<Integer>> writers = new ArrayList<>();
+            for (int i = 0; i < WRITERS; i++) {
+                Integer writer = i;
+                writers.add(executor.submit(() -> {
+                    int added = 0;
+                    for (UniqueId<Account> id : ids) {
+                        added += map.putIfAbsent(id, writer) == null ? 1 : 0;
+                    }
+                    return added;
+                }));
+            }
+            int added = 0;
+            for (Future<Integer> writer : writers) {
+                added += writer.get();
+            }
+
+            assertThat(added).isEqualTo(ids.size());
+            assertThat(map.size()).isEqualTo(ids.size());
+            assertThat(map.values()).hasSize(ids.size());
+            for (UniqueId<Account> id : ids) {
+                assertThat(map.get(id)).isNotNull();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void put_should_not_lose_replacements_while_map_grows() throws Exception {
+        UuidMap<String> map = new UuidMap<>();
+        List<UniqueId<Account>> ids = ids(100_000);
+        UniqueId<Account> replaced = ids.get(0);
+        map.putIfAbsent(replaced, "0");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writer = executor.submit(() -> ids.forEach(id -> map.putIfAbsent(id, id.toString())));
+            int replacements = 0;
+            while (!writer.isDone()) {
+                map.put(replaced, Integer.toString(++replacements));
+                assertThat(map.get(replaced)).isEqualTo(Integer.toString(replacements));
+            }
+            writer.get();
+            assertThat(map.get(replaced)).isEqualTo(Integer.toString(replacements));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static List<UniqueId<Account>> ids(int count) {
+        List<UniqueId<Account>> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UniqueId.of(UUID.randomUUID()));
+        }
+        return ids;
+    }
+}